@@ -0,0 +1,156 @@
+package cluster;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Streams account records from a file, or generated ones, to POST /accounts/import of a node and prints the progress
+ * reports as they arrive, then the time the import took.
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar cluster.AccountImportClient accounts.ndjson [port] [import id]
+ * java -cp benchmarks/target/benchmarks.jar cluster.AccountImportClient accounts.csv [port] [import id]
+ * java -cp benchmarks/target/benchmarks.jar cluster.AccountImportClient -n 1000000 [port] [import id]
+ * </pre>
+ * A file ending in .csv is sent as CSV, any other as NDJSON. With -n the records are key-0 to key-(n - 1) with an amount
+ * of 1000, the account ids of the load generator, generated as they are sent. The port is the HTTP port, 9551 by default.
+ * <p>
+ * Every record without an idempotency key gets import id:line number, line numbers from 1, so sending the same import
+ * again within the entities' idempotency window, after a failed or interrupted import, deposits each amount once. The
+ * import id is the file name, or generated-n with -n; give another one to deposit the same records again. Lines that
+ * are not records are sent as they are and counted as invalid by the node.
+ */
+public class AccountImportClient {
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+
+  public static void main(String[] args) throws Exception {
+    if (args.length == 0 || (args[0].equals("-n") && args.length < 2)) {
+      System.err.println("Usage: AccountImportClient <file.ndjson | file.csv | -n count> [port] [import id]");
+      System.exit(1);
+    }
+    final var generate = args[0].equals("-n");
+    final var portArg = generate ? 2 : 1;
+    final var port = args.length > portArg ? Integer.parseInt(args[portArg]) : 9551;
+    final var importId = args.length > portArg + 1
+        ? args[portArg + 1]
+        : generate ? "generated-" + args[1] : Path.of(args[0]).getFileName().toString();
+    final var csv = !generate && args[0].endsWith(".csv");
+    final var body = HttpRequest.BodyPublishers.ofInputStream(() -> generate
+        ? new Records(generated(Long.parseLong(args[1]), importId))
+        : new Records(keyed(Path.of(args[0]), csv, importId)));
+    final var request = HttpRequest.newBuilder(URI.create(String.format("http://localhost:%d/accounts/import%s", port, csv ? "?format=csv" : "")))
+        .header("Content-Type", csv ? "text/csv" : "application/x-ndjson")
+        .POST(body)
+        .build();
+
+    final var start = System.nanoTime();
+    final var response = HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofLines());
+    if (response.statusCode() != 200) {
+      System.err.printf("Import failed with HTTP status %d%n", response.statusCode());
+      response.body().forEach(System.err::println);
+      System.exit(1);
+    }
+    response.body().forEach(System.out::println);
+    System.out.printf("Import %s took %.1f s, the last report is the total%n", importId, (System.nanoTime() - start) / 1e9);
+  }
+
+  private static Stream<String> generated(long count, String importId) {
+    return LongStream.range(0, count).mapToObj(i -> String.format("{\"id\":\"%s\",\"amount\":1000,\"idempotencyKey\":\"%s:%d\"}",
+        LoadGeneratorActor.entityId((int) i), importId, i + 1));
+  }
+
+  private static Stream<String> keyed(Path file, boolean csv, String importId) {
+    final Stream<String> lines;
+    try {
+      lines = Files.lines(file);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    final var lineNumber = new long[1];
+    return lines.map(line -> withKey(line, csv, importId + ":" + ++lineNumber[0]));
+  }
+
+  // a CSV record without a key has one comma, an NDJSON record no idempotencyKey field
+  private static String withKey(String line, boolean csv, String key) {
+    if (csv) {
+      return line.indexOf(',') >= 0 && line.indexOf(',') == line.lastIndexOf(',') ? line + "," + key : line;
+    }
+    try {
+      final var record = objectMapper.readTree(line);
+      if (record instanceof ObjectNode && !record.hasNonNull("idempotencyKey")) {
+        return objectMapper.writeValueAsString(((ObjectNode) record).put("idempotencyKey", key));
+      }
+    } catch (IOException e) {
+      // not a record, sent as it is
+    }
+    return line;
+  }
+
+  /**
+   * NDJSON or CSV lines produced while they are read, so millions of them need no file and no memory.
+   */
+  private static class Records extends InputStream {
+    private final Stream<String> lines;
+    private final Iterator<String> iterator;
+    private byte[] record = new byte[0];
+    private int position;
+
+    Records(Stream<String> lines) {
+      this.lines = lines;
+      iterator = lines.iterator();
+    }
+
+    @Override
+    public int read() {
+      if (!fill()) {
+        return -1;
+      }
+      return record[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+      if (length == 0) {
+        return 0;
+      }
+      var read = 0;
+      while (read < length && fill()) {
+        final var n = Math.min(length - read, record.length - position);
+        System.arraycopy(record, position, bytes, offset + read, n);
+        position += n;
+        read += n;
+      }
+      return read == 0 ? -1 : read;
+    }
+
+    @Override
+    public void close() {
+      lines.close();
+    }
+
+    private boolean fill() {
+      if (position < record.length) {
+        return true;
+      }
+      if (!iterator.hasNext()) {
+        return false;
+      }
+      record = (iterator.next() + "\n").getBytes(StandardCharsets.UTF_8);
+      position = 0;
+      return true;
+    }
+  }
+}
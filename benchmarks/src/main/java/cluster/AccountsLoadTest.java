@@ -0,0 +1,138 @@
+package cluster;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.typesafe.config.ConfigFactory;
+
+/**
+ * Drives the /accounts routes of running nodes over HTTP and reports requests per second and latency percentiles.
+ * <p>
+ * A closed model: concurrency requests are kept in flight, each response starts the next request to the next node.
+ * Accounts are drawn from the load generator's key distribution and a request is a POST of a deposit or withdrawal
+ * with the write fraction, else a GET. Every second the requests per second and the status counts of that second are
+ * printed, at the end the totals and the percentiles of all requests. A 503 is a shed request, counted and not retried.
+ * <p>
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar cluster.AccountsLoadTest [concurrency] [seconds] [ports]
+ * java -cp benchmarks/target/benchmarks.jar cluster.AccountsLoadTest 64 30 9551,9552,9553
+ * </pre>
+ * The key distribution, key count and write fraction are read from application.conf, for example
+ * -Dload-generator.key-distribution=uniform or -Dload-generator.write-fraction=0.1.
+ */
+public class AccountsLoadTest {
+  public static void main(String[] args) throws Exception {
+    final var concurrency = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+    final var seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+    final var ports = (args.length > 2 ? args[2] : "9551,9552,9553").split(",");
+
+    final var loadGenerator = ConfigFactory.load().getConfig("load-generator");
+    final var keyDistribution = KeyDistribution.create(loadGenerator);
+    final var writeFraction = loadGenerator.getDouble("write-fraction");
+    final List<URI> nodes = new ArrayList<>();
+    for (var port : ports) {
+      nodes.add(URI.create(String.format("http://localhost:%s/accounts/", port.trim())));
+    }
+    System.out.printf("%s, %d in flight, writes %.2f, %d s, %s%n", keyDistribution, concurrency, writeFraction, seconds, nodes);
+
+    final var client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    final var run = new Run(client, nodes, keyDistribution, writeFraction, System.nanoTime() + Duration.ofSeconds(seconds).toNanos(),
+        concurrency);
+    for (int i = 0; i < concurrency; i++) {
+      run.next(i);
+    }
+
+    final var start = System.nanoTime();
+    var lastCount = 0L;
+    for (int second = 1; second <= seconds; second++) {
+      Thread.sleep(Math.max(0, start + Duration.ofSeconds(second).toNanos() - System.nanoTime()) / 1_000_000);
+      final var count = run.requests.get();
+      System.out.printf("%3d s %,10d req/s %s%n", second, count - lastCount, run.takeStatuses());
+      lastCount = count;
+    }
+    run.done.await();
+    final var elapsed = (System.nanoTime() - start) / 1e9;
+    System.out.printf("%,d requests in %.1f s, %,.0f req/s, %,d shed, %,d failed%n", run.requests.get(), elapsed,
+        run.requests.get() / elapsed, run.shed.get(), run.failed.get());
+    System.out.printf("%s%n", run.latency());
+  }
+
+  private static class Run {
+    final HttpClient client;
+    final List<URI> nodes;
+    final KeyDistribution keyDistribution;
+    final double writeFraction;
+    final long deadline;
+    final CountDownLatch done;
+    final AtomicLong requests = new AtomicLong();
+    final AtomicLong shed = new AtomicLong();
+    final AtomicLong failed = new AtomicLong();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final Map<Integer, Long> statuses = new TreeMap<>();
+
+    Run(HttpClient client, List<URI> nodes, KeyDistribution keyDistribution, double writeFraction, long deadline, int concurrency) {
+      this.client = client;
+      this.nodes = nodes;
+      this.keyDistribution = keyDistribution;
+      this.writeFraction = writeFraction;
+      this.deadline = deadline;
+      done = new CountDownLatch(concurrency);
+    }
+
+    // each response sends the worker's next request, until the deadline
+    void next(int worker) {
+      if (System.nanoTime() >= deadline) {
+        done.countDown();
+        return;
+      }
+      final var random = ThreadLocalRandom.current();
+      final var uri = nodes.get((int) (requests.get() + worker) % nodes.size()).resolve(LoadGeneratorActor.entityId(nextKey()));
+      final var request = random.nextDouble() < writeFraction
+          ? HttpRequest.newBuilder(uri).header("Content-Type", "application/json").POST(HttpRequest.BodyPublishers.ofString(
+              String.format("{\"amount\":%d}", random.nextBoolean() ? random.nextInt(1, 101) : -random.nextInt(1, 101)))).build()
+          : HttpRequest.newBuilder(uri).GET().build();
+      final var start = System.nanoTime();
+      client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+          .whenComplete((response, failure) -> {
+            record(System.nanoTime() - start, response == null ? -1 : response.statusCode());
+            next(worker);
+          });
+    }
+
+    private synchronized int nextKey() {
+      return keyDistribution.nextKey();
+    }
+
+    private synchronized void record(long nanos, int status) {
+      requests.incrementAndGet();
+      statuses.merge(status, 1L, Long::sum);
+      if (status == 503) {
+        shed.incrementAndGet();
+      } else if (status < 0 || status >= 500) {
+        failed.incrementAndGet();
+      } else {
+        latency.recordNanos(nanos);
+      }
+    }
+
+    synchronized Map<Integer, Long> takeStatuses() {
+      final var taken = new TreeMap<>(statuses);
+      statuses.clear();
+      return taken;
+    }
+
+    synchronized LatencyHistogram latency() {
+      return latency.copy();
+    }
+  }
+}
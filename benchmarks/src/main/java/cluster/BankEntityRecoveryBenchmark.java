@@ -0,0 +1,97 @@
+package cluster;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+import com.typesafe.config.ConfigFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+
+/**
+ * Recovery latency of a bank entity against the number of events it has persisted, with and without snapshots.
+ * <p>
+ * With snapshots enabled recovery replays at most snapshot-every events, so its latency should stay flat as the
+ * event count grows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BankEntityRecoveryBenchmark {
+  private static final String entityId = "recovery-1";
+  private static final Duration timeout = Duration.ofSeconds(60);
+
+  @Param({ "100", "1000", "10000" })
+  int eventCount;
+
+  @Param({ "0", "100" })
+  int snapshotEvery;
+
+  private Path dir;
+  private ActorTestKit testKit;
+  private TestProbe<BankEntityActor.Command> probe;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    dir = Files.createTempDirectory("bank-entity-recovery");
+    testKit = ActorTestKit.create(ConfigFactory.parseString(String.format(
+        "akka.actor.provider = local%n"
+            + "akka.loglevel = WARNING%n"
+            + "file-journal.dir = \"%s\"%n"
+            + "akka.persistence.snapshot-store.local.dir = \"%s\"%n"
+            + "bank-entity.snapshot-every = %d%n",
+        dir.resolve("journal"), dir.resolve("snapshots"), snapshotEvery))
+        .withFallback(ConfigFactory.load()));
+    probe = testKit.createTestProbe(BankEntityActor.Command.class);
+
+    final var entity = testKit.spawn(BankEntityActor.create(entityId, "0", testKit.system().ignoreRef()));
+    final var id = new BankEntityActor.Id(entityId);
+    for (int sent = 0; sent < eventCount; ) {
+      // stay below the persistence stash capacity while events are being written
+      final var batch = Math.min(1000, eventCount - sent);
+      for (int i = 0; i < batch; i++, sent++) {
+        entity.tell(new BankEntityActor.ChangeValue(id, new BankEntityActor.Value(sent), 1, null, probe.getRef()));
+      }
+      probe.receiveSeveralMessages(batch, timeout);
+    }
+    testKit.stop(entity);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    testKit.shutdownTestKit();
+    try (var paths = Files.walk(dir)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  @Benchmark
+  public BankEntityActor.Command recover() {
+    final var entity = testKit.spawn(BankEntityActor.create(entityId, "0", testKit.system().ignoreRef()));
+    entity.tell(new BankEntityActor.GetValue(new BankEntityActor.Id(entityId), probe.getRef()));
+    final var getValueAck = probe.receiveMessage(timeout);
+    testKit.stop(entity);
+    return getValueAck;
+  }
+}
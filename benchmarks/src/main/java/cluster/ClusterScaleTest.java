@@ -0,0 +1,125 @@
+package cluster;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.typesafe.config.ConfigFactory;
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+
+import akka.actor.typed.ActorSystem;
+import akka.cluster.MemberStatus;
+import akka.cluster.typed.Cluster;
+
+/**
+ * Checks that a cluster of more than nine nodes forms and serves its statistics, with all of the nodes in this JVM.
+ * <p>
+ * Starts N nodes, default 20, on Akka ports 2551 to 2550 + N with the node configuration of {@link Main}, so each node
+ * serves HTTP on 9550 + N as it would in its own JVM. One JVM shares heap, threads and compiled code between the nodes,
+ * which a host with few cores cannot afford for N JVMs. The all to all cluster aware pings and the entity ticks are
+ * slowed down, the failure detector is relaxed and only warnings are logged for the same reason. The nodes start one
+ * after the other, each once the previous one is up, as in a rolling start; started all at once on a single core they
+ * time out joining the seed nodes and quarantine each other.
+ * <p>
+ * Passes when, within the timeout, the /cluster-state of every node reports N members up and cluster aware pings from
+ * all of the other nodes. Every few seconds it prints how many nodes are there, then stops the nodes and exits with
+ * status 0 when the check passed, 1 when it did not.
+ * <pre>
+ * ./cluster-scale-test 20
+ * java -Xmx2g -cp benchmarks/target/benchmarks.jar cluster.ClusterScaleTest [nodes] [timeout seconds]
+ * </pre>
+ */
+public class ClusterScaleTest {
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+
+  public static void main(String[] args) throws Exception {
+    final var nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+    final var timeout = Duration.ofSeconds(args.length > 1 ? Long.parseLong(args[1]) : 400);
+    if (System.getProperty("logging_profile") == null) {
+      System.setProperty("logging_profile", "production");
+    }
+    // the nodes' info logs alone would keep a small host busy
+    ((Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+
+    final var start = System.nanoTime();
+    final List<ActorSystem<Void>> nodes = new ArrayList<>();
+    var passed = false;
+    try {
+      final var deadline = start + timeout.toNanos();
+      for (int n = 1; n <= nodeCount && System.nanoTime() < deadline; n++) {
+        final var node = ActorSystem.create(Main.create(), "cluster", ConfigFactory.parseString(String.join("\n",
+                "akka.loglevel = WARNING",
+                "akka.cluster.jmx.multi-mbeans-in-same-jvm = on",
+                "akka.cluster.failure-detector.acceptable-heartbeat-pause = 30s",
+                "akka.actor.default-dispatcher.fork-join-executor.parallelism-max = 2",
+                "akka.actor.internal-dispatcher.fork-join-executor.parallelism-max = 2",
+                "cluster-aware.tick-interval-iso-8601 = \"PT1S\"",
+                "entity-actor.command-tick-interval-iso-8601 = \"PT10S\"",
+                "entity-actor.query-tick-interval-iso-8601 = \"PT10S\"",
+                "entity-actor.log-sample-every = 1000"))
+            .withFallback(Main.setupClusterNodeConfig(2550 + n)));
+        nodes.add(node);
+        // one node joining at a time, as in a rolling start, instead of all of them competing for the seed nodes
+        while (!Cluster.get(node).selfMember().status().equals(MemberStatus.up()) && System.nanoTime() < deadline) {
+          Thread.sleep(200);
+        }
+      }
+      System.out.printf("Started %d nodes on ports 2551 through %d in %.1f s%n", nodes.size(), 2550 + nodes.size(), seconds(start));
+
+      final var client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(2)).build();
+      while (!passed && System.nanoTime() < deadline) {
+        Thread.sleep(5000);
+        var membersUp = 0;
+        var pinged = 0;
+        for (int n = 1; n <= nodeCount; n++) {
+          final var clusterState = clusterState(client, 9550 + n);
+          membersUp += clusterState != null && count(clusterState.path("nodes"), "memberState", "up") == nodeCount ? 1 : 0;
+          pinged += clusterState != null && clusterState.path("clusterAwareStatistics").path("nodePings").size() == nodeCount - 1 ? 1 : 0;
+        }
+        System.out.printf("%5.1f s %d of %d nodes see %d members up, %d of %d get pings from all the others%n",
+            seconds(start), membersUp, nodeCount, nodeCount, pinged, nodeCount);
+        passed = membersUp == nodeCount && pinged == nodeCount;
+      }
+      System.out.printf(passed ? "Cluster of %d nodes formed in %.1f s%n" : "Cluster of %d nodes did not form within %.0f s%n",
+          nodeCount, passed ? seconds(start) : (double) timeout.toSeconds());
+    } finally {
+      nodes.forEach(ActorSystem::terminate);
+      for (var node : nodes) {
+        node.getWhenTerminated().toCompletableFuture().get(30, TimeUnit.SECONDS);
+      }
+    }
+    System.exit(passed ? 0 : 1);
+  }
+
+  private static JsonNode clusterState(HttpClient client, int port) {
+    try {
+      final var response = client.send(HttpRequest.newBuilder(URI.create(String.format("http://localhost:%d/cluster-state", port)))
+          .timeout(Duration.ofSeconds(5)).build(), HttpResponse.BodyHandlers.ofString());
+      return response.statusCode() == 200 ? objectMapper.readTree(response.body()) : null;
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  private static int count(JsonNode array, String field, String value) {
+    var count = 0;
+    for (var element : array) {
+      count += value.equals(element.path(field).asText()) ? 1 : 0;
+    }
+    return count;
+  }
+
+  private static double seconds(long startNanos) {
+    return (System.nanoTime() - startNanos) / 1e9;
+  }
+}
@@ -0,0 +1,138 @@
+package cluster;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.typesafe.config.ConfigFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import akka.actor.testkit.typed.javadsl.BehaviorTestKit;
+import akka.actor.testkit.typed.javadsl.TestInbox;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.persistence.testkit.javadsl.EventSourcedBehaviorTestKit;
+
+/**
+ * Command handling cost of a single entity, without sharding or remoting.
+ * <p>
+ * The in memory EntityActor runs synchronously in a BehaviorTestKit. The event sourced BankEntityActor cannot run in a
+ * BehaviorTestKit, it runs in an EventSourcedBehaviorTestKit backed by the in memory persistence test journal.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EntityCommandBenchmark {
+  private static final int batchSize = 10;
+
+  private ActorSystem<Void> actorSystem;
+  private EventSourcedBehaviorTestKit<BankEntityActor.Command, BankEntityActor.Event, BankEntityActor.State> bankEntity;
+  private BankEntityActor.Id bankEntityId;
+  private long idempotencyKeys;
+  private List<BankEntityActor.Operation> batchOperations;
+
+  private BehaviorTestKit<EntityActor.Command> entity;
+  private TestInbox<EntityActor.Command> entityReplies;
+  private TestInbox<HttpServer.Statistics> httpServer;
+  private EntityActor.Id entityId;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    actorSystem = ActorSystem.create(Behaviors.empty(), "benchmark", ConfigFactory.parseString(String.format(
+        "akka.actor.provider = local%n"
+            + "akka.loglevel = WARNING%n"
+            + "entity-actor.log-sample-every = 1000000000%n"))
+        .withFallback(EventSourcedBehaviorTestKit.config())
+        .withFallback(ConfigFactory.load()));
+    bankEntityId = new BankEntityActor.Id("bank-1");
+    bankEntity = EventSourcedBehaviorTestKit.create(actorSystem,
+        BankEntityActor.create(bankEntityId.id, "0", actorSystem.ignoreRef()), EventSourcedBehaviorTestKit.disabledSerializationSettings());
+    bankEntity.<BankEntityActor.Command>runCommand(replyTo ->
+        new BankEntityActor.ChangeValue(bankEntityId, new BankEntityActor.Value(0), 1, "initial", replyTo));
+    batchOperations = new ArrayList<>();
+    for (int i = 0; i < batchSize; i++) {
+      batchOperations.add(new BankEntityActor.Operation(false, new BankEntityActor.Value(1), 1, null));
+    }
+
+    entityId = new EntityActor.Id("entity-1");
+    entityReplies = TestInbox.create();
+    httpServer = TestInbox.create();
+    entity = BehaviorTestKit.create(EntityActor.create(entityId.id, "0", httpServer.getRef()), "entity", actorSystem.settings().config());
+    entity.run(new EntityActor.ChangeValue(entityId, new EntityActor.Value("initial"), entityReplies.getRef()));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    actorSystem.terminate();
+  }
+
+  @Benchmark
+  public Object bankEntityChangeValue() {
+    return bankEntity.<BankEntityActor.Command>runCommand(replyTo ->
+        new BankEntityActor.ChangeValue(bankEntityId, new BankEntityActor.Value(1), 1, null, replyTo)).reply();
+  }
+
+  /**
+   * A deposit with a new idempotency key, which is checked against and added to the entity's recent keys.
+   */
+  @Benchmark
+  public Object bankEntityChangeValueWithKey() {
+    final var idempotencyKey = Long.toString(++idempotencyKeys);
+    return bankEntity.<BankEntityActor.Command>runCommand(replyTo ->
+        new BankEntityActor.ChangeValue(bankEntityId, new BankEntityActor.Value(1), 1, idempotencyKey, replyTo)).reply();
+  }
+
+  /**
+   * A retried deposit, acknowledged without persisting.
+   */
+  @Benchmark
+  public Object bankEntityChangeValueDuplicate() {
+    return bankEntity.<BankEntityActor.Command>runCommand(replyTo ->
+        new BankEntityActor.ChangeValue(bankEntityId, new BankEntityActor.Value(1), 1, "initial", replyTo)).reply();
+  }
+
+  /**
+   * Time per deposit of a BatchCommand of ten deposits, persisted in one write.
+   */
+  @Benchmark
+  @OperationsPerInvocation(batchSize)
+  public Object bankEntityBatchCommand() {
+    return bankEntity.<BankEntityActor.Command>runCommand(replyTo ->
+        new BankEntityActor.BatchCommand(bankEntityId, batchOperations, replyTo)).reply();
+  }
+
+  @Benchmark
+  public Object bankEntityGetValue() {
+    return bankEntity.<BankEntityActor.Command>runCommand(replyTo -> new BankEntityActor.GetValue(bankEntityId, replyTo)).reply();
+  }
+
+  @Benchmark
+  public Object entityChangeValue() {
+    entity.run(new EntityActor.ChangeValue(entityId, new EntityActor.Value("value"), entityReplies.getRef()));
+    httpServer.getAllReceived();
+    return entityReplies.receiveMessage();
+  }
+
+  @Benchmark
+  public Object entityGetValue() {
+    entity.run(new EntityActor.GetValue(entityId, entityReplies.getRef()));
+    httpServer.getAllReceived();
+    return entityReplies.receiveMessage();
+  }
+}
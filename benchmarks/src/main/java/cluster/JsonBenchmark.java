@@ -0,0 +1,80 @@
+package cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import akka.util.ByteString;
+
+/**
+ * JSON rendering of the /cluster-state response and the viewer tree snapshot, comparing a new pretty printing
+ * ObjectMapper per response, as the HTTP server used to do, with the shared writers. Run with -prof gc and compare
+ * gc.alloc.rate.norm for the bytes allocated per response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class JsonBenchmark {
+  private static final int members = 9;
+  private static final int shards = 18;
+
+  @Param({ "1000", "100000" })
+  int entities;
+
+  private HttpServer.Nodes nodes;
+  private HttpServer.Tree tree;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    final var pings = new HashMap<Integer, Long>();
+    nodes = new HttpServer.Nodes(2551, true, true,
+        new HttpServer.PingSummary(null, 1_000_000, 180, pings), new HttpServer.PingSummary(null, 100_000, 9, pings));
+    for (int m = 0; m < members; m++) {
+      nodes.nodes.add(new HttpServer.Node(2551 + m, "up", "up", m == 0, m == 0, m < 3));
+      pings.put(2551 + m, 100_000L + m);
+    }
+    tree = new HttpServer.Tree("cluster", "cluster");
+    for (int e = 0; e < entities; e++) {
+      tree.add(String.format("akka://cluster@127.0.0.1:%d", 2551 + e % members), "" + e % shards,
+          BankEntityActor.entityId(2551 + e % members, e));
+    }
+  }
+
+  @Benchmark
+  public ByteString clusterStatePerRequestMapper() throws Exception {
+    return ByteString.fromString(new ObjectMapper().writer().withDefaultPrettyPrinter().writeValueAsString(nodes));
+  }
+
+  @Benchmark
+  public ByteString clusterStateSharedWriter() {
+    return JsonWriters.toJson(nodes);
+  }
+
+  @Benchmark
+  public byte[] treePerRequestMapper() throws Exception {
+    return new ObjectMapper().writer().withDefaultPrettyPrinter().writeValueAsString(tree).getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public ByteString treeStreaming() {
+    return JsonWriters.toJson(generator -> JsonWriters.writeTree(generator, tree));
+  }
+}
@@ -0,0 +1,203 @@
+package cluster;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import akka.actor.Address;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.javadsl.AskPattern;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.cluster.MemberStatus;
+import akka.cluster.sharding.ShardRegion;
+import akka.cluster.sharding.typed.ClusterShardingQuery;
+import akka.cluster.sharding.typed.GetShardRegionState;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.cluster.sharding.typed.javadsl.Entity;
+import akka.cluster.sharding.typed.javadsl.EntityRef;
+import akka.cluster.typed.Cluster;
+import akka.cluster.typed.Down;
+import akka.cluster.typed.Join;
+
+/**
+ * Time from killing a node until all of its bank entities are serving again on the other nodes, with remember entities.
+ * <p>
+ * Each invocation starts a three node cluster in this JVM with the file journal, deposits to every account so the
+ * entities are running and remembered, then kills the youngest node: it stops without leaving the cluster or handing
+ * off its shards, as with node-kill, and is downed from the oldest node. The time is measured until the shard regions
+ * of the two remaining nodes hold every entity again and every entity that ran on the killed node has answered a
+ * GetValue. The rate at which each shard restarts its entities is the recoveryBatch parameter per 100 ms.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RememberEntitiesRecoveryBenchmark {
+  private static final int nodeCount = 3;
+  private static final Duration timeout = Duration.ofSeconds(60);
+  private static final Duration pollInterval = Duration.ofMillis(20);
+
+  @Param({ "1000", "10000" })
+  int entities;
+
+  @Param({ "20", "200" })
+  int recoveryBatch;
+
+  private Path dir;
+  private final List<ActorSystem<Void>> nodes = new ArrayList<>();
+  private Set<String> killedEntityIds;
+
+  @Setup(Level.Invocation)
+  public void setup() throws Exception {
+    dir = Files.createTempDirectory("remember-entities");
+    for (int n = 0; n < nodeCount; n++) {
+      final var node = ActorSystem.<Void>create(Behaviors.empty(), "remember", nodeConfig());
+      Cluster.get(node).manager().tell(Join.create(nodes.isEmpty() ? node.address() : nodes.get(0).address()));
+      final var config = node.settings().config();
+      final EntityShardExtractor<BankEntityActor.Command> bankEntityShards = EntityShardExtractor.create(config);
+      ClusterSharding.get(node).init(Entity.of(BankEntityActor.entityTypeKey,
+          entityContext -> BankEntityActor.create(entityContext.getEntityId(), bankEntityShards.shardId(entityContext.getEntityId()),
+              node.ignoreRef()))
+          .withMessageExtractor(bankEntityShards)
+          .withSettings(Main.bankEntityShardingSettings(config))
+          .withStopMessage(BankEntityActor.Passivate.INSTANCE));
+      nodes.add(node);
+      awaitMembersUp(nodes.size());
+    }
+
+    final var deposits = new ArrayList<CompletableFuture<BankEntityActor.Command>>();
+    for (int a = 0; a < entities; a++) {
+      final var id = new BankEntityActor.Id(accountId(a));
+      deposits.add(entityRef(nodes.get(a % nodeCount), id.id).<BankEntityActor.Command>ask(replyTo ->
+          new BankEntityActor.ChangeValue(id, new BankEntityActor.Value(0), 100, null, replyTo), timeout)
+          .toCompletableFuture());
+    }
+    CompletableFuture.allOf(deposits.toArray(CompletableFuture[]::new)).get(timeout.toSeconds(), TimeUnit.SECONDS);
+    killedEntityIds = entityIds(victim());
+  }
+
+  private Config nodeConfig() {
+    return ConfigFactory.parseString(String.format(
+        "akka.loglevel = WARNING%n"
+            + "akka.remote.artery.canonical.hostname = \"127.0.0.1\"%n"
+            + "akka.remote.artery.canonical.port = 0%n"
+            + "akka.cluster.seed-nodes = []%n"
+            + "akka.coordinated-shutdown.run-by-actor-system-terminate = off%n"
+            + "akka.cluster.run-coordinated-shutdown-when-down = off%n"
+            + "bank-entity.sharding.remember-entities = on%n"
+            + "bank-entity.sharding.entity-recovery-constant-rate-strategy.number-of-entities = %d%n"
+            + "file-journal.dir = \"%s\"%n"
+            + "akka.persistence.snapshot-store.local.dir = \"%s\"%n",
+        recoveryBatch, dir.resolve("journal"), dir.resolve("snapshots")))
+        .withFallback(ConfigFactory.load());
+  }
+
+  @TearDown(Level.Invocation)
+  public void tearDown() throws Exception {
+    System.out.printf("%n%,d of %,d entities were on the killed node%n", killedEntityIds.size(), entities);
+    nodes.forEach(ActorSystem::terminate);
+    for (var node : nodes) {
+      node.getWhenTerminated().toCompletableFuture().get(timeout.toSeconds(), TimeUnit.SECONDS);
+    }
+    nodes.clear();
+    try (var paths = Files.walk(dir)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  @Benchmark
+  public int killAndRecover() throws Exception {
+    final var victim = victim();
+    final Address victimAddress = Cluster.get(victim).selfMember().address();
+    final var survivors = nodes.subList(0, nodeCount - 1);
+    victim.terminate();
+    Cluster.get(survivors.get(0)).manager().tell(new Down(victimAddress));
+
+    final var deadline = System.nanoTime() + timeout.toNanos();
+    while (survivors.stream().mapToInt(node -> entityIds(node).size()).sum() < entities) {
+      if (System.nanoTime() > deadline) {
+        throw new IllegalStateException("Entities did not restart");
+      }
+      Thread.sleep(pollInterval.toMillis());
+    }
+
+    final var values = new ArrayList<CompletableFuture<BankEntityActor.Command>>();
+    for (var entityId : killedEntityIds) {
+      values.add(entityRef(survivors.get(0), entityId).<BankEntityActor.Command>ask(replyTo ->
+          new BankEntityActor.GetValue(new BankEntityActor.Id(entityId), replyTo), timeout)
+          .toCompletableFuture());
+    }
+    CompletableFuture.allOf(values.toArray(CompletableFuture[]::new)).get(timeout.toSeconds(), TimeUnit.SECONDS);
+    return values.size();
+  }
+
+  // the youngest node, so the shard coordinator on the oldest node keeps running
+  private ActorSystem<Void> victim() {
+    return nodes.get(nodeCount - 1);
+  }
+
+  private static Set<String> entityIds(ActorSystem<?> node) {
+    try {
+      final ShardRegion.CurrentShardRegionState state = AskPattern.<ClusterShardingQuery, ShardRegion.CurrentShardRegionState>ask(
+          ClusterSharding.get(node).shardState(), replyTo -> new GetShardRegionState(BankEntityActor.entityTypeKey, replyTo),
+          timeout, node.scheduler()).toCompletableFuture().get(timeout.toSeconds(), TimeUnit.SECONDS);
+      final Set<String> entityIds = new HashSet<>();
+      state.getShards().forEach(shard -> entityIds.addAll(shard.getEntityIds()));
+      return entityIds;
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private void awaitMembersUp(int count) throws InterruptedException {
+    final var deadline = System.nanoTime() + timeout.toNanos();
+    while (nodes.stream().anyMatch(node -> membersUp(node) < count)) {
+      if (System.nanoTime() > deadline) {
+        throw new IllegalStateException("Cluster did not form");
+      }
+      Thread.sleep(100);
+    }
+  }
+
+  private static int membersUp(ActorSystem<?> node) {
+    int up = 0;
+    for (var member : Cluster.get(node).state().getMembers()) {
+      up += member.status() == MemberStatus.up() ? 1 : 0;
+    }
+    return up;
+  }
+
+  private static EntityRef<BankEntityActor.Command> entityRef(ActorSystem<?> node, String entityId) {
+    return ClusterSharding.get(node).entityRefFor(BankEntityActor.entityTypeKey, entityId);
+  }
+
+  private static String accountId(int account) {
+    return String.format("account-%d", account);
+  }
+}
@@ -0,0 +1,133 @@
+package cluster;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import com.typesafe.config.ConfigFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.serialization.Serializer;
+import akka.serialization.Serializers;
+
+/**
+ * Round trip cost of the wire messages, using the serializers the application binds them to. The bank protocol and
+ * entity actions are measured with the binary serializer and with jackson-cbor, and the serialized size of each
+ * message is printed at setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+  private ActorSystem<Void> actorSystem;
+  private Serialization serialization;
+  private Object changeValue;
+  private Object getValueAck;
+  private Object entityAction;
+  private Object singletonPong;
+  private Object entityActionBatch;
+
+  @Param({ "bank-protocol", "jackson-cbor" })
+  String bankProtocolSerializer;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    actorSystem = ActorSystem.create(Behaviors.empty(), "benchmark", ConfigFactory.parseString(String.format(
+        "akka.actor.provider = local%n"
+            + "akka.loglevel = WARNING%n"
+            + "akka.actor.serialization-bindings {%n"
+            + "  \"cluster.BankEntityActor$Command\" = %1$s%n"
+            + "  \"cluster.HttpServer$EntityAction\" = %1$s%n"
+            + "  \"cluster.HttpServer$EntityActionBatch\" = %1$s%n"
+            + "}%n", bankProtocolSerializer))
+        .withFallback(ConfigFactory.load()));
+    serialization = SerializationExtension.get(actorSystem.classicSystem());
+
+    final var id = new BankEntityActor.Id("2551-7");
+    final var value = new BankEntityActor.Value(System.currentTimeMillis());
+    changeValue = new BankEntityActor.ChangeValue(id, value, 100, "2551-7-1", actorSystem.ignoreRef());
+    getValueAck = new BankEntityActor.GetValueAck(id, value, 4200);
+    entityAction = new HttpServer.EntityAction("akka://cluster@127.0.0.1:2551", "7", "2551-7", "ping", "akka://cluster@127.0.0.1:2552");
+    final var entityActions = new ArrayList<HttpServer.EntityAction>();
+    for (int e = 0; e < 100; e++) {
+      entityActions.add(new HttpServer.EntityAction(String.format("akka://cluster@127.0.0.1:%d", 2551 + e % 3), "" + e % 18,
+          BankEntityActor.entityId(2551 + e % 3, e), "ping", "akka://cluster@127.0.0.1:2552"));
+    }
+    entityActionBatch = new HttpServer.EntityActionBatch(entityActions);
+
+    // a steady state delta from a singleton pinged by 20 nodes, after the first full message
+    final var pingCounters = new PingCounters();
+    final var sent = new PingCounters.Sent();
+    for (int port = 2551; port < 2571; port++) {
+      pingCounters.ping(port);
+    }
+    pingCounters.delta(sent);
+    for (int port = 2551; port < 2571; port++) {
+      pingCounters.ping(port);
+    }
+    singletonPong = new ClusterSingletonAwareActor.Pong("akka://cluster@127.0.0.1:2551", System.nanoTime(),
+        pingCounters.total(), pingCounters.ratePerSecond(), pingCounters.delta(sent));
+
+    System.out.printf("%n%s bytes per message: changeValue %d, getValueAck %d, entityAction %d, entityActionBatch(100) %d%n",
+        bankProtocolSerializer, size(changeValue), size(getValueAck), size(entityAction), size(entityActionBatch));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    actorSystem.terminate();
+  }
+
+  @Benchmark
+  public Object changeValue() {
+    return roundTrip(changeValue);
+  }
+
+  @Benchmark
+  public Object getValueAck() {
+    return roundTrip(getValueAck);
+  }
+
+  @Benchmark
+  public Object entityAction() {
+    return roundTrip(entityAction);
+  }
+
+  @Benchmark
+  public Object entityActionBatch() {
+    return roundTrip(entityActionBatch);
+  }
+
+  @Benchmark
+  public Object singletonPong() {
+    return roundTrip(singletonPong);
+  }
+
+  private int size(Object message) {
+    return serialization.serialize(message).get().length;
+  }
+
+  private Object roundTrip(Object message) {
+    final Serializer serializer = serialization.findSerializerFor(message);
+    final var bytes = serialization.serialize(message).get();
+    return serialization.deserialize(bytes, serializer.identifier(), Serializers.manifestFor(serializer, message)).get();
+  }
+}
@@ -0,0 +1,100 @@
+package cluster;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.typesafe.config.ConfigFactory;
+
+/**
+ * Replays a skewed workload against {@link LoadShardAllocationStrategy} on simulated nodes, without a cluster.
+ * <p>
+ * Shards are first allocated by the strategy, which with no load yet balances them by count. Each simulated second
+ * the load generator's key distribution picks the keys of rate-per-second requests, which are recorded against their
+ * shards, and every rebalance interval the strategy's moves are applied at once. At the end the per node message rates
+ * over the last minute are printed for the count balanced start and after load rebalancing.
+ * <p>
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar cluster.ShardAllocationSimulation [nodes] [shards] [seconds]
+ * </pre>
+ * The workload, the half life and the rebalance settings are read from application.conf, for example
+ * -Dload-generator.key-distribution=hotspot or -Dbank-entity.shard-allocation.rebalance-threshold=0.1.
+ */
+public class ShardAllocationSimulation {
+  private static final Duration rebalanceInterval = Duration.ofSeconds(5);
+  private static final int measureSeconds = 60;
+
+  public static void main(String[] args) {
+    final var nodes = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+    final var shards = args.length > 1 ? Integer.parseInt(args[1]) : 18;
+    final var seconds = args.length > 2 ? Integer.parseInt(args[2]) : 600;
+
+    final var config = ConfigFactory.load();
+    final var loadGenerator = config.getConfig("load-generator");
+    final var allocation = config.getConfig("bank-entity.shard-allocation");
+    final var keyDistribution = KeyDistribution.create(loadGenerator);
+    final var ratePerSecond = (int) loadGenerator.getDouble("rate-per-second");
+    final var extractor = new EntityShardExtractor<BankEntityActor.Command>(shards,
+        config.getString("bank-entity.shard-mapping").equals("consistent"));
+    final var shardLoad = new ShardLoad(Duration.parse(allocation.getString("rate-half-life-iso-8601")));
+    final var strategy = new LoadShardAllocationStrategy(shardLoad, allocation, region -> true);
+
+    final Map<String, List<String>> allocations = new LinkedHashMap<>();
+    for (int n = 1; n <= nodes; n++) {
+      allocations.put(String.format("node-%d", n), new ArrayList<>());
+    }
+    for (int s = 0; s < shards; s++) {
+      allocations.get(strategy.allocate(allocations, 0)).add(String.valueOf(s));
+    }
+    System.out.printf("%s, %,d requests/s, %d nodes, %d shards, %d s%n", keyDistribution, ratePerSecond, nodes, shards, seconds);
+    System.out.printf("Count balanced   %s%n", measure(allocations, extractor, keyDistribution, ratePerSecond, shards));
+
+    long moves = 0;
+    final var start = System.nanoTime();
+    for (int second = 1; second <= seconds; second++) {
+      final var nanos = Duration.ofSeconds(second).toNanos();
+      final var counts = new int[shards];
+      for (int r = 0; r < ratePerSecond; r++) {
+        ++counts[shardOf(extractor, keyDistribution.nextKey())];
+      }
+      for (int s = 0; s < shards; s++) {
+        shardLoad.record(String.valueOf(s), counts[s], nanos);
+      }
+      if (nanos % rebalanceInterval.toNanos() == 0) {
+        for (var shard : strategy.rebalance(allocations, Collections.emptySet(), nanos)) {
+          allocations.values().forEach(regionShards -> regionShards.remove(shard));
+          allocations.get(strategy.allocate(allocations, nanos)).add(shard);
+          ++moves;
+        }
+      }
+    }
+    System.out.printf("Load balanced    %s%n", measure(allocations, extractor, keyDistribution, ratePerSecond, shards));
+    System.out.printf("%,d shard moves, %,d ms%n", moves, Duration.ofNanos(System.nanoTime() - start).toMillis());
+    allocations.forEach((region, regionShards) -> System.out.printf("  %s %s%n", region, regionShards));
+  }
+
+  private static String measure(Map<String, List<String>> allocations, EntityShardExtractor<?> extractor,
+      KeyDistribution keyDistribution, int ratePerSecond, int shards) {
+    final var counts = new long[shards];
+    for (long r = 0; r < (long) ratePerSecond * measureSeconds; r++) {
+      ++counts[shardOf(extractor, keyDistribution.nextKey())];
+    }
+    final var rates = new StringBuilder();
+    double max = 0;
+    double total = 0;
+    for (var regionShards : allocations.values()) {
+      final var rate = regionShards.stream().mapToLong(shard -> counts[Integer.parseInt(shard)]).sum() / (double) measureSeconds;
+      rates.append(String.format(" %,8.0f", rate));
+      max = Math.max(max, rate);
+      total += rate;
+    }
+    return String.format("max/mean %.2f, per node/s%s", max / (total / allocations.size()), rates);
+  }
+
+  private static int shardOf(EntityShardExtractor<?> extractor, int key) {
+    return Integer.parseInt(extractor.shardId(LoadGeneratorActor.entityId(key)));
+  }
+}
@@ -0,0 +1,183 @@
+package cluster;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.cluster.MemberStatus;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.cluster.sharding.typed.javadsl.Entity;
+import akka.cluster.sharding.typed.javadsl.EntityRef;
+import akka.cluster.typed.Cluster;
+import akka.cluster.typed.Join;
+
+/**
+ * Transfers per second between bank entities on a three node cluster running in this JVM, with the file journal.
+ * <p>
+ * Each invocation starts a batch of transfers between random accounts from all three nodes and waits for all of them
+ * to complete, so the score is in transfers per second. The accounts are funded so no transfer is rejected, and the
+ * total of all balances is checked against the funding at the end of the trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TransferBenchmark {
+  private static final int nodeCount = 3;
+  private static final int transfersPerInvocation = 1000;
+  private static final long funding = 1_000_000_000L;
+  private static final Duration timeout = Duration.ofSeconds(60);
+
+  @Param({ "1000" })
+  int accounts;
+
+  @Param({ "18", "90" })
+  int shards;
+
+  private Path dir;
+  private final List<ActorSystem<Void>> nodes = new ArrayList<>();
+  private long transfers;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    dir = Files.createTempDirectory("transfer");
+    for (int n = 0; n < nodeCount; n++) {
+      final var node = ActorSystem.<Void>create(Behaviors.empty(), "transfer", nodeConfig());
+      Cluster.get(node).manager().tell(Join.create(nodes.isEmpty() ? node.address() : nodes.get(0).address()));
+      final var clusterSharding = ClusterSharding.get(node);
+      final EntityShardExtractor<BankEntityActor.Command> bankEntityShards = EntityShardExtractor.create(node.settings().config());
+      clusterSharding.init(Entity.of(BankEntityActor.entityTypeKey,
+          entityContext -> BankEntityActor.create(entityContext.getEntityId(), bankEntityShards.shardId(entityContext.getEntityId()),
+              node.ignoreRef()))
+          .withMessageExtractor(bankEntityShards)
+          .withStopMessage(BankEntityActor.Passivate.INSTANCE));
+      clusterSharding.init(Entity.of(TransferActor.entityTypeKey,
+          entityContext -> TransferActor.create(entityContext.getEntityId(), entityContext.getShard()))
+          .withMessageExtractor(EntityShardExtractor.<TransferActor.Command>create(node.settings().config()))
+          .withStopMessage(TransferActor.Passivate.INSTANCE));
+      nodes.add(node);
+    }
+    awaitMembersUp();
+
+    final var deposits = new ArrayList<CompletableFuture<BankEntityActor.Command>>();
+    for (int a = 0; a < accounts; a++) {
+      final var id = new BankEntityActor.Id(accountId(a));
+      deposits.add(entityRef(nodes.get(a % nodeCount), id.id).<BankEntityActor.Command>ask(replyTo ->
+          new BankEntityActor.ChangeValue(id, new BankEntityActor.Value(0), funding, "funding", replyTo), timeout)
+          .toCompletableFuture());
+    }
+    CompletableFuture.allOf(deposits.toArray(CompletableFuture[]::new)).get(timeout.toSeconds(), TimeUnit.SECONDS);
+  }
+
+  private Config nodeConfig() {
+    return ConfigFactory.parseString(String.format(
+        "akka.loglevel = WARNING%n"
+            + "akka.remote.artery.canonical.hostname = \"127.0.0.1\"%n"
+            + "akka.remote.artery.canonical.port = 0%n"
+            + "akka.cluster.seed-nodes = []%n"
+            + "akka.cluster.sharding.number-of-shards = %d%n"
+            + "file-journal.dir = \"%s\"%n"
+            + "akka.persistence.snapshot-store.local.dir = \"%s\"%n",
+        shards, dir.resolve("journal"), dir.resolve("snapshots")))
+        .withFallback(ConfigFactory.load());
+  }
+
+  private void awaitMembersUp() throws InterruptedException {
+    final var deadline = System.nanoTime() + timeout.toNanos();
+    while (nodes.stream().anyMatch(node -> membersUp(node) < nodeCount)) {
+      if (System.nanoTime() > deadline) {
+        throw new IllegalStateException("Cluster did not form");
+      }
+      Thread.sleep(100);
+    }
+  }
+
+  private static int membersUp(ActorSystem<?> node) {
+    int up = 0;
+    for (var member : Cluster.get(node).state().getMembers()) {
+      up += member.status() == MemberStatus.up() ? 1 : 0;
+    }
+    return up;
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    long total = 0;
+    for (int a = 0; a < accounts; a++) {
+      final var id = new BankEntityActor.Id(accountId(a));
+      final var reply = entityRef(nodes.get(0), id.id).<BankEntityActor.Command>ask(replyTo ->
+          new BankEntityActor.GetValue(id, replyTo), timeout).toCompletableFuture().get();
+      total += ((BankEntityActor.GetValueAck) reply).balance;
+    }
+    System.out.printf("%n%,d transfers, balance total %,d, expected %,d%n", transfers, total, funding * accounts);
+
+    nodes.forEach(ActorSystem::terminate);
+    for (var node : nodes) {
+      node.getWhenTerminated().toCompletableFuture().get(timeout.toSeconds(), TimeUnit.SECONDS);
+    }
+    try (var paths = Files.walk(dir)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(transfersPerInvocation)
+  public long transfer() throws Exception {
+    final var random = ThreadLocalRandom.current();
+    final var acks = new ArrayList<CompletableFuture<TransferActor.TransferAck>>(transfersPerInvocation);
+    for (int t = 0; t < transfersPerInvocation; t++) {
+      final var from = random.nextInt(accounts);
+      final var to = (from + 1 + random.nextInt(accounts - 1)) % accounts;
+      final var transferId = String.format("transfer-%d", ++transfers);
+      final var node = nodes.get(t % nodeCount);
+      acks.add(ClusterSharding.get(node).entityRefFor(TransferActor.entityTypeKey, transferId)
+          .<TransferActor.TransferAck>ask(replyTo -> new TransferActor.StartTransfer(
+              new BankEntityActor.Id(accountId(from)), new BankEntityActor.Id(accountId(to)), 1, replyTo), timeout)
+          .toCompletableFuture());
+    }
+    long completed = 0;
+    for (var ack : acks) {
+      completed += TransferActor.completed.equals(ack.get().status) ? 1 : 0;
+    }
+    if (completed != transfersPerInvocation) {
+      throw new IllegalStateException(String.format("%d of %d transfers completed", completed, transfersPerInvocation));
+    }
+    return completed;
+  }
+
+  private static EntityRef<BankEntityActor.Command> entityRef(ActorSystem<?> node, String entityId) {
+    return ClusterSharding.get(node).entityRefFor(BankEntityActor.entityTypeKey, entityId);
+  }
+
+  private static String accountId(int account) {
+    return String.format("account-%d", account);
+  }
+}
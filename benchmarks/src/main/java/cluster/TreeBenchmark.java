@@ -0,0 +1,88 @@
+package cluster;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Viewer tree maintenance cost per entity action with a large number of live entities.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class TreeBenchmark {
+  private static final int members = 9;
+  private static final int shards = 18;
+
+  @Param({ "10000", "100000", "1000000" })
+  int entities;
+
+  private HttpServer.Tree tree;
+  private String[] memberIds;
+  private String[] shardIds;
+  private String[] entityIds;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    memberIds = new String[members];
+    for (int m = 0; m < members; m++) {
+      memberIds[m] = String.format("akka://cluster@127.0.0.1:%d", 2551 + m);
+    }
+    shardIds = new String[shards];
+    for (int s = 0; s < shards; s++) {
+      shardIds[s] = "" + s;
+    }
+    entityIds = new String[entities];
+    tree = new HttpServer.Tree("cluster", "cluster");
+    for (int e = 0; e < entities; e++) {
+      entityIds[e] = BankEntityActor.entityId(2551 + e % members, e);
+      tree.add(memberOf(e), shardOf(e), entityIds[e]);
+    }
+  }
+
+  @Benchmark
+  public HttpServer.Tree ping() {
+    final var e = ThreadLocalRandom.current().nextInt(entities);
+    tree.ping(memberOf(e), shardOf(e), entityIds[e]);
+    return tree;
+  }
+
+  @Benchmark
+  public HttpServer.Tree removeAdd() {
+    final var e = ThreadLocalRandom.current().nextInt(entities);
+    tree.remove(memberOf(e), shardOf(e), entityIds[e]);
+    tree.add(memberOf(e), shardOf(e), entityIds[e]);
+    return tree;
+  }
+
+  @Benchmark
+  public HttpServer.Tree relocate() {
+    final var e = ThreadLocalRandom.current().nextInt(entities);
+    final var m = ThreadLocalRandom.current().nextInt(members);
+    tree.add(memberIds[m], shardOf(e), entityIds[e]);
+    return tree;
+  }
+
+  private String memberOf(int e) {
+    return memberIds[e % members];
+  }
+
+  private String shardOf(int e) {
+    return shardIds[e % shards];
+  }
+}
@@ -0,0 +1,175 @@
+package cluster;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+import org.slf4j.Logger;
+
+import akka.NotUsed;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.AskPattern;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.receptionist.Receptionist;
+import akka.actor.typed.receptionist.ServiceKey;
+import akka.cluster.sharding.ShardRegion;
+import akka.cluster.sharding.typed.ClusterShardingQuery;
+import akka.cluster.sharding.typed.GetShardRegionState;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.pattern.Patterns;
+import akka.stream.SourceRef;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.StreamRefs;
+import akka.util.ByteString;
+
+/**
+ * Exports the balances of the bank entities that are active on this node, for the cluster wide export served on
+ * /accounts/export.
+ * <p>
+ * The node that serves the export finds the export actors of all nodes with the receptionist, asks each for a stream
+ * of its balances, which is offered across the network as a stream ref, and merges the streams. Each node lists its
+ * active entities with GetShardRegionState and asks them for their balance with at most parallelism asks in flight
+ * and at most rate-per-second per second, so nothing is buffered beyond what the client has read and entities that
+ * are passivated are not started. Entities passivated after the listing are started by the ask.
+ * <p>
+ * While the entities of the node get more than yield-above-commands-per-second commands per second, not counting the
+ * export's own asks, the export pauses yield-pause before each entity, so it slows down to let live traffic through
+ * rather than competing with it.
+ */
+class AccountExportActor {
+  private static final ServiceKey<Command> serviceKey = ServiceKey.create(Command.class, AccountExportActor.class.getSimpleName());
+
+  private final ActorSystem<?> actorSystem;
+  private final ActiveEntities activeEntities;
+  private final ClusterSharding clusterSharding;
+  private final int parallelism;
+  private final int ratePerSecond;
+  private final double yieldAbove;
+  private final Duration yieldPause;
+  private final Duration askTimeout;
+  private final AtomicLong exportAsks = new AtomicLong();
+  private long sampleNanos = System.nanoTime();
+  private long sampleMessages;
+  private long sampleExportAsks;
+  private double commandRate;
+
+  static Behavior<Command> create(ActiveEntities activeEntities) {
+    return Behaviors.setup(actorContext -> {
+      actorContext.getSystem().receptionist().tell(Receptionist.register(serviceKey, actorContext.getSelf()));
+      return new AccountExportActor(actorContext, activeEntities).behavior(actorContext);
+    });
+  }
+
+  private AccountExportActor(ActorContext<Command> actorContext, ActiveEntities activeEntities) {
+    actorSystem = actorContext.getSystem();
+    this.activeEntities = activeEntities;
+    clusterSharding = ClusterSharding.get(actorSystem);
+    final var config = actorSystem.settings().config().getConfig("http-server.accounts.export");
+    parallelism = config.getInt("parallelism");
+    ratePerSecond = config.getInt("rate-per-second");
+    yieldAbove = config.getDouble("yield-above-commands-per-second");
+    yieldPause = Duration.parse(config.getString("yield-pause-iso-8601"));
+    askTimeout = Duration.parse(config.getString("ask-timeout-iso-8601"));
+  }
+
+  private Behavior<Command> behavior(ActorContext<Command> actorContext) {
+    return Behaviors.receive(Command.class)
+        .onMessage(ExportLocal.class, exportLocal -> onExportLocal(actorContext.getLog(), exportLocal))
+        .build();
+  }
+
+  private Behavior<Command> onExportLocal(Logger log, ExportLocal exportLocal) {
+    log.info("Export of the local bank entities to {}", exportLocal.replyTo.path().address());
+    exportLocal.replyTo.tell(localBalances().runWith(StreamRefs.sourceRef(), actorSystem));
+    return Behaviors.same();
+  }
+
+  private Source<ByteString, NotUsed> localBalances() {
+    return Source.completionStage(AskPattern.<ClusterShardingQuery, ShardRegion.CurrentShardRegionState>ask(
+            clusterSharding.shardState(), replyTo -> new GetShardRegionState(BankEntityActor.entityTypeKey, replyTo), askTimeout,
+            actorSystem.scheduler()))
+        .mapConcat(AccountExportActor::entityIds)
+        .throttle(ratePerSecond, Duration.ofSeconds(1))
+        .mapAsync(1, this::pace)
+        .mapAsyncUnordered(parallelism, this::balance)
+        .filter(line -> !line.isEmpty());
+  }
+
+  private static List<String> entityIds(ShardRegion.CurrentShardRegionState state) {
+    final List<String> entityIds = new ArrayList<>();
+    state.getShards().forEach(shard -> entityIds.addAll(shard.getEntityIds()));
+    return entityIds;
+  }
+
+  private CompletionStage<String> pace(String entityId) {
+    return commandRate() > yieldAbove
+        ? Patterns.after(yieldPause, actorSystem.classicSystem().scheduler(), actorSystem.executionContext(),
+            () -> CompletableFuture.completedFuture(entityId))
+        : CompletableFuture.completedFuture(entityId);
+  }
+
+  // the node's entity messages per second, without the export's asks, sampled at most every 100 ms
+  private synchronized double commandRate() {
+    final var now = System.nanoTime();
+    if (now - sampleNanos >= 100_000_000L) {
+      final var messages = activeEntities.messages();
+      final var asks = exportAsks.get();
+      commandRate = Math.max(0, (messages - sampleMessages) - (asks - sampleExportAsks)) * 1e9 / (now - sampleNanos);
+      sampleNanos = now;
+      sampleMessages = messages;
+      sampleExportAsks = asks;
+    }
+    return commandRate;
+  }
+
+  // an entity that stopped since the listing, or does not answer, is left out
+  private CompletionStage<ByteString> balance(String entityId) {
+    exportAsks.incrementAndGet();
+    final var id = new BankEntityActor.Id(entityId);
+    return clusterSharding.entityRefFor(BankEntityActor.entityTypeKey, entityId)
+        .<BankEntityActor.Command>ask(replyTo -> new BankEntityActor.GetValue(id, replyTo), askTimeout)
+        .handle((reply, failure) -> {
+          if (reply instanceof BankEntityActor.GetValueAck) {
+            final var getValueAck = (BankEntityActor.GetValueAck) reply;
+            return JsonWriters.toJson(new AccountRoutes.Account(entityId, null, null, getValueAck.balance))
+                .concat(ByteString.fromString("\n"));
+          }
+          return ByteString.emptyByteString();
+        });
+  }
+
+  /**
+   * The balances of the active bank entities of all nodes as NDJSON, up to nodes-in-parallel nodes export at a time.
+   * A node is asked for its stream ref only when the merge subscribes to it, so no ref waits unsubscribed into its
+   * subscription timeout while other nodes export.
+   */
+  static Source<ByteString, NotUsed> exportCluster(ActorSystem<?> actorSystem) {
+    final var config = actorSystem.settings().config().getConfig("http-server.accounts.export");
+    final var askTimeout = Duration.parse(config.getString("ask-timeout-iso-8601"));
+    return Source.completionStage(AskPattern.<Receptionist.Command, Receptionist.Listing>ask(actorSystem.receptionist(),
+            replyTo -> Receptionist.find(serviceKey, replyTo), askTimeout, actorSystem.scheduler()))
+        .mapConcat(listing -> new ArrayList<>(listing.getServiceInstances(serviceKey)))
+        .flatMapMerge(config.getInt("nodes-in-parallel"), exporter -> Source.completionStage(
+                AskPattern.<Command, SourceRef<ByteString>>ask(exporter, ExportLocal::new, askTimeout, actorSystem.scheduler()))
+            .flatMapConcat(SourceRef::getSource));
+  }
+
+  interface Command extends CborSerializable {}
+
+  public static class ExportLocal implements Command {
+    public final ActorRef<SourceRef<ByteString>> replyTo;
+
+    @JsonCreator
+    public ExportLocal(ActorRef<SourceRef<ByteString>> replyTo) {
+      this.replyTo = replyTo;
+    }
+  }
+}
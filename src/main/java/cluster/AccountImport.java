@@ -0,0 +1,172 @@
+package cluster;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import akka.NotUsed;
+import akka.actor.typed.ActorSystem;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.stream.OverflowStrategy;
+import akka.stream.javadsl.Framing;
+import akka.stream.javadsl.FramingTruncation;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+
+/**
+ * Deposits the amounts of a stream of account records into the bank entities, as a stream of progress reports.
+ * <p>
+ * Records are lines of NDJSON, {"id":"a-1","amount":100,"idempotencyKey":"k"}, or CSV, a-1,100,k, the idempotency
+ * key being optional. Each record is a ChangeValue to its entity. The records are grouped by shard and each shard has
+ * up to parallelism / number-of-shards records in flight, with up to shard-buffer more queued behind them. A slow shard
+ * holds back only its own records until its queue is full, then the whole import waits for it, since the records
+ * arrive in one stream. The records in flight and queued stay bounded. Records are read from the source only as fast
+ * as they are imported, over HTTP the backpressure reaches the client through TCP.
+ * <p>
+ * A report of the counts so far is emitted every progress interval while records complete, the last one is the total.
+ * Lines that cannot be parsed, such as a CSV header, count as invalid and a record whose entity does not answer within
+ * the ask timeout as failed. Neither stops the import.
+ */
+class AccountImport {
+  private static final ObjectReader recordReader = JsonWriters.readerFor(Record.class);
+
+  private final ClusterSharding clusterSharding;
+  private final EntityShardExtractor<BankEntityActor.Command> shards;
+  private final int numberOfShards;
+  private final int shardParallelism;
+  private final int shardBuffer;
+  private final Duration askTimeout;
+  private final Duration progressInterval;
+  private final int maxLineLength;
+
+  AccountImport(ActorSystem<?> actorSystem) {
+    clusterSharding = ClusterSharding.get(actorSystem);
+    final var config = actorSystem.settings().config();
+    shards = EntityShardExtractor.create(config);
+    numberOfShards = config.getInt("akka.cluster.sharding.number-of-shards");
+    final var importConfig = config.getConfig("http-server.accounts.import");
+    shardParallelism = Math.max(1, importConfig.getInt("parallelism") / numberOfShards);
+    shardBuffer = importConfig.getInt("shard-buffer");
+    askTimeout = Duration.parse(importConfig.getString("ask-timeout-iso-8601"));
+    progressInterval = Duration.parse(importConfig.getString("progress-interval-iso-8601"));
+    maxLineLength = importConfig.getInt("max-line-length");
+  }
+
+  /**
+   * @return one NDJSON {@link Progress} line per progress interval
+   */
+  Source<ByteString, NotUsed> run(Source<ByteString, ?> data, boolean csv) {
+    final var start = System.nanoTime();
+    return data
+        .via(Framing.delimiter(ByteString.fromString("\n"), maxLineLength, FramingTruncation.ALLOW))
+        .map(line -> line.utf8String().trim())
+        .filter(line -> !line.isEmpty())
+        .map(line -> csv ? Record.fromCsv(line) : Record.fromJson(line))
+        .groupBy(numberOfShards + 1, record -> record == Record.invalid ? "" : shards.shardId(record.id))
+        .buffer(shardBuffer, OverflowStrategy.backpressure())
+        .mapAsyncUnordered(shardParallelism, this::importRecord)
+        .mergeSubstreams()
+        .groupedWithin(100_000, progressInterval)
+        .scan(new Progress(0, 0, 0, 0, 0, 0), (progress, outcomes) -> progress.add(outcomes, System.nanoTime() - start))
+        .drop(1)
+        .map(progress -> JsonWriters.toJson(progress).concat(ByteString.fromString("\n")))
+        .mapMaterializedValue(notUsed -> NotUsed.getInstance());
+  }
+
+  private CompletionStage<Outcome> importRecord(Record record) {
+    if (record == Record.invalid) {
+      return CompletableFuture.completedFuture(Outcome.invalid);
+    }
+    final var id = new BankEntityActor.Id(record.id);
+    final var value = new BankEntityActor.Value(System.currentTimeMillis());
+    return clusterSharding.entityRefFor(BankEntityActor.entityTypeKey, record.id)
+        .<BankEntityActor.Command>ask(replyTo -> new BankEntityActor.ChangeValue(id, value, record.amount, record.idempotencyKey, replyTo),
+            askTimeout)
+        .handle((reply, failure) -> {
+          if (reply instanceof BankEntityActor.ChangeValueAck) {
+            return "duplicate".equals(((BankEntityActor.ChangeValueAck) reply).action) ? Outcome.duplicate : Outcome.imported;
+          }
+          return reply instanceof BankEntityActor.ChangeValueRejected ? Outcome.rejected : Outcome.failed;
+        });
+  }
+
+  enum Outcome {
+    imported, duplicate, rejected, invalid, failed
+  }
+
+  static class Record {
+    static final Record invalid = new Record(null, 0, null);
+
+    final String id;
+    final long amount;
+    final String idempotencyKey;
+
+    @JsonCreator
+    Record(@JsonProperty(value = "id", required = true) String id, @JsonProperty(value = "amount", required = true) long amount,
+        @JsonProperty("idempotencyKey") String idempotencyKey) {
+      this.id = id;
+      this.amount = amount;
+      this.idempotencyKey = idempotencyKey;
+    }
+
+    static Record fromJson(String line) {
+      try {
+        final Record record = recordReader.readValue(line);
+        return record.id == null || record.id.isEmpty() ? invalid : record;
+      } catch (IOException e) {
+        return invalid;
+      }
+    }
+
+    static Record fromCsv(String line) {
+      final var fields = line.split(",", -1);
+      if (fields.length < 2 || fields.length > 3 || fields[0].isBlank()) {
+        return invalid;
+      }
+      try {
+        return new Record(fields[0].trim(), Long.parseLong(fields[1].trim()), fields.length == 3 && !fields[2].isBlank() ? fields[2].trim() : null);
+      } catch (NumberFormatException e) {
+        return invalid;
+      }
+    }
+  }
+
+  /**
+   * Counts of the records completed so far, records per second since the import started.
+   */
+  public static class Progress {
+    public final long records;
+    public final long imported;
+    public final long duplicate;
+    public final long rejected;
+    public final long invalid;
+    public final long failed;
+    public final long elapsedMillis;
+    public final double perSecond;
+
+    Progress(long imported, long duplicate, long rejected, long invalid, long failed, long elapsedNanos) {
+      this.imported = imported;
+      this.duplicate = duplicate;
+      this.rejected = rejected;
+      this.invalid = invalid;
+      this.failed = failed;
+      records = imported + duplicate + rejected + invalid + failed;
+      elapsedMillis = elapsedNanos / 1_000_000;
+      perSecond = elapsedNanos == 0 ? 0 : records * 1e9 / elapsedNanos;
+    }
+
+    Progress add(List<Outcome> outcomes, long elapsedNanos) {
+      final var counts = new long[Outcome.values().length];
+      outcomes.forEach(outcome -> ++counts[outcome.ordinal()]);
+      return new Progress(imported + counts[Outcome.imported.ordinal()], duplicate + counts[Outcome.duplicate.ordinal()],
+          rejected + counts[Outcome.rejected.ordinal()], invalid + counts[Outcome.invalid.ordinal()],
+          failed + counts[Outcome.failed.ordinal()], elapsedNanos);
+    }
+  }
+}
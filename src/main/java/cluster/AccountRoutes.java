@@ -0,0 +1,249 @@
+package cluster;
+
+import static akka.http.javadsl.server.Directives.complete;
+import static akka.http.javadsl.server.Directives.completeWithFuture;
+import static akka.http.javadsl.server.Directives.concat;
+import static akka.http.javadsl.server.Directives.entity;
+import static akka.http.javadsl.server.Directives.extractDataBytes;
+import static akka.http.javadsl.server.Directives.get;
+import static akka.http.javadsl.server.Directives.path;
+import static akka.http.javadsl.server.Directives.parameterOptional;
+import static akka.http.javadsl.server.Directives.pathPrefix;
+import static akka.http.javadsl.server.Directives.post;
+import static akka.http.javadsl.server.Directives.withoutRequestTimeout;
+import static akka.http.javadsl.server.Directives.withoutSizeLimit;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.javadsl.AskPattern;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.http.javadsl.model.ContentType;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpCharsets;
+import akka.http.javadsl.model.HttpEntities;
+import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.MediaTypes;
+import akka.http.javadsl.model.StatusCode;
+import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.model.headers.RawHeader;
+import akka.http.javadsl.server.PathMatchers;
+import akka.http.javadsl.server.Route;
+import akka.http.javadsl.unmarshalling.Unmarshaller;
+import akka.stream.javadsl.FileIO;
+
+/**
+ * Reads and changes bank accounts over HTTP.
+ * <pre>
+ * GET  /accounts/{id}                                     {"id":"a-1","balance":100}
+ * POST /accounts/{id} {"amount":-20,"idempotencyKey":"k"} {"id":"a-1","action":"withdraw","balance":80}
+ * </pre>
+ * A POST deposits a positive and withdraws a negative amount in minor units, the idempotency key is optional. A GET is
+ * answered by the read model when it is on, else by the entity. An unknown account is a 404, a rejected change a 409
+ * with the reason, a malformed body a 400 and an entity that does not answer within the ask timeout a 504.
+ * <p>
+ * At most max-in-flight requests per node wait for an entity or the read model. Requests beyond that are answered 503
+ * with Retry-After at once, without a message to an entity, so an overloaded cluster sheds load at the edge instead of
+ * queueing it until every request times out.
+ * <p>
+ * POST /accounts/import streams NDJSON or, with ?format=csv, CSV account records into the entities and answers with
+ * NDJSON progress reports as they are imported, see {@link AccountImport}. It has its own parallelism and neither the
+ * request size limit nor the request timeout apply.
+ * <p>
+ * GET /accounts/export streams the balances of the active entities of all nodes as NDJSON, see {@link
+ * AccountExportActor}. With ?file=name it writes them to that file in the export directory of the node instead and
+ * answers with the size of the file when the export is done. import and export cannot be account ids, other methods on
+ * them are a 405.
+ */
+class AccountRoutes {
+  private static final ObjectReader changeReader = JsonWriters.readerFor(Change.class);
+  // import and export are not account ids, so a GET of import or a POST of export is a 405 and not an account
+  private static final Pattern accountIdPattern = Pattern.compile("(?!(?:import|export)$).+");
+  private static final ContentType ndjson = MediaTypes.applicationWithFixedCharset("x-ndjson", HttpCharsets.UTF_8).toContentType();
+
+  private final ActorSystem<?> actorSystem;
+  private final ClusterSharding clusterSharding;
+  private final ActorRef<BankReadModelActor.Message> readModel;
+  private final AccountImport accountImport;
+  private final int maxInFlight;
+  private final Duration askTimeout;
+  private final Path exportDir;
+  private final AtomicInteger inFlight = new AtomicInteger();
+
+  /**
+   * @param readModel answers the GETs, null to read from the entities
+   */
+  AccountRoutes(ActorSystem<?> actorSystem, ActorRef<BankReadModelActor.Message> readModel) {
+    this.actorSystem = actorSystem;
+    this.readModel = readModel;
+    clusterSharding = ClusterSharding.get(actorSystem);
+    accountImport = new AccountImport(actorSystem);
+    final var config = actorSystem.settings().config().getConfig("http-server.accounts");
+    maxInFlight = config.getInt("max-in-flight");
+    askTimeout = Duration.parse(config.getString("ask-timeout-iso-8601"));
+    exportDir = Path.of(config.getString("export.dir"));
+  }
+
+  Route route() {
+    return pathPrefix("accounts", () -> concat(
+        path("import", () -> post(this::importAccounts)),
+        path("export", () -> get(() -> withoutRequestTimeout(() -> parameterOptional("file", file -> file.isPresent()
+            ? exportAccounts(file.get())
+            : complete(HttpEntities.create(ndjson, AccountExportActor.exportCluster(actorSystem))))))),
+        path(PathMatchers.segment(accountIdPattern), accountId -> concat(
+            get(() -> completeWithFuture(getBalance(new BankEntityActor.Id(accountId)))),
+            post(() -> entity(Unmarshaller.entityToString(), body -> changeBalance(new BankEntityActor.Id(accountId), body)))))));
+  }
+
+  private Route importAccounts() {
+    return withoutSizeLimit(() -> withoutRequestTimeout(() -> parameterOptional("format", format ->
+        extractDataBytes(data -> complete(HttpEntities.create(ndjson,
+            accountImport.run(data, format.map("csv"::equals).orElse(false))))))));
+  }
+
+  private Route exportAccounts(String fileName) {
+    if (!fileName.matches("[A-Za-z0-9_-][A-Za-z0-9._-]*")) {
+      return complete(StatusCodes.BAD_REQUEST, "The file name may only have letters, digits, '.', '_' and '-'");
+    }
+    final var file = exportDir.resolve(fileName);
+    final var start = System.nanoTime();
+    try {
+      Files.createDirectories(exportDir);
+    } catch (IOException e) {
+      return complete(StatusCodes.INTERNAL_SERVER_ERROR, e.toString());
+    }
+    return completeWithFuture(AccountExportActor.exportCluster(actorSystem).runWith(FileIO.toPath(file), actorSystem)
+        .handle((ioResult, failure) -> HttpResponse.create()
+            .withStatus(failure == null ? StatusCodes.OK : StatusCodes.INTERNAL_SERVER_ERROR)
+            .withEntity(HttpEntities.create(ContentTypes.APPLICATION_JSON, JsonWriters.toJson(new ExportFile(file.toAbsolutePath().toString(),
+                failure == null ? ioResult.getCount() : 0, (System.nanoTime() - start) / 1_000_000,
+                failure == null ? null : failure.toString()))))));
+  }
+
+  private CompletionStage<HttpResponse> getBalance(BankEntityActor.Id id) {
+    if (!admit()) {
+      return CompletableFuture.completedFuture(unavailable());
+    }
+    final CompletionStage<BankEntityActor.Command> reply = readModel != null
+        ? AskPattern.ask(readModel, replyTo -> new BankReadModelActor.GetBalance(id, null, replyTo), askTimeout, actorSystem.scheduler())
+        : clusterSharding.entityRefFor(BankEntityActor.entityTypeKey, id.id).ask(replyTo -> new BankEntityActor.GetValue(id, replyTo), askTimeout);
+    return respond(reply);
+  }
+
+  private Route changeBalance(BankEntityActor.Id id, String body) {
+    final Change change;
+    try {
+      change = changeReader.readValue(body);
+    } catch (IOException e) {
+      return complete(StatusCodes.BAD_REQUEST, String.format("Expected {\"amount\": <minor units>, \"idempotencyKey\": <optional>}, %s",
+          e instanceof JsonProcessingException ? ((JsonProcessingException) e).getOriginalMessage() : e.getMessage()));
+    }
+    if (!admit()) {
+      return complete(unavailable());
+    }
+    final var value = new BankEntityActor.Value(System.currentTimeMillis());
+    return completeWithFuture(respond(clusterSharding.entityRefFor(BankEntityActor.entityTypeKey, id.id).ask(replyTo ->
+        new BankEntityActor.ChangeValue(id, value, change.amount, change.idempotencyKey, replyTo), askTimeout)));
+  }
+
+  private boolean admit() {
+    if (inFlight.incrementAndGet() > maxInFlight) {
+      inFlight.decrementAndGet();
+      return false;
+    }
+    return true;
+  }
+
+  private CompletionStage<HttpResponse> respond(CompletionStage<BankEntityActor.Command> reply) {
+    return reply.handle((command, askFailure) -> {
+      inFlight.decrementAndGet();
+      // the read model answers for the entity when the entity did not answer it
+      final var failure = command instanceof BankReadModelActor.GetBalanceFailed
+          ? ((BankReadModelActor.GetBalanceFailed) command).failure
+          : askFailure;
+      if (failure != null) {
+        return failure instanceof TimeoutException || failure.getCause() instanceof TimeoutException
+            ? response(StatusCodes.GATEWAY_TIMEOUT, new Account(null, null, null, null))
+            : response(StatusCodes.INTERNAL_SERVER_ERROR, new Account(null, null, failure.toString(), null));
+      }
+      if (command instanceof BankEntityActor.GetValueAck) {
+        final var getValueAck = (BankEntityActor.GetValueAck) command;
+        return response(StatusCodes.OK, new Account(getValueAck.id.id, null, null, getValueAck.balance));
+      } else if (command instanceof BankEntityActor.ChangeValueAck) {
+        final var changeValueAck = (BankEntityActor.ChangeValueAck) command;
+        return response(StatusCodes.OK, new Account(changeValueAck.id.id, changeValueAck.action, null, changeValueAck.balance));
+      } else if (command instanceof BankEntityActor.ChangeValueRejected) {
+        final var rejected = (BankEntityActor.ChangeValueRejected) command;
+        return response(StatusCodes.CONFLICT, new Account(rejected.id.id, null, rejected.reason, rejected.balance));
+      } else if (command instanceof BankEntityActor.GetValueAckNotFound) {
+        return response(StatusCodes.NOT_FOUND, new Account(((BankEntityActor.GetValueAckNotFound) command).id.id, null, null, null));
+      }
+      return response(StatusCodes.INTERNAL_SERVER_ERROR, new Account(null, null, String.valueOf(command), null));
+    });
+  }
+
+  private static HttpResponse unavailable() {
+    return HttpResponse.create().withStatus(StatusCodes.SERVICE_UNAVAILABLE).addHeader(RawHeader.create("Retry-After", "1"));
+  }
+
+  private static HttpResponse response(StatusCode status, Account account) {
+    return HttpResponse.create().withStatus(status)
+        .withEntity(HttpEntities.create(ContentTypes.APPLICATION_JSON, JsonWriters.toJson(account)));
+  }
+
+  static class Change {
+    final long amount;
+    final String idempotencyKey;
+
+    @JsonCreator
+    Change(@JsonProperty(value = "amount", required = true) long amount, @JsonProperty("idempotencyKey") String idempotencyKey) {
+      this.amount = amount;
+      this.idempotencyKey = idempotencyKey;
+    }
+  }
+
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public static class ExportFile {
+    public final String file;
+    public final long bytes;
+    public final long elapsedMillis;
+    public final String failure;
+
+    ExportFile(String file, long bytes, long elapsedMillis, String failure) {
+      this.file = file;
+      this.bytes = bytes;
+      this.elapsedMillis = elapsedMillis;
+      this.failure = failure;
+    }
+  }
+
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public static class Account {
+    public final String id;
+    public final String action;
+    public final String reason;
+    public final Long balance;
+
+    Account(String id, String action, String reason, Long balance) {
+      this.id = id;
+      this.action = action;
+      this.reason = reason;
+      this.balance = balance;
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package cluster;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.typesafe.config.Config;
+
+/**
+ * Counts the bank entities active on this node, for /passivation.
+ * <p>
+ * Passivation is left to Akka, with the strategy of bank-entity.sharding.passivation, an idle timeout and optionally
+ * an active entity limit with a replacement policy. Entities report their start, each message and their stop. The
+ * messages are counted in a {@link LongAdder}, so the commands of the entities of all shards on the node do not contend
+ * for a lock. Starts and stops, which are rare next to messages, lock to track the recently passivated ids.
+ * <p>
+ * An activation of an entity that was passivated recently, within the last reactivation-window passivations, counts as
+ * a reactivation, which the limit or the idle timeout caused.
+ */
+class ActiveEntities {
+  static final ActiveEntities none = new ActiveEntities("none", 0, 0);
+
+  private final String strategy;
+  private final int limit;
+  private final Map<String, Boolean> recentlyPassivated;
+  private final LongAdder messages = new LongAdder();
+  private int active;
+  private long activations;
+  private long reactivations;
+  private long passivations;
+
+  static ActiveEntities create(Config config) {
+    final var passivation = Main.bankEntityShardingSettings(config).passivationStrategySettings();
+    final var strategy = config.getConfig("bank-entity.sharding").withFallback(config.getConfig("akka.cluster.sharding"))
+        .getString("passivation.strategy");
+    return new ActiveEntities(strategy, passivation.activeEntityLimit().isDefined() ? (Integer) passivation.activeEntityLimit().get() : 0,
+        config.getInt("bank-entity.passivation.reactivation-window"));
+  }
+
+  ActiveEntities(String strategy, int limit, int reactivationWindow) {
+    this.strategy = strategy;
+    this.limit = limit;
+    recentlyPassivated = new LinkedHashMap<>() {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+        return size() > reactivationWindow;
+      }
+    };
+  }
+
+  synchronized void activated(String entityId) {
+    if (this == none) {
+      return;
+    }
+    ++active;
+    ++activations;
+    if (recentlyPassivated.remove(entityId) != null) {
+      ++reactivations;
+    }
+  }
+
+  void accessed() {
+    messages.increment();
+  }
+
+  synchronized void stopped(String entityId) {
+    if (this == none) {
+      return;
+    }
+    --active;
+    ++passivations;
+    recentlyPassivated.put(entityId, Boolean.TRUE);
+  }
+
+  /**
+   * The messages to the active entities since the node started.
+   */
+  long messages() {
+    return messages.sum();
+  }
+
+  synchronized Summary summary(int selfPort) {
+    return new Summary(selfPort, strategy, limit, active, activations, reactivations, messages(), passivations);
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("%s[%s, %,d active]", getClass().getSimpleName(), strategy, active);
+  }
+
+  /**
+   * Served on /passivation. The hit rate is the fraction of messages that found their entity active.
+   */
+  public static class Summary implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public final int selfPort;
+    public final String policy;
+    public final int limit;
+    public final int active;
+    public final long activations;
+    public final long reactivations;
+    public final long messages;
+    public final long passivations;
+    public final double hitRate;
+
+    Summary(int selfPort, String policy, int limit, int active, long activations, long reactivations, long messages,
+        long passivations) {
+      this.selfPort = selfPort;
+      this.policy = policy;
+      this.limit = limit;
+      this.active = active;
+      this.activations = activations;
+      this.reactivations = reactivations;
+      this.messages = messages;
+      this.passivations = passivations;
+      hitRate = messages == 0 ? 0 : Math.max(0, messages - activations) / (double) messages;
+    }
+  }
+}
@@ -1,86 +1,254 @@
 package cluster;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
 import com.fasterxml.jackson.annotation.JsonCreator;
 
 import org.slf4j.Logger;
 
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.Behavior;
-import akka.actor.typed.javadsl.AbstractBehavior;
+import akka.actor.typed.PostStop;
 import akka.actor.typed.javadsl.ActorContext;
 import akka.actor.typed.javadsl.Behaviors;
-import akka.actor.typed.javadsl.Receive;
 import akka.cluster.sharding.typed.javadsl.EntityTypeKey;
+import akka.persistence.typed.PersistenceId;
+import akka.persistence.typed.RecoveryCompleted;
+import akka.persistence.typed.javadsl.CommandHandler;
+import akka.persistence.typed.javadsl.Effect;
+import akka.persistence.typed.javadsl.EventHandler;
+import akka.persistence.typed.javadsl.EventSourcedBehavior;
+import akka.persistence.typed.javadsl.RetentionCriteria;
+import akka.persistence.typed.javadsl.SignalHandler;
 import cluster.HttpServer.EntityAction;
 import cluster.HttpServerActor.BroadcastEntityAction;
 
-class BankEntityActor extends AbstractBehavior<BankEntityActor.Command> {
+class BankEntityActor extends EventSourcedBehavior<BankEntityActor.Command, BankEntityActor.Event, BankEntityActor.State> {
     private final ActorContext<Command> actorContext;
     private final String entityId;
     private final String shardId;
     private final String memberId;
     private final ActorRef<HttpServer.Statistics> httpServerActorRef;
-    private State state;
+    private final ActiveEntities activeEntities;
+    private final ActorRef<BankReadModelActor.Message> readModel;
+    private final int snapshotEvery;
+    private final int keepSnapshots;
+    private final long idempotencyWindowMillis;
+    private final int logSampleEvery;
+    private long messageCount;
+    private boolean started;
 
     static EntityTypeKey<Command> entityTypeKey = EntityTypeKey.create(Command.class, BankEntityActor.class.getSimpleName());
 
-    static Behavior<Command> create(String entityId, ActorRef<HttpServer.Statistics> httpServerActorRef) {
-        return Behaviors.setup(actorContext -> new BankEntityActor(actorContext, entityId, httpServerActorRef));
+    /**
+     * @param shardId the shard the entity runs in, from the {@link EntityShardExtractor} that sharding routes with
+     */
+    static Behavior<Command> create(String entityId, String shardId, ActorRef<HttpServer.Statistics> httpServerActorRef) {
+        return create(entityId, shardId, httpServerActorRef, ActiveEntities.none, null);
+    }
+
+    /**
+     * @param activeEntities counts the start, the messages and the stop of the entity
+     * @param readModel gets the balance after each change and on recovery, null when there is no read model
+     */
+    static Behavior<Command> create(String entityId, String shardId, ActorRef<HttpServer.Statistics> httpServerActorRef,
+            ActiveEntities activeEntities, ActorRef<BankReadModelActor.Message> readModel) {
+        return Behaviors.setup(actorContext -> {
+            activeEntities.activated(entityId);
+            return new BankEntityActor(actorContext, entityId, shardId, httpServerActorRef, activeEntities,
+                    readModel == null ? actorContext.getSystem().ignoreRef() : readModel);
+        });
     }
 
-    private BankEntityActor(ActorContext<Command> actorContext, String entityId, ActorRef<HttpServer.Statistics> httpServerActorRef) {
-        super(actorContext);
+    private BankEntityActor(ActorContext<Command> actorContext, String entityId, String shardId,
+            ActorRef<HttpServer.Statistics> httpServerActorRef, ActiveEntities activeEntities,
+            ActorRef<BankReadModelActor.Message> readModel) {
+        super(PersistenceId.of(entityTypeKey.name(), entityId));
         this.actorContext = actorContext;
         this.entityId = entityId;
+        this.shardId = shardId;
         this.httpServerActorRef = httpServerActorRef;
-        shardId = "" + Math.abs(entityId.hashCode()) % actorContext.getSystem().settings().config().getInt("akka.cluster.sharding.number-of-shards");
+        this.activeEntities = activeEntities;
+        this.readModel = readModel;
+        final var config = actorContext.getSystem().settings().config();
         memberId = actorContext.getSystem().address().toString();
+        snapshotEvery = config.getInt("bank-entity.snapshot-every");
+        keepSnapshots = config.getInt("bank-entity.keep-snapshots");
+        idempotencyWindowMillis = Duration.parse(config.getString("bank-entity.idempotency-window-iso-8601")).toMillis();
+        logSampleEvery = config.getInt("entity-actor.log-sample-every");
         log().info("Start {}", entityId);
     }
 
     @Override
-    public Receive<Command> createReceive() {
-        return newReceiveBuilder()
-                .onMessage(ChangeValue.class, this::onChangeValue)
-                .onMessage(GetValue.class, this::onGetValue)
-                .onMessage(Passivate.class, msg -> onPassivate())
+    public State emptyState() {
+        return State.empty();
+    }
+
+    @Override
+    public CommandHandler<Command, Event, State> commandHandler() {
+        return newCommandHandlerBuilder()
+                .forAnyState()
+                .onCommand(ChangeValue.class, this::onChangeValue)
+                .onCommand(GetValue.class, this::onGetValue)
+                .onCommand(BatchCommand.class, this::onBatchCommand)
+                .onCommand(Passivate.class, (state, passivate) -> onPassivate())
                 .build();
     }
 
-    private Behavior<Command> onChangeValue(ChangeValue changeValue) {
-        if (state == null) {
-            state = new State(changeValue.id, changeValue.value, changeValue.amount);
-            log().info("initialize {}", state);
+    @Override
+    public EventHandler<State, Event> eventHandler() {
+        return newEventHandlerBuilder()
+                .forAnyState()
+                .onEvent(ValueInitialized.class, (state, event) -> apply(state, event))
+                .onEvent(ValueChanged.class, (state, event) -> apply(state, event))
+                .build();
+    }
 
-            changeValue.replyTo.tell(new ChangeValueAck("initialize", changeValue.id, changeValue.value, changeValue.amount));
-            notifyHttpServer("start", changeValue.replyTo);
-        } else {
-            state.value = changeValue.value;
-            state.amount = state.amount + 1;
-            log().info("update {} {} {} -> {}", state.id, state.value, state.amount, changeValue.value);
-            changeValue.replyTo.tell(new ChangeValueAck("update", changeValue.id, changeValue.value, state.amount));
-            notifyHttpServer("ping", changeValue.replyTo);
+    private State apply(State state, Event event) {
+        if (event instanceof ValueInitialized) {
+            final var valueInitialized = (ValueInitialized) event;
+            return State.empty().initialize(valueInitialized.id)
+                    .changeValue(valueInitialized.value, valueInitialized.amount, valueInitialized.idempotencyKey,
+                            valueInitialized.appliedAt, idempotencyWindowMillis);
         }
-        return this;
+        final var valueChanged = (ValueChanged) event;
+        return state.changeValue(valueChanged.value, valueChanged.amount, valueChanged.idempotencyKey, valueChanged.appliedAt,
+                idempotencyWindowMillis);
+    }
+
+    @Override
+    public SignalHandler<State> signalHandler() {
+        return newSignalHandlerBuilder()
+                .onSignal(RecoveryCompleted.instance(), state -> updateReadModel(state))
+                .onSignal(PostStop.instance(), state -> activeEntities.stopped(entityId))
+                .build();
     }
 
-    private Behavior<Command> onGetValue(GetValue getValue) {
-        log().info("{} -> {}", getValue, state == null ? "(not initialized)" : state);
-        if (state == null) {
+    @Override
+    public RetentionCriteria retentionCriteria() {
+        return snapshotEvery > 0
+                ? RetentionCriteria.snapshotEvery(snapshotEvery, keepSnapshots).withDeleteEventsOnSnapshot()
+                : RetentionCriteria.disabled();
+    }
+
+    /**
+     * Deposits and withdrawals, validated against the balance before anything is persisted. A command carrying an
+     * idempotency key that the entity applied within the idempotency window was already applied, so a retry is
+     * acknowledged with the current balance and not applied twice. Rejected commands are not persisted and are validated again on retry.
+     */
+    private Effect<Event, State> onChangeValue(State state, ChangeValue changeValue) {
+        activeEntities.accessed();
+        if (state.applied(changeValue.idempotencyKey)) {
+            changeValue.replyTo.tell(new ChangeValueAck("duplicate", changeValue.id, state.value, state.balance));
+            notifyHttpServer(changeValue.replyTo);
+            return Effect().none();
+        }
+        final var rejection = state.validate(changeValue.amount);
+        if (rejection != null) {
+            if (logSample()) {
+                log().info("reject {} {} {}", changeValue, rejection, state.balance);
+            }
+            changeValue.replyTo.tell(new ChangeValueRejected(changeValue.id, rejection, state.balance));
+            notifyHttpServer(changeValue.replyTo);
+            return Effect().none();
+        }
+        final var action = changeValue.amount > 0 ? "deposit" : "withdraw";
+        final Event event = state.initialized()
+                ? new ValueChanged(changeValue.value, changeValue.amount, changeValue.idempotencyKey, System.currentTimeMillis())
+                : new ValueInitialized(changeValue.id, changeValue.value, changeValue.amount, changeValue.idempotencyKey,
+                        System.currentTimeMillis());
+        return Effect().persist(event)
+                .thenRun(newState -> {
+                    if (logSample()) {
+                        log().info("{} {} {} {} -> {}", action, newState.id, changeValue.amount, state.balance, newState.balance);
+                    }
+                    changeValue.replyTo.tell(new ChangeValueAck(action, changeValue.id, changeValue.value, newState.balance));
+                    updateReadModel(newState);
+                    notifyHttpServer(changeValue.replyTo);
+                });
+    }
+
+    private Effect<Event, State> onGetValue(State state, GetValue getValue) {
+        activeEntities.accessed();
+        if (logSample()) {
+            log().info("{} -> {}", getValue, state.initialized() ? state : "(not initialized)");
+        }
+        if (!state.initialized()) {
             getValue.replyTo.tell(new GetValueAckNotFound(getValue.id));
-            state = new State(getValue.id, new Value(""), new Integer(0));
-            notifyHttpServer("start", getValue.replyTo);
         } else {
-            getValue.replyTo.tell(new GetValueAck(state.id, state.value, state.amount));
-            notifyHttpServer("ping", getValue.replyTo);
+            getValue.replyTo.tell(new GetValueAck(state.id, state.value, state.balance));
+        }
+        notifyHttpServer(getValue.replyTo);
+        return Effect().none();
+    }
+
+    /**
+     * The operations are applied in order as ChangeValue and GetValue would apply them one by one, each seeing the
+     * changes before it, and the events of all changes are persisted in one write. One ack carries the result of each
+     * operation. A batch without accepted changes is acknowledged without persisting.
+     */
+    private Effect<Event, State> onBatchCommand(State state, BatchCommand batchCommand) {
+        activeEntities.accessed();
+        final List<Event> events = new ArrayList<>();
+        final List<Result> results = new ArrayList<>(batchCommand.operations.size());
+        final var appliedAt = System.currentTimeMillis();
+        var next = state;
+        for (var operation : batchCommand.operations) {
+            if (operation.read) {
+                results.add(next.initialized()
+                        ? new Result("get", null, next.value.value, next.balance)
+                        : new Result("not-found", null, 0, 0));
+                continue;
+            }
+            if (next.applied(operation.idempotencyKey)) {
+                results.add(new Result("duplicate", null, next.value.value, next.balance));
+                continue;
+            }
+            final var rejection = next.validate(operation.amount);
+            if (rejection != null) {
+                results.add(new Result("rejected", rejection, 0, next.balance));
+                continue;
+            }
+            final Event event = next.initialized()
+                    ? new ValueChanged(operation.value, operation.amount, operation.idempotencyKey, appliedAt)
+                    : new ValueInitialized(batchCommand.id, operation.value, operation.amount, operation.idempotencyKey, appliedAt);
+            events.add(event);
+            next = apply(next, event);
+            results.add(new Result(operation.amount > 0 ? "deposit" : "withdraw", null, operation.value.value, next.balance));
+        }
+        final var batchAck = new BatchAck(batchCommand.id, results);
+        if (logSample()) {
+            log().info("{} -> {} events, {}", batchCommand, events.size(), batchAck);
+        }
+        if (events.isEmpty()) {
+            batchCommand.replyTo.tell(batchAck);
+            notifyHttpServer(batchCommand.replyTo);
+            return Effect().none();
         }
-        return this;
+        return Effect().persist(events)
+                .thenRun(newState -> {
+                    batchCommand.replyTo.tell(batchAck);
+                    updateReadModel(newState);
+                    notifyHttpServer(batchCommand.replyTo);
+                });
     }
 
-    private Behavior<Command> onPassivate() {
+    private Effect<Event, State> onPassivate() {
         log().info("Stop passivate {} {} {}", entityId, shardId, memberId);
-        notifyHttpServer("stop", null);
-        return Behaviors.stopped();
+        return Effect().stop().thenRun(state -> notifyHttpServer("stop", null));
+    }
+
+    private void updateReadModel(State state) {
+        if (state.initialized()) {
+            readModel.tell(new BankReadModelActor.Updated(entityId, lastSequenceNumber(actorContext), state.value, state.balance));
+        }
+    }
+
+    private void notifyHttpServer(ActorRef<Command> sender) {
+        notifyHttpServer(started ? "ping" : "start", sender);
+        started = true;
     }
 
     private void notifyHttpServer(String action, ActorRef<Command> sender) {
@@ -96,6 +264,10 @@ class BankEntityActor extends AbstractBehavior<BankEntityActor.Command> {
                 : memberId;
     }
 
+    private boolean logSample() {
+        return ++messageCount % logSampleEvery == 0 && log().isInfoEnabled();
+    }
+
     private Logger log() {
         return actorContext.getSystem().log();
     }
@@ -106,24 +278,29 @@ class BankEntityActor extends AbstractBehavior<BankEntityActor.Command> {
 
     public interface Command extends CborSerializable {}
 
+    /**
+     * A deposit when amount is positive and a withdrawal when it is negative, in minor units. The idempotency key is
+     * optional, commands that may be retried should carry one that is unique per operation.
+     */
     public static class ChangeValue implements Command {
         public final Id id;
         public final Value value;
+        public final long amount;
+        public final String idempotencyKey;
         public final ActorRef<Command> replyTo;
 
-        public final Integer amount;
-
         @JsonCreator
-        public ChangeValue(Id id, Value value, Integer amount, ActorRef<Command> replyTo) {
+        public ChangeValue(Id id, Value value, long amount, String idempotencyKey, ActorRef<Command> replyTo) {
             this.id = id;
             this.value = value;
             this.amount = amount;
+            this.idempotencyKey = idempotencyKey;
             this.replyTo = replyTo;
         }
 
         @Override
         public String toString() {
-            return String.format("%s[%s, %s, %s]", getClass().getSimpleName(), id, value, amount);
+            return String.format("%s[%s, %s, %d, %s]", getClass().getSimpleName(), id, value, amount, idempotencyKey);
         }
     }
 
@@ -131,19 +308,37 @@ class BankEntityActor extends AbstractBehavior<BankEntityActor.Command> {
         public final String action;
         public final Id id;
         public final Value value;
-        public final Integer amount;
+        public final long balance;
 
         @JsonCreator
-        public ChangeValueAck(String action, Id id, Value value, Integer amount) {
+        public ChangeValueAck(String action, Id id, Value value, long balance) {
             this.action = action;
             this.id = id;
             this.value = value;
-            this.amount = amount;
+            this.balance = balance;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[%s, %s, %s, %d]", getClass().getSimpleName(), action, id, value, balance);
+        }
+    }
+
+    public static class ChangeValueRejected implements Command {
+        public final Id id;
+        public final String reason;
+        public final long balance;
+
+        @JsonCreator
+        public ChangeValueRejected(Id id, String reason, long balance) {
+            this.id = id;
+            this.reason = reason;
+            this.balance = balance;
         }
 
         @Override
         public String toString() {
-            return String.format("%s[%s, %s, %s, %s]", getClass().getSimpleName(), action, id, value, amount);
+            return String.format("%s[%s, %s, %d]", getClass().getSimpleName(), id, reason, balance);
         }
     }
 
@@ -166,19 +361,18 @@ class BankEntityActor extends AbstractBehavior<BankEntityActor.Command> {
     public static class GetValueAck implements Command {
         public final Id id;
         public final Value value;
-
-        public final Integer amount;
+        public final long balance;
 
         @JsonCreator
-        public GetValueAck(Id id, Value value, Integer amount) {
+        public GetValueAck(Id id, Value value, long balance) {
             this.id = id;
             this.value = value;
-            this.amount = amount;
+            this.balance = balance;
         }
 
         @Override
         public String toString() {
-            return String.format("%s[%s, %s, %s]", getClass().getSimpleName(), id, value, amount);
+            return String.format("%s[%s, %s, %d]", getClass().getSimpleName(), id, value, balance);
         }
     }
 
@@ -196,67 +390,280 @@ class BankEntityActor extends AbstractBehavior<BankEntityActor.Command> {
         }
     }
 
+    /**
+     * Many operations on one entity in one message, see {@link BankEntityBatcher}. Answered with one {@link BatchAck}.
+     */
+    public static class BatchCommand implements Command {
+        public final Id id;
+        public final List<Operation> operations;
+        public final ActorRef<Command> replyTo;
+
+        @JsonCreator
+        public BatchCommand(Id id, List<Operation> operations, ActorRef<Command> replyTo) {
+            this.id = id;
+            this.operations = operations;
+            this.replyTo = replyTo;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[%s, %,d]", getClass().getSimpleName(), id, operations.size());
+        }
+    }
+
+    /**
+     * A ChangeValue without its id and reply address, or a GetValue when read is true.
+     */
+    public static class Operation implements CborSerializable {
+        public final boolean read;
+        public final Value value;
+        public final long amount;
+        public final String idempotencyKey;
+
+        @JsonCreator
+        public Operation(boolean read, Value value, long amount, String idempotencyKey) {
+            this.read = read;
+            this.value = value;
+            this.amount = amount;
+            this.idempotencyKey = idempotencyKey;
+        }
+
+        static Operation of(ChangeValue changeValue) {
+            return new Operation(false, changeValue.value, changeValue.amount, changeValue.idempotencyKey);
+        }
+
+        static Operation of(GetValue getValue) {
+            return new Operation(true, null, 0, null);
+        }
+    }
+
+    /**
+     * The results in the order of the operations.
+     */
+    public static class BatchAck implements Command {
+        public final Id id;
+        public final List<Result> results;
+
+        @JsonCreator
+        public BatchAck(Id id, List<Result> results) {
+            this.id = id;
+            this.results = results;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[%s, %,d]", getClass().getSimpleName(), id, results.size());
+        }
+    }
+
+    /**
+     * The action is deposit, withdraw, duplicate, rejected with the reason, get or not-found. The value and the balance
+     * are those the single command's ack would carry.
+     */
+    public static class Result implements CborSerializable {
+        public final String action;
+        public final String reason;
+        public final long value;
+        public final long balance;
+
+        @JsonCreator
+        public Result(String action, String reason, long value, long balance) {
+            this.action = action;
+            this.reason = reason;
+            this.value = value;
+            this.balance = balance;
+        }
+
+        /**
+         * @return the reply the operation would have had as a ChangeValue or GetValue
+         */
+        Command reply(Id id) {
+            switch (action) {
+            case "rejected":
+                return new ChangeValueRejected(id, reason, balance);
+            case "get":
+                return new GetValueAck(id, new Value(value), balance);
+            case "not-found":
+                return new GetValueAckNotFound(id);
+            default:
+                return new ChangeValueAck(action, id, new Value(value), balance);
+            }
+        }
+    }
+
     public enum Passivate implements Command {
         INSTANCE
     }
 
-    private static class State {
-        final Id id;
-        Value value;
+    public interface Event extends CborSerializable {}
 
-        Integer amount;
+    /**
+     * Events written before balances were kept have no idempotency key and an amount of 0, they replay as no change.
+     * appliedAt is the entity's clock in epoch milliseconds when it applied the change, 0 in events written before.
+     */
+    public static class ValueInitialized implements Event {
+        public final Id id;
+        public final Value value;
+        public final long amount;
+        public final String idempotencyKey;
+        public final long appliedAt;
 
-        public State(Id id, Value value, Integer amount) {
+        @JsonCreator
+        public ValueInitialized(Id id, Value value, long amount, String idempotencyKey, long appliedAt) {
             this.id = id;
             this.value = value;
             this.amount = amount;
+            this.idempotencyKey = idempotencyKey;
+            this.appliedAt = appliedAt;
         }
 
         @Override
         public String toString() {
-            return String.format("%s[%s, %s, %s]", getClass().getSimpleName(), id, value, amount);
+            return String.format("%s[%s, %s, %d, %s]", getClass().getSimpleName(), id, value, amount, idempotencyKey);
         }
     }
 
-    static class Id implements CborSerializable {
-        final String id;
+    public static class ValueChanged implements Event {
+        public final Value value;
+        public final long amount;
+        public final String idempotencyKey;
+        public final long appliedAt;
 
         @JsonCreator
-        Id(String id) {
-            this.id = id;
+        public ValueChanged(Value value, long amount, String idempotencyKey, long appliedAt) {
+            this.value = value;
+            this.amount = amount;
+            this.idempotencyKey = idempotencyKey;
+            this.appliedAt = appliedAt;
         }
 
         @Override
         public String toString() {
-            return String.format("%s[%s]", getClass().getSimpleName(), id);
+            return String.format("%s[%s, %d, %s]", getClass().getSimpleName(), value, amount, idempotencyKey);
         }
     }
 
-    static class Value implements CborSerializable {
-        final Object value;
+    /**
+     * The balance in minor units and the idempotency keys of the changes within the idempotency window with the times
+     * they were applied, oldest first. Snapshots written before balances were kept hold a change count instead, which is
+     * dropped, and recover with a balance of 0.
+     */
+    static class State implements CborSerializable {
+        private static final String[] noKeys = new String[0];
+        private static final long[] noTimes = new long[0];
+
+        final Id id;
+        final Value value;
+        final long balance;
+        final String[] recentKeys;
+        final long[] recentKeyTimes;
 
         @JsonCreator
-        Value(Object value) {
+        State(Id id, Value value, long balance, String[] recentKeys, long[] recentKeyTimes) {
+            this.id = id;
             this.value = value;
+            this.balance = balance;
+            this.recentKeys = recentKeys == null ? noKeys : recentKeys;
+            // snapshots written before the times were kept recover their keys as applied at 0
+            this.recentKeyTimes = recentKeyTimes != null && recentKeyTimes.length == this.recentKeys.length
+                    ? recentKeyTimes
+                    : new long[this.recentKeys.length];
+        }
+
+        static State empty() {
+            return new State(null, null, 0, noKeys, noTimes);
+        }
+
+        boolean initialized() {
+            return id != null;
+        }
+
+        boolean applied(String idempotencyKey) {
+            if (idempotencyKey != null) {
+                for (int i = recentKeys.length - 1; i >= 0; i--) {
+                    if (idempotencyKey.equals(recentKeys[i])) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return why the amount cannot be applied to the balance, or null when it can
+         */
+        String validate(long amount) {
+            if (amount == 0 || amount == Long.MIN_VALUE) {
+                return "invalid amount";
+            } else if (amount < 0 && balance + amount < 0) {
+                return "insufficient funds";
+            } else if (amount > 0 && balance > Long.MAX_VALUE - amount) {
+                return "balance overflow";
+            }
+            return null;
+        }
+
+        State initialize(Id id) {
+            return new State(id, value, balance, recentKeys, recentKeyTimes);
+        }
+
+        /**
+         * A keyed change drops the keys applied more than the window before it, so however many keyed changes an
+         * account gets, a key is remembered for the whole window.
+         */
+        State changeValue(Value value, long amount, String idempotencyKey, long appliedAt, long windowMillis) {
+            if (idempotencyKey == null || windowMillis <= 0) {
+                return new State(id, value, balance + amount, recentKeys, recentKeyTimes);
+            }
+            var expired = 0;
+            while (expired < recentKeyTimes.length && recentKeyTimes[expired] < appliedAt - windowMillis) {
+                ++expired;
+            }
+            final var keep = recentKeys.length - expired;
+            final var keys = new String[keep + 1];
+            final var times = new long[keep + 1];
+            System.arraycopy(recentKeys, expired, keys, 0, keep);
+            System.arraycopy(recentKeyTimes, expired, times, 0, keep);
+            keys[keep] = idempotencyKey;
+            times[keep] = appliedAt;
+            return new State(id, value, balance + amount, keys, times);
         }
 
         @Override
         public String toString() {
-            return String.format("%s[%s]", getClass().getSimpleName(), value);
+            return String.format("%s[%s, %s, %d]", getClass().getSimpleName(), id, value, balance);
         }
     }
 
-    static class Amount implements CborSerializable {
-        final Integer amount;
+    static class Id implements CborSerializable {
+        final String id;
 
         @JsonCreator
-        Amount(Integer amount) {
-            this.amount = amount;
+        Id(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[%s]", getClass().getSimpleName(), id);
+        }
+    }
+
+    /**
+     * Values were an untyped Object, in practice a Date that Jackson wrote as an ISO-8601 string. Events, snapshots
+     * and messages written that way are read through {@link BankValueMigration}.
+     */
+    static class Value implements CborSerializable {
+        final long value;
+
+        @JsonCreator
+        Value(long value) {
+            this.value = value;
         }
 
         @Override
         public String toString() {
-            return String.format("%s[%s]", getClass().getSimpleName(), amount);
+            return String.format("%s[%d]", getClass().getSimpleName(), value);
         }
     }
 
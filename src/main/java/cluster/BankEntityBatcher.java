@@ -0,0 +1,182 @@
+package cluster;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.javadsl.TimerScheduler;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+
+/**
+ * Sends the ChangeValue and GetValue commands it gets to the bank entities as {@link BankEntityActor.BatchCommand}s
+ * and answers each with the reply the entity would have sent, so a sender can use it in place of the entity ref.
+ * <p>
+ * Commands for an entity wait up to one window for more commands to the same entity, or until max-operations are
+ * waiting, and then go in one message, so a burst on one account pays for one sharding envelope, one remote round trip
+ * and one journal write instead of one per command. A batch is sent while the previous batch for the entity may still
+ * be in flight, both take the same path and the entity handles them in order. When a batch fails, every sender in it
+ * gets a {@link BatchFailed} at once instead of waiting for its own ask to time out.
+ * <p>
+ * The batcher's own messages are private, only the ChangeValue and GetValue commands arrive as bank entity commands.
+ */
+class BankEntityBatcher {
+  private final ActorContext<Message> actorContext;
+  private final TimerScheduler<Message> timerScheduler;
+  private final ClusterSharding clusterSharding;
+  private final Duration window;
+  private final int maxOperations;
+  private final Duration askTimeout;
+  private final Map<String, List<BankEntityActor.Command>> pending = new LinkedHashMap<>();
+  private final int logSampleEvery;
+  private long messageCount;
+
+  // only bank entity commands are transformed, the batcher's timer and batch replies pass through as they are
+  static Behavior<BankEntityActor.Command> create() {
+    return Behaviors.transformMessages(BankEntityActor.Command.class,
+        Behaviors.<Message>setup(context ->
+            Behaviors.withTimers(timer -> new BankEntityBatcher(context, timer).behavior())),
+        pf -> pf
+            .match(BankEntityActor.ChangeValue.class, changeValue -> new Request(changeValue.id, changeValue))
+            .match(BankEntityActor.GetValue.class, getValue -> new Request(getValue.id, getValue)));
+  }
+
+  private BankEntityBatcher(ActorContext<Message> actorContext, TimerScheduler<Message> timerScheduler) {
+    this.actorContext = actorContext;
+    this.timerScheduler = timerScheduler;
+    clusterSharding = ClusterSharding.get(actorContext.getSystem());
+
+    final var config = actorContext.getSystem().settings().config().getConfig("bank-entity.batcher");
+    window = Duration.parse(config.getString("window-iso-8601"));
+    maxOperations = config.getInt("max-operations");
+    askTimeout = Duration.parse(config.getString("ask-timeout-iso-8601"));
+    logSampleEvery = actorContext.getSystem().settings().config().getInt("entity-actor.log-sample-every");
+  }
+
+  private Behavior<Message> behavior() {
+    return Behaviors.receive(Message.class)
+        .onMessage(Request.class, this::onRequest)
+        .onMessage(Flush.class, notUsed -> onFlush())
+        .onMessage(BatchReply.class, this::onBatchReply)
+        .build();
+  }
+
+  private Behavior<Message> onRequest(Request request) {
+    final var commands = pending.computeIfAbsent(request.id.id, entityId -> new ArrayList<>());
+    commands.add(request.command);
+    if (commands.size() >= maxOperations) {
+      pending.remove(request.id.id);
+      send(request.id, commands);
+    } else if (!timerScheduler.isTimerActive(Flush.INSTANCE)) {
+      timerScheduler.startSingleTimer(Flush.INSTANCE, window);
+    }
+    return Behaviors.same();
+  }
+
+  private Behavior<Message> onFlush() {
+    pending.forEach((entityId, commands) -> send(new BankEntityActor.Id(entityId), commands));
+    pending.clear();
+    return Behaviors.same();
+  }
+
+  private void send(BankEntityActor.Id id, List<BankEntityActor.Command> commands) {
+    final var operations = new ArrayList<BankEntityActor.Operation>(commands.size());
+    for (var command : commands) {
+      operations.add(command instanceof BankEntityActor.ChangeValue
+          ? BankEntityActor.Operation.of((BankEntityActor.ChangeValue) command)
+          : BankEntityActor.Operation.of((BankEntityActor.GetValue) command));
+    }
+    final var entityRef = clusterSharding.entityRefFor(BankEntityActor.entityTypeKey, id.id);
+    actorContext.ask(BankEntityActor.Command.class, entityRef, askTimeout,
+        replyTo -> new BankEntityActor.BatchCommand(id, operations, replyTo),
+        (reply, failure) -> new BatchReply(id, commands, reply, failure));
+  }
+
+  private Behavior<Message> onBatchReply(BatchReply batchReply) {
+    if (batchReply.failure != null || !(batchReply.reply instanceof BankEntityActor.BatchAck)) {
+      final var reason = batchReply.failure == null ? String.valueOf(batchReply.reply) : batchReply.failure.toString();
+      log().warn("BatchCommand {} of {} commands failed: {}", batchReply.id, batchReply.commands.size(), reason);
+      final var batchFailed = new BatchFailed(batchReply.id, reason);
+      batchReply.commands.forEach(command -> replyTo(command).tell(batchFailed));
+      return Behaviors.same();
+    }
+    final var results = ((BankEntityActor.BatchAck) batchReply.reply).results;
+    if (logSample()) {
+      log().info("{} {} commands", batchReply.reply, batchReply.commands.size());
+    }
+    for (int i = 0; i < results.size(); i++) {
+      replyTo(batchReply.commands.get(i)).tell(results.get(i).reply(batchReply.id));
+    }
+    return Behaviors.same();
+  }
+
+  private static ActorRef<BankEntityActor.Command> replyTo(BankEntityActor.Command command) {
+    return command instanceof BankEntityActor.ChangeValue
+        ? ((BankEntityActor.ChangeValue) command).replyTo
+        : ((BankEntityActor.GetValue) command).replyTo;
+  }
+
+  private boolean logSample() {
+    return ++messageCount % logSampleEvery == 0 && log().isInfoEnabled();
+  }
+
+  private Logger log() {
+    return actorContext.getLog();
+  }
+
+  /**
+   * The reply to each command of a batch that failed, with the ask failure or the unexpected reply as the reason. Sent
+   * to local senders only.
+   */
+  static class BatchFailed implements BankEntityActor.Command {
+    final BankEntityActor.Id id;
+    final String reason;
+
+    BatchFailed(BankEntityActor.Id id, String reason) {
+      this.id = id;
+      this.reason = reason;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s[%s, %s]", getClass().getSimpleName(), id, reason);
+    }
+  }
+
+  private interface Message {}
+
+  private static class Request implements Message {
+    final BankEntityActor.Id id;
+    final BankEntityActor.Command command;
+
+    Request(BankEntityActor.Id id, BankEntityActor.Command command) {
+      this.id = id;
+      this.command = command;
+    }
+  }
+
+  private static class BatchReply implements Message {
+    final BankEntityActor.Id id;
+    final List<BankEntityActor.Command> commands;
+    final BankEntityActor.Command reply;
+    final Throwable failure;
+
+    BatchReply(BankEntityActor.Id id, List<BankEntityActor.Command> commands, BankEntityActor.Command reply, Throwable failure) {
+      this.id = id;
+      this.commands = commands;
+      this.reply = reply;
+      this.failure = failure;
+    }
+  }
+
+  private enum Flush implements Message {
+    INSTANCE
+  }
+}
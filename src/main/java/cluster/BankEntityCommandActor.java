@@ -1,10 +1,11 @@
 package cluster;
 
 import java.time.Duration;
-import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.slf4j.Logger;
 
+import akka.actor.typed.ActorRef;
 import akka.actor.typed.Behavior;
 import akka.actor.typed.javadsl.AbstractBehavior;
 import akka.actor.typed.javadsl.ActorContext;
@@ -19,48 +20,109 @@ class BankEntityCommandActor extends AbstractBehavior<BankEntityActor.Command> {
     private final ClusterSharding clusterSharding;
     private final int entitiesPerNode;
     private final Integer nodePort;
-    static Behavior<BankEntityActor.Command> create() {
+    private final ActorRef<HttpServer.Statistics> httpServerActorRef;
+    private final Duration askTimeout;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final int logSampleEvery;
+    private long messageCount;
+    private long failures;
+    static Behavior<BankEntityActor.Command> create(ActorRef<HttpServer.Statistics> httpServerActorRef) {
         return Behaviors.setup(actorContext ->
-                Behaviors.withTimers(timer -> new BankEntityCommandActor(actorContext, timer)));
+                Behaviors.withTimers(timer -> new BankEntityCommandActor(actorContext, timer, httpServerActorRef)));
     }
 
-    private BankEntityCommandActor(ActorContext<Command> actorContext, TimerScheduler<BankEntityActor.Command> timerScheduler) {
+    private BankEntityCommandActor(ActorContext<Command> actorContext, TimerScheduler<BankEntityActor.Command> timerScheduler,
+            ActorRef<HttpServer.Statistics> httpServerActorRef) {
         super(actorContext);
         this.actorContext = actorContext;
+        this.httpServerActorRef = httpServerActorRef;
         clusterSharding = ClusterSharding.get(actorContext.getSystem());
 
         entitiesPerNode = actorContext.getSystem().settings().config().getInt("entity-actor.entities-per-node");
         final var interval = Duration.parse(actorContext.getSystem().settings().config().getString("entity-actor.command-tick-interval-iso-8601"));
         timerScheduler.startTimerWithFixedDelay(Tick.ticktock, interval);
         nodePort = actorContext.getSystem().address().getPort().orElse(-1);
+        logSampleEvery = actorContext.getSystem().settings().config().getInt("entity-actor.log-sample-every");
+        askTimeout = Duration.parse(actorContext.getSystem().settings().config().getString("entity-actor.ask-timeout-iso-8601"));
+        final var reportInterval = Duration.parse(actorContext.getSystem().settings().config().getString("entity-actor.latency-report-interval-iso-8601"));
+        timerScheduler.startTimerAtFixedRate(ReportTick.INSTANCE, reportInterval);
     }
 
     @Override
     public Receive<Command> createReceive() {
         return newReceiveBuilder()
                 .onMessage(Tick.class, t -> onTick())
-                .onMessage(BankEntityActor.ChangeValueAck.class, this::onChangeValueAck)
+                .onMessage(Response.class, this::onResponse)
+                .onMessage(ReportTick.class, t -> onReportTick())
                 .build();
     }
 
     private Behavior<BankEntityActor.Command> onTick() {
         final var entityId = BankEntityActor.entityId(nodePort, (int) Math.round(Math.random() * entitiesPerNode));
         final var id = new BankEntityActor.Id(entityId);
-        final var value = new BankEntityActor.Value(new Date());
-        final var amount = new Integer(0);
+        final var value = new BankEntityActor.Value(System.currentTimeMillis());
+        final var amount = randomAmount();
+        final var start = System.nanoTime();
         /*The entityRef is the reference for that entity calculate with cluster sharding*/
         final var entityRef = clusterSharding.entityRefFor(BankEntityActor.entityTypeKey, entityId);
-        /*Giving the return address with getSelf*/
-        entityRef.tell(new BankEntityActor.ChangeValue(id, value,amount, actorContext.getSelf()));
+        /*ask passes a temporary return address and adapts the ack or timeout back to this actor*/
+        actorContext.ask(BankEntityActor.Command.class, entityRef, askTimeout,
+                replyTo -> new BankEntityActor.ChangeValue(id, value, amount, null, replyTo),
+                (reply, failure) -> new Response(start, reply, failure));
 
         return this;
     }
 
     private Behavior<BankEntityActor.Command> onChangeValueAck(BankEntityActor.ChangeValueAck changeValueAck) { /* Comment Flag: This logs when the command to change the entity value occurs */
-        log().info("onChangeValue: {}", changeValueAck);
+        if (logSample()) {
+            log().info("onChangeValue: {}", changeValueAck);
+        }
         return this;
     }
 
+    private Behavior<BankEntityActor.Command> onChangeValueRejected(BankEntityActor.ChangeValueRejected changeValueRejected) {
+        if (logSample()) {
+            log().info("onChangeValue: {}", changeValueRejected);
+        }
+        return this;
+    }
+
+    /* Deposits and withdrawals of 1 to 100 minor units, withdrawals from accounts without the funds are rejected */
+    private static long randomAmount() {
+        final var random = ThreadLocalRandom.current();
+        final var amount = random.nextInt(1, 101);
+        return random.nextBoolean() ? amount : -amount;
+    }
+
+    /* Latency is measured from resolving the entity ref to the ack arriving back here, so it includes shard home lookup,
+       remoting and entity recovery when the entity has to be started or relocated. */
+    private Behavior<BankEntityActor.Command> onResponse(Response response) {
+        if (response.failure == null) {
+            latency.recordNanos(System.nanoTime() - response.start);
+            if (response.reply instanceof BankEntityActor.ChangeValueAck) {
+                return onChangeValueAck((BankEntityActor.ChangeValueAck) response.reply);
+            } else if (response.reply instanceof BankEntityActor.ChangeValueRejected) {
+                return onChangeValueRejected((BankEntityActor.ChangeValueRejected) response.reply);
+            }
+            return this;
+        }
+        ++failures;
+        log().warn("ChangeValue failed: {}", response.failure.toString());
+        return this;
+    }
+
+    private Behavior<BankEntityActor.Command> onReportTick() {
+        log().debug("ChangeValue latency {} failures {}", latency, failures);
+        httpServerActorRef.tell(new HttpServer.LatencyStatistics("ChangeValue", latency.encode(), failures));
+        latency.reset();
+        failures = 0;
+        return this;
+    }
+
+    private boolean logSample() {
+        return ++messageCount % logSampleEvery == 0 && log().isInfoEnabled();
+    }
+
     private Logger log() {
         return actorContext.getSystem().log();
     }
@@ -68,4 +130,20 @@ class BankEntityCommandActor extends AbstractBehavior<BankEntityActor.Command> {
     enum Tick implements BankEntityActor.Command {
         ticktock
     }
+
+    enum ReportTick implements BankEntityActor.Command {
+        INSTANCE
+    }
+
+    private static class Response implements BankEntityActor.Command {
+        final long start;
+        final BankEntityActor.Command reply;
+        final Throwable failure;
+
+        Response(long start, BankEntityActor.Command reply, Throwable failure) {
+            this.start = start;
+            this.reply = reply;
+            this.failure = failure;
+        }
+    }
 }
\ No newline at end of file
@@ -4,6 +4,7 @@ import java.time.Duration;
 
 import org.slf4j.Logger;
 
+import akka.actor.typed.ActorRef;
 import akka.actor.typed.Behavior;
 import akka.actor.typed.javadsl.AbstractBehavior;
 import akka.actor.typed.javadsl.ActorContext;
@@ -18,50 +19,111 @@ class BankEntityQueryActor extends AbstractBehavior<BankEntityActor.Command> {
     private final ClusterSharding clusterSharding;
     private final int entitiesPerNode;
     private final Integer nodePort;
+    private final ActorRef<HttpServer.Statistics> httpServerActorRef;
+    private final ActorRef<BankReadModelActor.Message> readModel;
+    private final Duration askTimeout;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final int logSampleEvery;
+    private long messageCount;
+    private long failures;
 
-    static Behavior<BankEntityActor.Command> create() {
+    /**
+     * @param readModel answers the queries instead of the entities, null to query the entities
+     */
+    static Behavior<BankEntityActor.Command> create(ActorRef<HttpServer.Statistics> httpServerActorRef,
+            ActorRef<BankReadModelActor.Message> readModel) {
         return Behaviors.setup(actorContext ->
-                Behaviors.withTimers(timer -> new BankEntityQueryActor(actorContext, timer)));
+                Behaviors.withTimers(timer -> new BankEntityQueryActor(actorContext, timer, httpServerActorRef, readModel)));
     }
 
-    private BankEntityQueryActor(ActorContext<Command> actorContext, TimerScheduler<BankEntityActor.Command> timerScheduler) {
+    private BankEntityQueryActor(ActorContext<Command> actorContext, TimerScheduler<BankEntityActor.Command> timerScheduler,
+            ActorRef<HttpServer.Statistics> httpServerActorRef, ActorRef<BankReadModelActor.Message> readModel) {
         super(actorContext);
         this.actorContext = actorContext;
+        this.httpServerActorRef = httpServerActorRef;
+        this.readModel = readModel;
         clusterSharding = ClusterSharding.get(actorContext.getSystem());
 
         entitiesPerNode = actorContext.getSystem().settings().config().getInt("entity-actor.entities-per-node");
         final var interval = Duration.parse(actorContext.getSystem().settings().config().getString("entity-actor.query-tick-interval-iso-8601"));
         timerScheduler.startTimerWithFixedDelay(Tick.ticktock, interval);
         nodePort = actorContext.getSystem().address().getPort().orElse(-1);
+        logSampleEvery = actorContext.getSystem().settings().config().getInt("entity-actor.log-sample-every");
+        askTimeout = Duration.parse(actorContext.getSystem().settings().config().getString("entity-actor.ask-timeout-iso-8601"));
+        final var reportInterval = Duration.parse(actorContext.getSystem().settings().config().getString("entity-actor.latency-report-interval-iso-8601"));
+        timerScheduler.startTimerAtFixedRate(ReportTick.INSTANCE, reportInterval);
     }
 
     @Override
     public Receive<Command> createReceive() {
         return newReceiveBuilder()
                 .onMessage(Tick.class, t -> onTick())
-                .onMessage(BankEntityActor.GetValueAck.class, this::onGetValueAck)
-                .onMessage(BankEntityActor.GetValueAckNotFound.class, this::onGetValueAckNotFound)
+                .onMessage(Response.class, this::onResponse)
+                .onMessage(ReportTick.class, t -> onReportTick())
                 .build();
     }
 
     private Behavior<BankEntityActor.Command> onTick() {
         final var entityId = EntityActor.entityId(nodePort, (int) Math.round(Math.random() * entitiesPerNode));
         final var id = new BankEntityActor.Id(entityId);
+        final var start = System.nanoTime();
+        if (readModel != null) {
+            actorContext.ask(BankEntityActor.Command.class, readModel, askTimeout,
+                    replyTo -> new BankReadModelActor.GetBalance(id, null, replyTo),
+                    (reply, failure) -> new Response(start, reply, failure));
+            return this;
+        }
         final var entityRef = clusterSharding.entityRefFor(BankEntityActor.entityTypeKey, entityId);
-        entityRef.tell(new BankEntityActor.GetValue(id, actorContext.getSelf()));
+        actorContext.ask(BankEntityActor.Command.class, entityRef, askTimeout,
+                replyTo -> new BankEntityActor.GetValue(id, replyTo),
+                (reply, failure) -> new Response(start, reply, failure));
         return this;
     }
 
     private Behavior<BankEntityActor.Command> onGetValueAck(BankEntityActor.GetValueAck getValueAck) {
-        log().info("{}", getValueAck);
+        if (logSample()) {
+            log().info("{}", getValueAck);
+        }
         return this;
     }
 
     private Behavior<BankEntityActor.Command> onGetValueAckNotFound(BankEntityActor.GetValueAckNotFound getValueAckNotFound) {
-        log().info("{}", getValueAckNotFound);
+        if (logSample()) {
+            log().info("{}", getValueAckNotFound);
+        }
         return this;
     }
 
+    /* Latency is measured from resolving the entity ref to the ack arriving back here, so it includes shard home lookup,
+       remoting and entity recovery when the entity has to be started or relocated. With the read model it is the local
+       lookup, or the same entity round trip when the balance is too old or unknown. */
+    private Behavior<BankEntityActor.Command> onResponse(Response response) {
+        if (response.failure == null && !(response.reply instanceof BankReadModelActor.GetBalanceFailed)) {
+            latency.recordNanos(System.nanoTime() - response.start);
+            if (response.reply instanceof BankEntityActor.GetValueAck) {
+                return onGetValueAck((BankEntityActor.GetValueAck) response.reply);
+            } else if (response.reply instanceof BankEntityActor.GetValueAckNotFound) {
+                return onGetValueAckNotFound((BankEntityActor.GetValueAckNotFound) response.reply);
+            }
+            return this;
+        }
+        ++failures;
+        log().warn("GetValue failed: {}", response.failure == null ? response.reply : response.failure.toString());
+        return this;
+    }
+
+    private Behavior<BankEntityActor.Command> onReportTick() {
+        log().debug("GetValue latency {} failures {}", latency, failures);
+        httpServerActorRef.tell(new HttpServer.LatencyStatistics("GetValue", latency.encode(), failures));
+        latency.reset();
+        failures = 0;
+        return this;
+    }
+
+    private boolean logSample() {
+        return ++messageCount % logSampleEvery == 0 && log().isInfoEnabled();
+    }
+
     private Logger log() {
         return actorContext.getSystem().log();
     }
@@ -69,5 +131,21 @@ class BankEntityQueryActor extends AbstractBehavior<BankEntityActor.Command> {
     enum Tick implements BankEntityActor.Command {
         ticktock
     }
+
+    enum ReportTick implements BankEntityActor.Command {
+        INSTANCE
+    }
+
+    private static class Response implements BankEntityActor.Command {
+        final long start;
+        final BankEntityActor.Command reply;
+        final Throwable failure;
+
+        Response(long start, BankEntityActor.Command reply, Throwable failure) {
+            this.start = start;
+            this.reply = reply;
+            this.failure = failure;
+        }
+    }
 }
 
@@ -0,0 +1,389 @@
+package cluster;
+
+import java.io.NotSerializableException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import akka.actor.ExtendedActorSystem;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorRefResolver;
+import akka.actor.typed.javadsl.Adapter;
+import akka.serialization.SerializerWithStringManifest;
+import cluster.BankEntityActor.BatchAck;
+import cluster.BankEntityActor.BatchCommand;
+import cluster.BankEntityActor.ChangeValue;
+import cluster.BankEntityActor.ChangeValueAck;
+import cluster.BankEntityActor.ChangeValueRejected;
+import cluster.BankEntityActor.GetValue;
+import cluster.BankEntityActor.GetValueAck;
+import cluster.BankEntityActor.GetValueAckNotFound;
+import cluster.BankEntityActor.Id;
+import cluster.BankEntityActor.Operation;
+import cluster.BankEntityActor.Passivate;
+import cluster.BankEntityActor.Result;
+import cluster.BankEntityActor.Value;
+import cluster.BankReadModelActor.Update;
+import cluster.BankReadModelActor.Updates;
+import cluster.HttpServer.EntityAction;
+import cluster.HttpServer.EntityActionBatch;
+
+/**
+ * Binary serializer for the bank entity commands and replies, the read model updates and the viewer entity actions.
+ * <p>
+ * Fields are written in a fixed order with variable length integers and without field names, and a one or two
+ * letter manifest replaces the class name. Strings are written once per message and then referenced by index, which
+ * matters for an entity action batch that repeats the same member and HTTP server addresses for every entity.
+ * <p>
+ * Bound in application.conf ahead of jackson-cbor. Messages serialized with jackson-cbor by nodes that do not have
+ * this serializer bound are still read, as the serializer id travels with each message. To roll it out over a running
+ * cluster first start every node with bank_protocol_serializer=jackson-cbor, so the new nodes keep writing CBOR until
+ * all nodes can read both, then restart them without it.
+ */
+class BankProtocolSerializer extends SerializerWithStringManifest {
+  private static final String changeValueManifest = "CV";
+  private static final String changeValueAckManifest = "CA";
+  private static final String changeValueRejectedManifest = "CR";
+  private static final String getValueManifest = "GV";
+  private static final String getValueAckManifest = "GA";
+  private static final String getValueAckNotFoundManifest = "GN";
+  private static final String batchCommandManifest = "BC";
+  private static final String batchAckManifest = "BA";
+  private static final String passivateManifest = "P";
+  private static final String entityActionManifest = "EA";
+  private static final String entityActionBatchManifest = "EB";
+  private static final String readModelUpdatesManifest = "RU";
+
+  private final ExtendedActorSystem system;
+  private volatile ActorRefResolver actorRefResolver;
+
+  public BankProtocolSerializer(ExtendedActorSystem system) {
+    this.system = system;
+  }
+
+  @Override
+  public int identifier() {
+    return 7301;
+  }
+
+  @Override
+  public String manifest(Object message) {
+    if (message instanceof ChangeValue) {
+      return changeValueManifest;
+    } else if (message instanceof ChangeValueAck) {
+      return changeValueAckManifest;
+    } else if (message instanceof ChangeValueRejected) {
+      return changeValueRejectedManifest;
+    } else if (message instanceof GetValue) {
+      return getValueManifest;
+    } else if (message instanceof GetValueAck) {
+      return getValueAckManifest;
+    } else if (message instanceof GetValueAckNotFound) {
+      return getValueAckNotFoundManifest;
+    } else if (message instanceof BatchCommand) {
+      return batchCommandManifest;
+    } else if (message instanceof BatchAck) {
+      return batchAckManifest;
+    } else if (message instanceof Passivate) {
+      return passivateManifest;
+    } else if (message instanceof EntityAction) {
+      return entityActionManifest;
+    } else if (message instanceof EntityActionBatch) {
+      return entityActionBatchManifest;
+    } else if (message instanceof Updates) {
+      return readModelUpdatesManifest;
+    }
+    throw new IllegalArgumentException(String.format("Can't serialize object of type %s", message.getClass()));
+  }
+
+  @Override
+  public byte[] toBinary(Object message) {
+    final var out = new Output();
+    if (message instanceof ChangeValue) {
+      final var changeValue = (ChangeValue) message;
+      out.writeString(changeValue.id.id);
+      out.writeLong(changeValue.value.value);
+      out.writeLong(changeValue.amount);
+      out.writeString(changeValue.idempotencyKey);
+      out.writeString(toSerializationFormat(changeValue.replyTo));
+    } else if (message instanceof ChangeValueAck) {
+      final var changeValueAck = (ChangeValueAck) message;
+      out.writeString(changeValueAck.action);
+      out.writeString(changeValueAck.id.id);
+      out.writeLong(changeValueAck.value.value);
+      out.writeLong(changeValueAck.balance);
+    } else if (message instanceof ChangeValueRejected) {
+      final var changeValueRejected = (ChangeValueRejected) message;
+      out.writeString(changeValueRejected.id.id);
+      out.writeString(changeValueRejected.reason);
+      out.writeLong(changeValueRejected.balance);
+    } else if (message instanceof GetValue) {
+      final var getValue = (GetValue) message;
+      out.writeString(getValue.id.id);
+      out.writeString(toSerializationFormat(getValue.replyTo));
+    } else if (message instanceof GetValueAck) {
+      final var getValueAck = (GetValueAck) message;
+      out.writeString(getValueAck.id.id);
+      out.writeLong(getValueAck.value.value);
+      out.writeLong(getValueAck.balance);
+    } else if (message instanceof GetValueAckNotFound) {
+      out.writeString(((GetValueAckNotFound) message).id.id);
+    } else if (message instanceof BatchCommand) {
+      final var batchCommand = (BatchCommand) message;
+      out.writeString(batchCommand.id.id);
+      out.writeInt(batchCommand.operations.size());
+      for (var operation : batchCommand.operations) {
+        out.writeInt(operation.read ? 1 : 0);
+        if (!operation.read) {
+          out.writeLong(operation.value.value);
+          out.writeLong(operation.amount);
+          out.writeString(operation.idempotencyKey);
+        }
+      }
+      out.writeString(toSerializationFormat(batchCommand.replyTo));
+    } else if (message instanceof BatchAck) {
+      final var batchAck = (BatchAck) message;
+      out.writeString(batchAck.id.id);
+      out.writeInt(batchAck.results.size());
+      for (var result : batchAck.results) {
+        out.writeString(result.action);
+        out.writeString(result.reason);
+        out.writeLong(result.value);
+        out.writeLong(result.balance);
+      }
+    } else if (message instanceof Passivate) {
+      // no fields
+    } else if (message instanceof EntityAction) {
+      writeEntityAction(out, (EntityAction) message);
+    } else if (message instanceof EntityActionBatch) {
+      final var entityActions = ((EntityActionBatch) message).entityActions;
+      out.writeInt(entityActions.size());
+      entityActions.forEach(entityAction -> writeEntityAction(out, entityAction));
+    } else if (message instanceof Updates) {
+      final var updates = (Updates) message;
+      out.writeString(updates.member);
+      out.writeLong(updates.batchNr);
+      out.writeInt(updates.updates.size());
+      for (var update : updates.updates) {
+        out.writeString(update.entityId);
+        out.writeLong(update.sequenceNr);
+        out.writeLong(update.value);
+        out.writeLong(update.balance);
+      }
+    } else {
+      throw new IllegalArgumentException(String.format("Can't serialize object of type %s", message.getClass()));
+    }
+    return out.toByteArray();
+  }
+
+  @Override
+  public Object fromBinary(byte[] bytes, String manifest) throws NotSerializableException {
+    final var in = new Input(bytes);
+    switch (manifest) {
+    case changeValueManifest:
+      return new ChangeValue(new Id(in.readString()), new Value(in.readLong()), in.readLong(), in.readString(),
+          resolveActorRef(in.readString()));
+    case changeValueAckManifest:
+      return new ChangeValueAck(in.readString(), new Id(in.readString()), new Value(in.readLong()), in.readLong());
+    case changeValueRejectedManifest:
+      return new ChangeValueRejected(new Id(in.readString()), in.readString(), in.readLong());
+    case getValueManifest:
+      return new GetValue(new Id(in.readString()), resolveActorRef(in.readString()));
+    case getValueAckManifest:
+      return new GetValueAck(new Id(in.readString()), new Value(in.readLong()), in.readLong());
+    case getValueAckNotFoundManifest:
+      return new GetValueAckNotFound(new Id(in.readString()));
+    case batchCommandManifest:
+      final var batchId = new Id(in.readString());
+      final var operationCount = in.readInt();
+      final var operations = new ArrayList<Operation>(operationCount);
+      for (int i = 0; i < operationCount; i++) {
+        operations.add(in.readInt() == 1
+            ? new Operation(true, null, 0, null)
+            : new Operation(false, new Value(in.readLong()), in.readLong(), in.readString()));
+      }
+      return new BatchCommand(batchId, operations, resolveActorRef(in.readString()));
+    case batchAckManifest:
+      final var ackId = new Id(in.readString());
+      final var resultCount = in.readInt();
+      final var results = new ArrayList<Result>(resultCount);
+      for (int i = 0; i < resultCount; i++) {
+        results.add(new Result(in.readString(), in.readString(), in.readLong(), in.readLong()));
+      }
+      return new BatchAck(ackId, results);
+    case passivateManifest:
+      return Passivate.INSTANCE;
+    case entityActionManifest:
+      return readEntityAction(in);
+    case entityActionBatchManifest:
+      final var size = in.readInt();
+      final var entityActions = new ArrayList<EntityAction>(size);
+      for (int i = 0; i < size; i++) {
+        entityActions.add(readEntityAction(in));
+      }
+      return new EntityActionBatch(entityActions);
+    case readModelUpdatesManifest:
+      final var member = in.readString();
+      final var batchNr = in.readLong();
+      final var count = in.readInt();
+      final var updates = new ArrayList<Update>(count);
+      for (int i = 0; i < count; i++) {
+        updates.add(new Update(in.readString(), in.readLong(), in.readLong(), in.readLong()));
+      }
+      return new Updates(member, batchNr, updates);
+    default:
+      throw new NotSerializableException(String.format("Unknown manifest '%s'", manifest));
+    }
+  }
+
+  private static void writeEntityAction(Output out, EntityAction entityAction) {
+    out.writeString(entityAction.member);
+    out.writeString(entityAction.shardId);
+    out.writeString(entityAction.entityId);
+    out.writeString(entityAction.action);
+    out.writeString(entityAction.httpServer);
+    out.writeInt(entityAction.count);
+  }
+
+  private static EntityAction readEntityAction(Input in) {
+    return new EntityAction(in.readString(), in.readString(), in.readString(), in.readString(), in.readString(), in.readInt());
+  }
+
+  private String toSerializationFormat(ActorRef<?> actorRef) {
+    return resolver().toSerializationFormat(actorRef);
+  }
+
+  private <T> ActorRef<T> resolveActorRef(String serializationFormat) {
+    return resolver().resolveActorRef(serializationFormat);
+  }
+
+  // the typed system is not available yet while the serialization extension is being created
+  private ActorRefResolver resolver() {
+    if (actorRefResolver == null) {
+      actorRefResolver = ActorRefResolver.get(Adapter.toTyped(system));
+    }
+    return actorRefResolver;
+  }
+
+  /**
+   * Unsigned LEB128 integers, zigzag encoded so small negative values stay small. Strings are UTF-8, null is 0, a new
+   * string is its length + 2 followed by the bytes and a repeated string is 1 followed by its index in the message.
+   */
+  private static class Output {
+    private byte[] bytes = new byte[128];
+    private int length;
+    private Map<String, Integer> strings;
+
+    void writeInt(int value) {
+      writeLong(value);
+    }
+
+    void writeLong(long value) {
+      var zigzag = (value << 1) ^ (value >> 63);
+      ensure(10);
+      while ((zigzag & ~0x7FL) != 0) {
+        bytes[length++] = (byte) ((zigzag & 0x7F) | 0x80);
+        zigzag >>>= 7;
+      }
+      bytes[length++] = (byte) zigzag;
+    }
+
+    void writeString(String value) {
+      if (value == null) {
+        writeUnsigned(0);
+        return;
+      }
+      if (strings == null) {
+        strings = new HashMap<>();
+      }
+      final var index = strings.get(value);
+      if (index != null) {
+        writeUnsigned(1);
+        writeUnsigned(index);
+        return;
+      }
+      strings.put(value, strings.size());
+      final var utf8 = value.getBytes(StandardCharsets.UTF_8);
+      writeUnsigned(utf8.length + 2);
+      ensure(utf8.length);
+      System.arraycopy(utf8, 0, bytes, length, utf8.length);
+      length += utf8.length;
+    }
+
+    private void writeUnsigned(int value) {
+      ensure(5);
+      while ((value & ~0x7F) != 0) {
+        bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      bytes[length++] = (byte) value;
+    }
+
+    private void ensure(int more) {
+      if (length + more > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + more));
+      }
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(bytes, length);
+    }
+  }
+
+  private static class Input {
+    private final byte[] bytes;
+    private int position;
+    private List<String> strings;
+
+    Input(byte[] bytes) {
+      this.bytes = bytes;
+    }
+
+    int readInt() {
+      return (int) readLong();
+    }
+
+    long readLong() {
+      long zigzag = 0;
+      for (int shift = 0; ; shift += 7) {
+        final var b = bytes[position++];
+        zigzag |= (long) (b & 0x7F) << shift;
+        if (b >= 0) {
+          break;
+        }
+      }
+      return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    String readString() {
+      final var header = readUnsigned();
+      if (header == 0) {
+        return null;
+      }
+      if (header == 1) {
+        return strings.get(readUnsigned());
+      }
+      final var value = new String(bytes, position, header - 2, StandardCharsets.UTF_8);
+      position += header - 2;
+      if (strings == null) {
+        strings = new ArrayList<>();
+      }
+      strings.add(value);
+      return value;
+    }
+
+    private int readUnsigned() {
+      int value = 0;
+      for (int shift = 0; ; shift += 7) {
+        final var b = bytes[position++];
+        value |= (b & 0x7F) << shift;
+        if (b >= 0) {
+          return value;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,372 @@
+package cluster;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+import org.slf4j.Logger;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.javadsl.TimerScheduler;
+import akka.actor.typed.receptionist.Receptionist;
+import akka.actor.typed.receptionist.ServiceKey;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+
+/**
+ * Node local copy of the bank balances, so GetValue queries are answered without starting or messaging the entity.
+ * <p>
+ * Each bank entity sends its balance to the read model of its node after each persisted change and when it recovers.
+ * The read model keeps the latest balance per entity for one window and then sends the batch to the read models of
+ * all nodes, an empty batch when nothing changed, so every node hears from every other node at least once per window.
+ * <p>
+ * A balance is known to be current up to the last batch of the node that sent it, as any later change would have been
+ * in a batch since. Batches are numbered per node and a missing number means updates were lost, so the balances that
+ * node sent before are then only known to be current up to when they arrived. A query accepts balances up to a
+ * maximum staleness, max-staleness by default. A balance that is older, or unknown, is read from the entity with
+ * GetValue, which starts it, and the answer is kept, a not found answer included, so later queries of an account that
+ * does not exist do not start an entity either. A not found answer is served for at most not-found-max-staleness, as
+ * the account may be opened on any node meanwhile. When the entity does not answer every query waiting for it gets a
+ * GetBalanceFailed at once and nothing is kept. At most max-entries balances are kept, the least recently read are
+ * dropped first.
+ */
+class BankReadModelActor {
+  private final ActorContext<Message> actorContext;
+  private final TimerScheduler<Message> timerScheduler;
+  private final ClusterSharding clusterSharding;
+  private final String memberId;
+  private final Duration maxStaleness;
+  private final Duration notFoundMaxStaleness;
+  private final Duration askTimeout;
+  private final int batchMaxSize;
+  private final Map<String, Entry> entries;
+  private final Map<String, Publisher> publishers = new HashMap<>();
+  private final Map<String, Update> pendingUpdates = new LinkedHashMap<>();
+  private final Map<String, List<GetBalance>> pendingReads = new HashMap<>();
+  private final int logSampleEvery;
+  private long messageCount;
+  private long batchNr;
+  private long hits;
+  private long reads;
+  private Set<ActorRef<Message>> serviceInstances = Collections.emptySet();
+  private static final ServiceKey<Message> serviceKey = ServiceKey.create(Message.class, BankReadModelActor.class.getSimpleName());
+
+  static Behavior<Message> create() {
+    return Behaviors.setup(context ->
+        Behaviors.withTimers(timer -> new BankReadModelActor(context, timer).behavior()));
+  }
+
+  private BankReadModelActor(ActorContext<Message> actorContext, TimerScheduler<Message> timerScheduler) {
+    this.actorContext = actorContext;
+    this.timerScheduler = timerScheduler;
+    clusterSharding = ClusterSharding.get(actorContext.getSystem());
+    memberId = actorContext.getSystem().address().toString();
+
+    final var config = actorContext.getSystem().settings().config().getConfig("bank-entity.read-model");
+    maxStaleness = Duration.parse(config.getString("max-staleness-iso-8601"));
+    notFoundMaxStaleness = Duration.parse(config.getString("not-found-max-staleness-iso-8601"));
+    askTimeout = Duration.parse(config.getString("ask-timeout-iso-8601"));
+    batchMaxSize = config.getInt("batch-max-size");
+    final var maxEntries = config.getInt("max-entries");
+    entries = new LinkedHashMap<>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+        return size() > maxEntries;
+      }
+    };
+    logSampleEvery = actorContext.getSystem().settings().config().getInt("entity-actor.log-sample-every");
+
+    final var listingActorRef = actorContext.messageAdapter(Receptionist.Listing.class, Listeners::new);
+    actorContext.getSystem().receptionist().tell(Receptionist.register(serviceKey, actorContext.getSelf()));
+    actorContext.getSystem().receptionist().tell(Receptionist.subscribe(serviceKey, listingActorRef));
+    timerScheduler.startTimerAtFixedRate(Flush.INSTANCE, Duration.parse(config.getString("window-iso-8601")));
+  }
+
+  private Behavior<Message> behavior() {
+    return Behaviors.receive(Message.class)
+        .onMessage(Listeners.class, this::onListeners)
+        .onMessage(Updated.class, this::onUpdated)
+        .onMessage(Flush.class, notUsed -> onFlush())
+        .onMessage(Updates.class, this::onUpdates)
+        .onMessage(GetBalance.class, this::onGetBalance)
+        .onMessage(EntityReply.class, this::onEntityReply)
+        .build();
+  }
+
+  private Behavior<Message> onListeners(Listeners listeners) {
+    serviceInstances = listeners.listing.getServiceInstances(serviceKey);
+    return Behaviors.same();
+  }
+
+  private Behavior<Message> onUpdated(Updated updated) {
+    pendingUpdates.merge(updated.update.entityId, updated.update, Update::latest);
+    if (pendingUpdates.size() >= batchMaxSize) {
+      return onFlush();
+    }
+    return Behaviors.same();
+  }
+
+  private Behavior<Message> onFlush() {
+    final var updates = new Updates(memberId, ++batchNr, new ArrayList<>(pendingUpdates.values()));
+    pendingUpdates.clear();
+    serviceInstances.forEach(readModel -> readModel.tell(updates));
+    return Behaviors.same();
+  }
+
+  private Behavior<Message> onUpdates(Updates updates) {
+    final var now = System.nanoTime();
+    final var publisher = publishers.computeIfAbsent(updates.member, member -> new Publisher());
+    if (updates.batchNr != publisher.batchNr + 1) {
+      if (publisher.batchNr > 0) {
+        log().info("Read model missed batches {} to {} from {}", publisher.batchNr + 1, updates.batchNr - 1, updates.member);
+      }
+      publisher.contiguousSinceNanos = now;
+    }
+    publisher.batchNr = updates.batchNr;
+    publisher.lastHeardNanos = now;
+
+    for (var update : updates.updates) {
+      final var entry = entries.get(update.entityId);
+      if (entry == null || !entry.found || entry.sequenceNr < update.sequenceNr) {
+        entries.put(update.entityId, new Entry(update, updates.member, now));
+      }
+    }
+    return Behaviors.same();
+  }
+
+  private Behavior<Message> onGetBalance(GetBalance getBalance) {
+    ++reads;
+    final var entityId = getBalance.id.id;
+    final var entry = entries.get(entityId);
+    final var staleness = getBalance.maxStaleness == null ? maxStaleness : getBalance.maxStaleness;
+    if (entry != null && System.nanoTime() - confirmedNanos(entry) <= maxStalenessNanos(entry, staleness)) {
+      ++hits;
+      getBalance.replyTo.tell(entry.reply(getBalance.id));
+      return Behaviors.same();
+    }
+    if (logSample()) {
+      log().info("Read model {} from entity, {} of {} reads were served from {} balances", entityId, hits, reads, entries.size());
+    }
+    final var waiting = pendingReads.get(entityId);
+    if (waiting != null) {
+      waiting.add(getBalance);
+      return Behaviors.same();
+    }
+    pendingReads.put(entityId, new ArrayList<>(List.of(getBalance)));
+    final var start = System.nanoTime();
+    final var entityRef = clusterSharding.entityRefFor(BankEntityActor.entityTypeKey, entityId);
+    actorContext.ask(BankEntityActor.Command.class, entityRef, askTimeout,
+        replyTo -> new BankEntityActor.GetValue(getBalance.id, replyTo),
+        (reply, failure) -> new EntityReply(entityId, start, reply, failure));
+    return Behaviors.same();
+  }
+
+  private Behavior<Message> onEntityReply(EntityReply entityReply) {
+    final var waiting = pendingReads.remove(entityReply.entityId);
+    if (entityReply.failure != null) {
+      log().warn("Read model GetValue {} failed: {}", entityReply.entityId, entityReply.failure.toString());
+      if (waiting != null) {
+        waiting.forEach(getBalance ->
+            getBalance.replyTo.tell(new GetBalanceFailed(getBalance.id, entityReply.failure)));
+      }
+      return Behaviors.same();
+    }
+    final var entry = entries.get(entityReply.entityId);
+    if (entry == null || entry.receivedNanos < entityReply.start) {
+      if (entityReply.reply instanceof BankEntityActor.GetValueAck) {
+        final var getValueAck = (BankEntityActor.GetValueAck) entityReply.reply;
+        entries.put(entityReply.entityId, new Entry(-1, true, getValueAck.value.value, getValueAck.balance, null, System.nanoTime()));
+      } else if (entityReply.reply instanceof BankEntityActor.GetValueAckNotFound) {
+        entries.put(entityReply.entityId, new Entry(-1, false, 0, 0, null, System.nanoTime()));
+      }
+    }
+    if (waiting != null) {
+      waiting.forEach(getBalance -> getBalance.replyTo.tell(entityReply.reply));
+    }
+    return Behaviors.same();
+  }
+
+  private long maxStalenessNanos(Entry entry, Duration staleness) {
+    return entry.found ? staleness.toNanos() : Math.min(staleness.toNanos(), notFoundMaxStaleness.toNanos());
+  }
+
+  // until when the balance is known to have been current
+  private long confirmedNanos(Entry entry) {
+    final var publisher = entry.member == null ? null : publishers.get(entry.member);
+    return publisher == null || entry.receivedNanos < publisher.contiguousSinceNanos
+        ? entry.receivedNanos
+        : Math.max(entry.receivedNanos, publisher.lastHeardNanos);
+  }
+
+  private boolean logSample() {
+    return ++messageCount % logSampleEvery == 0 && log().isInfoEnabled();
+  }
+
+  private Logger log() {
+    return actorContext.getLog();
+  }
+
+  private static class Entry {
+    final long sequenceNr;
+    final boolean found;
+    final long value;
+    final long balance;
+    final String member;
+    final long receivedNanos;
+
+    Entry(long sequenceNr, boolean found, long value, long balance, String member, long receivedNanos) {
+      this.sequenceNr = sequenceNr;
+      this.found = found;
+      this.value = value;
+      this.balance = balance;
+      this.member = member;
+      this.receivedNanos = receivedNanos;
+    }
+
+    Entry(Update update, String member, long receivedNanos) {
+      this(update.sequenceNr, true, update.value, update.balance, member, receivedNanos);
+    }
+
+    BankEntityActor.Command reply(BankEntityActor.Id id) {
+      return found
+          ? new BankEntityActor.GetValueAck(id, new BankEntityActor.Value(value), balance)
+          : new BankEntityActor.GetValueAckNotFound(id);
+    }
+  }
+
+  private static class Publisher {
+    long batchNr;
+    long lastHeardNanos;
+    long contiguousSinceNanos;
+  }
+
+  interface Message {}
+
+  /**
+   * Sent by a bank entity of this node, the sequence number orders the balances of an entity that moved between nodes.
+   */
+  static class Updated implements Message {
+    final Update update;
+
+    Updated(String entityId, long sequenceNr, BankEntityActor.Value value, long balance) {
+      update = new Update(entityId, sequenceNr, value.value, balance);
+    }
+  }
+
+  /**
+   * @param maxStaleness how old a balance may be, null for max-staleness, zero to always read from the entity
+   */
+  static class GetBalance implements Message {
+    final BankEntityActor.Id id;
+    final Duration maxStaleness;
+    final ActorRef<BankEntityActor.Command> replyTo;
+
+    GetBalance(BankEntityActor.Id id, Duration maxStaleness, ActorRef<BankEntityActor.Command> replyTo) {
+      this.id = id;
+      this.maxStaleness = maxStaleness;
+      this.replyTo = replyTo;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s[%s, %s]", getClass().getSimpleName(), id, maxStaleness);
+    }
+  }
+
+  /**
+   * The reply to a GetBalance when the entity did not answer the read model's GetValue. Sent to local callers only.
+   */
+  static class GetBalanceFailed implements BankEntityActor.Command {
+    final BankEntityActor.Id id;
+    final Throwable failure;
+
+    GetBalanceFailed(BankEntityActor.Id id, Throwable failure) {
+      this.id = id;
+      this.failure = failure;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s[%s, %s]", getClass().getSimpleName(), id, failure);
+    }
+  }
+
+  public static class Update {
+    final String entityId;
+    final long sequenceNr;
+    final long value;
+    final long balance;
+
+    @JsonCreator
+    Update(String entityId, long sequenceNr, long value, long balance) {
+      this.entityId = entityId;
+      this.sequenceNr = sequenceNr;
+      this.value = value;
+      this.balance = balance;
+    }
+
+    static Update latest(Update a, Update b) {
+      return b.sequenceNr >= a.sequenceNr ? b : a;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s[%s, %d, %d, %d]", getClass().getSimpleName(), entityId, sequenceNr, value, balance);
+    }
+  }
+
+  public static class Updates implements Message {
+    final String member;
+    final long batchNr;
+    final List<Update> updates;
+
+    @JsonCreator
+    Updates(String member, long batchNr, List<Update> updates) {
+      this.member = member;
+      this.batchNr = batchNr;
+      this.updates = updates;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s[%s, %d, %,d]", getClass().getSimpleName(), member, batchNr, updates.size());
+    }
+  }
+
+  private static class EntityReply implements Message {
+    final String entityId;
+    final long start;
+    final BankEntityActor.Command reply;
+    final Throwable failure;
+
+    EntityReply(String entityId, long start, BankEntityActor.Command reply, Throwable failure) {
+      this.entityId = entityId;
+      this.start = start;
+      this.reply = reply;
+      this.failure = failure;
+    }
+  }
+
+  private static class Listeners implements Message {
+    final Receptionist.Listing listing;
+
+    private Listeners(Receptionist.Listing listing) {
+      this.listing = listing;
+    }
+  }
+
+  enum Flush implements Message {
+    INSTANCE
+  }
+}
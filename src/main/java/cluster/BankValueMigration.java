@@ -0,0 +1,46 @@
+package cluster;
+
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import akka.serialization.jackson.JacksonMigration;
+
+/**
+ * Reads bank entity events, snapshots and messages written while {@link BankEntityActor.Value} held an untyped Object.
+ * <p>
+ * Version 1 values are whatever Jackson wrote for the Object, in practice a Date as an ISO-8601 string, which becomes
+ * epoch milliseconds. Numbers are kept and anything else becomes 0. Version 2 values are longs.
+ */
+public class BankValueMigration extends JacksonMigration {
+  @Override
+  public int currentVersion() {
+    return 2;
+  }
+
+  @Override
+  public JsonNode transform(int fromVersion, JsonNode json) {
+    if (fromVersion < 2 && json.get("value") instanceof ObjectNode) {
+      final var value = (ObjectNode) json.get("value");
+      value.put("value", toLong(value.get("value")));
+    }
+    return json;
+  }
+
+  private static long toLong(JsonNode value) {
+    if (value == null) {
+      return 0;
+    } else if (value.isNumber()) {
+      return value.asLong();
+    } else if (value.isTextual()) {
+      try {
+        return OffsetDateTime.parse(value.asText()).toInstant().toEpochMilli();
+      } catch (DateTimeParseException e) {
+        return 0;
+      }
+    }
+    return 0;
+  }
+}
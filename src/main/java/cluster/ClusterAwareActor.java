@@ -13,18 +13,16 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import org.slf4j.Logger;
 
 import java.time.Duration;
-import java.time.Instant;
 import java.util.*;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 import java.util.stream.StreamSupport;
 
 public class ClusterAwareActor extends AbstractBehavior<ClusterAwareActor.Message> {
-  private final PingStatistics pingStatistics = new PingStatistics();
+  private final PingCounters pingCounters = new PingCounters();
+  private final PingCounters.Sent sentToHttpServer = new PingCounters.Sent();
   private final ActorRef<HttpServer.Statistics> httpServerActor;
   private Set<ActorRef<Message>> serviceInstances;
-  private static final Duration tickInterval = Duration.ofMillis(25 + Math.round(50 * Math.random())); // avg 50ms per tick
   private static final ServiceKey<Message> serviceKey = ServiceKey.create(Message.class, ClusterAwareActor.class.getSimpleName());
 
   static Behavior<Message> create(ActorRef<HttpServer.Statistics> httpServerActor) {
@@ -38,6 +36,9 @@ public class ClusterAwareActor extends AbstractBehavior<ClusterAwareActor.Messag
     this.httpServerActor = httpServerActor;
 
     receptionistRegisterSubscribe(context);
+    // every node pings every other node each tick, jitter the interval +-50% so the nodes do not tick in step
+    final var interval = Duration.parse(context.getSystem().settings().config().getString("cluster-aware.tick-interval-iso-8601"));
+    final var tickInterval = Duration.ofNanos(Math.round(interval.toNanos() * (0.5 + Math.random())));
     timers.startTimerAtFixedRate(Tick.Instance, tickInterval);
   }
 
@@ -62,7 +63,8 @@ public class ClusterAwareActor extends AbstractBehavior<ClusterAwareActor.Messag
 
   private Behavior<Message> onListeners(Listeners listeners) {
     serviceInstances = listeners.listing.getServiceInstances(serviceKey);
-    pingStatistics.clearOfflineNodeCounters(serviceInstances);
+    final var onlinePorts = serviceInstances.stream().map(ClusterAwareActor::actorRefPort).collect(Collectors.toSet());
+    pingCounters.resetUnless(onlinePorts::contains);
 
     log().info("Cluster aware actors subscribers changed, count {}", serviceInstances.size());
     serviceInstances
@@ -85,30 +87,33 @@ public class ClusterAwareActor extends AbstractBehavior<ClusterAwareActor.Messag
   private Behavior<Message> onTick() {
     pingUpColleagues();
     httpServerActor.tell(new HttpServer.ClusterAwareStatistics(
-        pingStatistics.totalPings,
-        pingStatistics.pingRatePs,
-        Collections.unmodifiableMap(pingStatistics.nodePings)));
+        pingCounters.total(),
+        pingCounters.ratePerSecond(),
+        pingCounters.delta(sentToHttpServer)));
     return Behaviors.same();
   }
 
   private Behavior<Message> onPing(Ping ping) {
-    logInfoIf(pingStatistics.totalPings % 100 == 0, "<=={}", ping);
+    logInfoIf(pingCounters.total() % 100 == 0, "<=={}", ping);
     ping.replyTo.tell(new Pong(getContext().getSelf(), ping.start));
-    pingStatistics.ping(ping.replyTo);
+    final var port = actorRefPort(ping.replyTo);
+    if (port > 0) {
+      pingCounters.ping(port);
+    }
     return Behaviors.same();
   }
 
   private Behavior<Message> onPong(Pong pong) {
-    logInfoIf(pingStatistics.totalPings % 100 == 0, "<--{}", pong);
+    logInfoIf(pingCounters.total() % 100 == 0, "<--{}", pong);
     return Behaviors.same();
   }
 
   private void pingUpColleagues() {
     final var context = getContext();
-    logInfoIf(true,"Status: {}" , Cluster.get(getContext().getSystem()).selfMember().status().toString());
+    log().debug("Status: {}", Cluster.get(getContext().getSystem()).selfMember().status());
     if (iAmUp()) {
       final var size = serviceInstances.size() - 1;
-      logInfoIf(pingStatistics.totalPings % 100 == 0, "Tick, ping {}", Math.max(size, 0));
+      logInfoIf(pingCounters.total() % 100 == 0, "Tick, ping {}", Math.max(size, 0));
 
       final var upMembers = getUpMembers();
 
@@ -117,13 +122,12 @@ public class ClusterAwareActor extends AbstractBehavior<ClusterAwareActor.Messag
           .filter(clusterAwareActorRef -> upMembers.contains(clusterAwareActorRef.path().address()))
           .forEach(clusterAwareActorRef -> clusterAwareActorRef.tell(new Ping(context.getSelf(), System.nanoTime())));
     } else {
-      logInfoIf(pingStatistics.totalPings % 100 == 0, "Tick, no pings, this node is not up, {}", Cluster.get(context.getSystem()).selfMember());
+      logInfoIf(pingCounters.total() % 100 == 0, "Tick, no pings, this node is not up, {}", Cluster.get(context.getSystem()).selfMember());
     }
   }
 
   private boolean iAmUp() {
     //return true;
-    log().info("Status: " + Cluster.get(getContext().getSystem()).selfMember().status().toString());
     return Cluster.get(getContext().getSystem()).selfMember().status().equals(MemberStatus.up());
   }
 
@@ -192,39 +196,10 @@ public class ClusterAwareActor extends AbstractBehavior<ClusterAwareActor.Messag
     Instance
   }
 
-  static class PingStatistics {
-    int totalPings = 0;
-    int pingRatePs = 0;
-    final Instant startTime = Instant.now();
-    final Map<Integer, Integer> nodePings = new HashMap<>();
-
-    PingStatistics() {
-      IntStream.rangeClosed(2551, 2559).forEach(p -> nodePings.put(p, 0));
-    }
-
-    void ping(ActorRef<Message> actorRef) {
-      ++totalPings;
-      pingRatePs = (int) (totalPings / Math.max(1, Duration.between(startTime, Instant.now()).toSeconds()));
-
-      final int port = actorRefPort(actorRef);
-      if (port >= 2551 && port <= 2559) {
-        nodePings.put(port, 1 + nodePings.getOrDefault(port, 0));
-      }
-    }
-
-    void clearOfflineNodeCounters(Set<ActorRef<Message>> serviceInstances) {
-      final var ports = new ArrayList<Integer>();
-      IntStream.rangeClosed(2551, 2559).forEach(ports::add);
-
-      serviceInstances.forEach(actorRef -> ports.removeIf(p -> p == actorRefPort(actorRef)));
-      ports.forEach(port -> nodePings.replace(port, 0));
-    }
-
-    private static int actorRefPort(ActorRef<Message> actorRef) {
-      final var port = actorRef.path().address().port();
-      return port.isDefined()
-          ? Integer.parseInt(port.get().toString())
-          : -1;
-    }
+  private static int actorRefPort(ActorRef<Message> actorRef) {
+    final var port = actorRef.path().address().port();
+    return port.isDefined()
+        ? Integer.parseInt(port.get().toString())
+        : -1;
   }
 }
@@ -1,14 +1,11 @@
 package cluster;
 
-import java.time.Duration;
-import java.time.Instant;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.stream.IntStream;
 
 import org.slf4j.Logger;
 
+import akka.actor.typed.ActorRef;
 import akka.actor.typed.Behavior;
 import akka.actor.typed.javadsl.AbstractBehavior;
 import akka.actor.typed.javadsl.ActorContext;
@@ -18,7 +15,8 @@ import cluster.ClusterSingletonAwareActor.Message;
 
 class ClusterSingletonActor extends AbstractBehavior<Message> {
   private final String memberId;
-  private final SingletonStatistics singletonStatistics = new SingletonStatistics();
+  private final PingCounters pingCounters = new PingCounters();
+  private final Map<ActorRef<Message>, PingCounters.Sent> sentToNodes = new HashMap<>();
 
   static Behavior<Message> create() {
     return Behaviors.setup(ClusterSingletonActor::new);
@@ -37,36 +35,19 @@ class ClusterSingletonActor extends AbstractBehavior<Message> {
   }
 
   private Behavior<Message> onPing(ClusterSingletonAwareActor.Ping ping) {
-    singletonStatistics.ping(ping);
-    if (singletonStatistics.totalPings % 100 == 0) {
+    if (ping.port > 0) {
+      pingCounters.ping(ping.port);
+    }
+    if (pingCounters.total() % 100 == 0) {
       log().info("<=={}", ping);
     }
+    final var sent = sentToNodes.computeIfAbsent(ping.replyTo, replyTo -> new PingCounters.Sent());
     ping.replyTo
-        .tell(new ClusterSingletonAwareActor.Pong(memberId, ping.start, singletonStatistics.totalPings,
-            singletonStatistics.pingRatePs, Collections.unmodifiableMap(singletonStatistics.nodePings)));
+        .tell(new ClusterSingletonAwareActor.Pong(memberId, ping.start, pingCounters.total(),
+            pingCounters.ratePerSecond(), pingCounters.delta(sent)));
     return Behaviors.same();
   }
 
-  static class SingletonStatistics {
-    int totalPings = 0;
-    int pingRatePs = 0;
-    final Instant startTime = Instant.now();
-    Map<Integer, Integer> nodePings = new HashMap<>();
-
-    SingletonStatistics() {
-      IntStream.rangeClosed(2551, 2559).forEach(p -> nodePings.put(p, 0));
-    }
-
-    void ping(ClusterSingletonAwareActor.Ping ping) {
-      ++totalPings;
-      pingRatePs = (int) (totalPings / Math.max(1, Duration.between(startTime, Instant.now()).toSeconds()));
-
-      if (ping.port >= 2551 && ping.port <= 2559) {
-        nodePings.put(ping.port, 1 + nodePings.getOrDefault(ping.port, 0));
-      }
-    }
-  }
-
   private Logger log() {
     return getContext().getLog();
   }
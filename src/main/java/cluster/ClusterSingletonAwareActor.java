@@ -1,7 +1,6 @@
 package cluster;
 
 import java.time.Duration;
-import java.util.Map;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 
@@ -24,6 +23,8 @@ class ClusterSingletonAwareActor extends AbstractBehavior<ClusterSingletonAwareA
   private final ActorRef<HttpServer.Statistics> httpServerActor;
   private final Duration tickInterval = Duration.ofMillis(25 + Math.round(100)); // avg 100ms per tick
   private final int port;
+  private final PingCounters singletonPings = new PingCounters();
+  private final PingCounters.Sent sentToHttpServer = new PingCounters.Sent();
 
   static Behavior<Message> create(ActorRef<HttpServer.Statistics> httpServerActor) {
     return Behaviors.setup(actorContext ->
@@ -59,7 +60,9 @@ class ClusterSingletonAwareActor extends AbstractBehavior<ClusterSingletonAwareA
     if (pong.totalPings % 100 == 0) {
       log().info("<--{}", pong);
     }
-    httpServerActor.tell(new HttpServer.SingletonAwareStatistics(pong.replyFrom, pong.totalPings, pong.pingRatePs, pong.singletonStatistics));
+    singletonPings.apply(pong.singletonStatistics);
+    httpServerActor.tell(new HttpServer.SingletonAwareStatistics(pong.replyFrom, pong.totalPings, pong.pingRatePs,
+        singletonPings.delta(sentToHttpServer)));
     return Behaviors.same();
   }
 
@@ -90,12 +93,12 @@ class ClusterSingletonAwareActor extends AbstractBehavior<ClusterSingletonAwareA
   public static class Pong implements Message {
     public final String replyFrom;
     public final long pingStart;
-    public final int totalPings;
+    public final long totalPings;
     public final int pingRatePs;
-    public final Map<Integer, Integer> singletonStatistics;
+    public final PingCounters.Delta singletonStatistics;
 
     @JsonCreator
-    public Pong(String replyFrom, long pingStart, int totalPings, int pingRatePs, Map<Integer, Integer> singletonStatistics) {
+    public Pong(String replyFrom, long pingStart, long totalPings, int pingRatePs, PingCounters.Delta singletonStatistics) {
       this.replyFrom = replyFrom;
       this.pingStart = pingStart;
       this.totalPings = totalPings;
@@ -20,20 +20,23 @@ class EntityActor extends AbstractBehavior<EntityActor.Command> {
   private final String shardId;
   private final String memberId;
   private final ActorRef<HttpServer.Statistics> httpServerActorRef;
+  private final int logSampleEvery;
+  private long messageCount;
   private State state;
   static EntityTypeKey<Command> entityTypeKey = EntityTypeKey.create(Command.class, EntityActor.class.getSimpleName());
 
-  static Behavior<Command> create(String entityId, ActorRef<HttpServer.Statistics> httpServerActorRef) {
-    return Behaviors.setup(actorContext -> new EntityActor(actorContext, entityId, httpServerActorRef));
+  static Behavior<Command> create(String entityId, String shardId, ActorRef<HttpServer.Statistics> httpServerActorRef) {
+    return Behaviors.setup(actorContext -> new EntityActor(actorContext, entityId, shardId, httpServerActorRef));
   }
 
-  private EntityActor(ActorContext<Command> actorContext, String entityId, ActorRef<HttpServer.Statistics> httpServerActorRef) {
+  private EntityActor(ActorContext<Command> actorContext, String entityId, String shardId, ActorRef<HttpServer.Statistics> httpServerActorRef) {
     super(actorContext);
     this.actorContext = actorContext;
     this.entityId = entityId;
+    this.shardId = shardId;
     this.httpServerActorRef = httpServerActorRef;
-    shardId = "" + Math.abs(entityId.hashCode()) % actorContext.getSystem().settings().config().getInt("akka.cluster.sharding.number-of-shards");
     memberId = actorContext.getSystem().address().toString();
+    logSampleEvery = actorContext.getSystem().settings().config().getInt("entity-actor.log-sample-every");
     log().info("Start {}", entityId);
   }
 
@@ -54,7 +57,9 @@ class EntityActor extends AbstractBehavior<EntityActor.Command> {
       changeValue.replyTo.tell(new ChangeValueAck("initialize", changeValue.id, changeValue.value));
       notifyHttpServer("start", changeValue.replyTo);
     } else {
-      log().info("update {} {} -> {}", state.id, state.value, changeValue.value);
+      if (logSample()) {
+        log().info("update {} {} -> {}", state.id, state.value, changeValue.value);
+      }
       state.value = changeValue.value;
       changeValue.replyTo.tell(new ChangeValueAck("update", changeValue.id, changeValue.value));
       notifyHttpServer("ping", changeValue.replyTo);
@@ -63,7 +68,9 @@ class EntityActor extends AbstractBehavior<EntityActor.Command> {
   }
 
   private Behavior<Command> onGetValue(GetValue getValue) {
-    log().info("{} -> {}", getValue, state == null ? "(not initialized)" : state);
+    if (logSample()) {
+      log().info("{} -> {}", getValue, state == null ? "(not initialized)" : state);
+    }
     if (state == null) {
       getValue.replyTo.tell(new GetValueAckNotFound(getValue.id));
       state = new State(getValue.id, new Value(""));
@@ -94,6 +101,10 @@ class EntityActor extends AbstractBehavior<EntityActor.Command> {
       : memberId;
   }
 
+  private boolean logSample() {
+    return ++messageCount % logSampleEvery == 0 && log().isInfoEnabled();
+  }
+
   private Logger log() {
     return actorContext.getSystem().log();
   }
@@ -19,6 +19,8 @@ class EntityCommandActor extends AbstractBehavior<EntityActor.Command> {
   private final ClusterSharding clusterSharding;
   private final int entitiesPerNode;
   private final Integer nodePort;
+  private final int logSampleEvery;
+  private long messageCount;
 
   static Behavior<EntityActor.Command> create() {
     return Behaviors.setup(actorContext -> 
@@ -34,6 +36,7 @@ class EntityCommandActor extends AbstractBehavior<EntityActor.Command> {
     final var interval = Duration.parse(actorContext.getSystem().settings().config().getString("entity-actor.command-tick-interval-iso-8601"));
     timerScheduler.startTimerWithFixedDelay(Tick.ticktock, interval);
     nodePort = actorContext.getSystem().address().getPort().orElse(-1);
+    logSampleEvery = actorContext.getSystem().settings().config().getInt("entity-actor.log-sample-every");
   }
 
   @Override
@@ -56,10 +59,16 @@ class EntityCommandActor extends AbstractBehavior<EntityActor.Command> {
   }
 
   private Behavior<EntityActor.Command> onChangeValueAck(EntityActor.ChangeValueAck changeValueAck) {
-    log().info("{}", changeValueAck);
+    if (logSample()) {
+      log().info("{}", changeValueAck);
+    }
     return this;
   }
 
+  private boolean logSample() {
+    return ++messageCount % logSampleEvery == 0 && log().isInfoEnabled();
+  }
+
   private Logger log() {
     return actorContext.getSystem().log();
   }
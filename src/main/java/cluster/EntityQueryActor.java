@@ -18,6 +18,8 @@ class EntityQueryActor extends AbstractBehavior<EntityActor.Command> {
   private final ClusterSharding clusterSharding;
   private final int entitiesPerNode;
   private final Integer nodePort;
+  private final int logSampleEvery;
+  private long messageCount;
 
   static Behavior<EntityActor.Command> create() {
     return Behaviors.setup(actorContext -> 
@@ -33,6 +35,7 @@ class EntityQueryActor extends AbstractBehavior<EntityActor.Command> {
     final var interval = Duration.parse(actorContext.getSystem().settings().config().getString("entity-actor.query-tick-interval-iso-8601"));
     timerScheduler.startTimerWithFixedDelay(Tick.ticktock, interval);
     nodePort = actorContext.getSystem().address().getPort().orElse(-1);
+    logSampleEvery = actorContext.getSystem().settings().config().getInt("entity-actor.log-sample-every");
   }
 
   @Override
@@ -53,15 +56,23 @@ class EntityQueryActor extends AbstractBehavior<EntityActor.Command> {
   }
 
   private Behavior<EntityActor.Command> onGetValueAck(EntityActor.GetValueAck getValueAck) {
-    log().info("{}", getValueAck);
+    if (logSample()) {
+      log().info("{}", getValueAck);
+    }
     return this;
   }
 
   private Behavior<EntityActor.Command> onGetValueAckNotFound(EntityActor.GetValueAckNotFound getValueAckNotFound) {
-    log().info("{}", getValueAckNotFound);
+    if (logSample()) {
+      log().info("{}", getValueAckNotFound);
+    }
     return this;
   }
     
+  private boolean logSample() {
+    return ++messageCount % logSampleEvery == 0 && log().isInfoEnabled();
+  }
+
   private Logger log() {
     return actorContext.getSystem().log();
   }
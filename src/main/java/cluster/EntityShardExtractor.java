@@ -0,0 +1,84 @@
+package cluster;
+
+import java.nio.charset.StandardCharsets;
+
+import com.typesafe.config.Config;
+
+import akka.cluster.sharding.typed.ShardingEnvelope;
+import akka.cluster.sharding.typed.ShardingMessageExtractor;
+
+/**
+ * Maps entity ids to shard ids for the sharded entity types, and tells each entity the shard it runs in.
+ * <p>
+ * The modulo mapping is the one of Akka's default hash code extractor, so shards keep their entities when upgrading
+ * from the default. The consistent mapping is jump consistent hashing (Lamping and Veach, "A Fast, Minimal Memory,
+ * Consistent Hash Algorithm") of a 64 bit FNV-1a hash of the id, so going from n to n + 1 shards moves only the 1 / (n +
+ * 1) of the entities that go to the new shard, where the modulo mapping moves almost all of them.
+ * <p>
+ * Every node must use the same mapping and number of shards, changing either needs a full cluster restart.
+ */
+class EntityShardExtractor<M> extends ShardingMessageExtractor<ShardingEnvelope<M>, M> {
+  private final int numberOfShards;
+  private final boolean consistent;
+
+  static <M> EntityShardExtractor<M> create(Config config) {
+    final var mapping = config.getString("bank-entity.shard-mapping");
+    if (!mapping.equals("modulo") && !mapping.equals("consistent")) {
+      throw new IllegalArgumentException(String.format("Unknown shard mapping '%s', use modulo or consistent.", mapping));
+    }
+    return new EntityShardExtractor<>(config.getInt("akka.cluster.sharding.number-of-shards"), mapping.equals("consistent"));
+  }
+
+  EntityShardExtractor(int numberOfShards, boolean consistent) {
+    if (numberOfShards < 1) {
+      throw new IllegalArgumentException(String.format("Number of shards must be >= 1, was %d", numberOfShards));
+    }
+    this.numberOfShards = numberOfShards;
+    this.consistent = consistent;
+  }
+
+  @Override
+  public String entityId(ShardingEnvelope<M> envelope) {
+    return envelope.entityId();
+  }
+
+  @Override
+  public String shardId(String entityId) {
+    return Integer.toString(consistent ? jumpHash(fnv1a64(entityId), numberOfShards) : modulo(entityId, numberOfShards));
+  }
+
+  @Override
+  public M unwrapMessage(ShardingEnvelope<M> envelope) {
+    return envelope.message();
+  }
+
+  // as akka.cluster.sharding.typed.HashCodeMessageExtractor, the remainder is in (-n, n) so abs is never negative
+  static int modulo(String entityId, int buckets) {
+    return Math.abs(entityId.hashCode() % buckets);
+  }
+
+  static int jumpHash(long key, int buckets) {
+    long bucket = -1;
+    long next = 0;
+    while (next < buckets) {
+      bucket = next;
+      key = key * 2862933555777941757L + 1;
+      next = (long) ((bucket + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+    }
+    return (int) bucket;
+  }
+
+  static long fnv1a64(String value) {
+    long hash = 0xcbf29ce484222325L;
+    for (var b : value.getBytes(StandardCharsets.UTF_8)) {
+      hash ^= b & 0xff;
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s[%d, %s]", getClass().getSimpleName(), numberOfShards, consistent ? "consistent" : "modulo");
+  }
+}
@@ -0,0 +1,234 @@
+package cluster;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import com.typesafe.config.Config;
+
+import akka.dispatch.Futures;
+import akka.persistence.AtomicWrite;
+import akka.persistence.PersistentRepr;
+import akka.persistence.journal.japi.AsyncWriteJournal;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import scala.concurrent.Future;
+import scala.jdk.javaapi.CollectionConverters;
+
+/**
+ * Embedded, file backed journal plugin so event sourced entities run without an external database.
+ * <p>
+ * Each persistence id is stored in its own append only file of length prefixed records. The files live in a directory
+ * shared by all the nodes started on one host, so an entity that is passivated or rebalanced to another node recovers
+ * from the same history. Cluster sharding guarantees a single writer per persistence id.
+ * <p>
+ * Deleting events appends a marker record with the sequence number deleted to, and replay skips the events up to the
+ * highest marker. The file is only ever appended to, so a delete still running on a node that handed the entity over
+ * cannot overwrite the events the new owner has appended since, and a delete costs one small write however long the
+ * history is. Replay reads the payloads of the events it replays only, and skips over the others. Files written when a
+ * delete rewrote the file start with a record of the highest sequence number, which is still read.
+ * <p>
+ * A crash during an append can leave a partial record at the end of a file. Reading stops at the last complete record,
+ * and the recovery of the persistence id, which reads the highest sequence number before anything is appended again,
+ * truncates the partial record so the next append follows a complete one.
+ */
+class FileJournal extends AsyncWriteJournal {
+  private static final byte eventRecord = 0;
+  private static final byte highestSequenceNrRecord = 1;
+  private static final byte deletedToRecord = 2;
+  private static final byte[] noPayload = new byte[0];
+  private static final int recordHeaderLength = 1 + 8 + 4;
+
+  private final Path dir;
+  private final boolean fsync;
+  private final Serialization serialization;
+
+  public FileJournal(Config config) throws IOException {
+    dir = Paths.get(config.getString("dir"));
+    fsync = config.getBoolean("fsync");
+    serialization = SerializationExtension.get(context().system());
+    Files.createDirectories(dir);
+  }
+
+  @Override
+  public Future<Iterable<Optional<Exception>>> doAsyncWriteMessages(Iterable<AtomicWrite> messages) {
+    final var results = new ArrayList<Optional<Exception>>();
+    for (var atomicWrite : messages) {
+      results.add(write(atomicWrite));
+    }
+    return Futures.successful(results);
+  }
+
+  @Override
+  public Future<Void> doAsyncDeleteMessagesTo(String persistenceId, long toSequenceNr) {
+    try {
+      final var file = file(persistenceId);
+      if (Files.exists(file)) {
+        final var bytes = new ByteArrayOutputStream();
+        writeRecord(new DataOutputStream(bytes), deletedToRecord, toSequenceNr, noPayload);
+        append(file, bytes.toByteArray());
+      }
+      return Futures.successful(null);
+    } catch (IOException e) {
+      return Futures.failed(e);
+    }
+  }
+
+  @Override
+  public Future<Void> doAsyncReplayMessages(String persistenceId, long fromSequenceNr, long toSequenceNr, long max, Consumer<PersistentRepr> replayCallback) {
+    try {
+      final var file = file(persistenceId);
+      if (Files.exists(file)) {
+        // the markers follow the events they delete, so find the highest one before replaying
+        final var deletedTo = new long[] { 0 };
+        read(file, (type, sequenceNr) -> {
+          if (type == deletedToRecord) {
+            deletedTo[0] = Math.max(deletedTo[0], sequenceNr);
+          }
+          return false;
+        }, (type, sequenceNr, payload) -> {});
+        final var from = Math.max(fromSequenceNr, deletedTo[0] + 1);
+        final var replayed = new long[] { 0 };
+        read(file, (type, sequenceNr) -> type == eventRecord && sequenceNr >= from && sequenceNr <= toSequenceNr && replayed[0] < max,
+            (type, sequenceNr, payload) -> {
+              replayCallback.accept(serialization.deserialize(payload, PersistentRepr.class).get());
+              replayed[0]++;
+            });
+      }
+      return Futures.successful(null);
+    } catch (IOException | RuntimeException e) {
+      return Futures.failed(e);
+    }
+  }
+
+  @Override
+  public Future<Long> doAsyncReadHighestSequenceNr(String persistenceId, long fromSequenceNr) {
+    try {
+      final var file = file(persistenceId);
+      final var highestSequenceNr = new long[] { 0 };
+      if (Files.exists(file)) {
+        // a marker may delete to beyond the last event, so only events and the record of a rewrite count
+        final var complete = read(file, (type, sequenceNr) -> {
+          if (type != deletedToRecord) {
+            highestSequenceNr[0] = Math.max(highestSequenceNr[0], sequenceNr);
+          }
+          return false;
+        }, (type, sequenceNr, payload) -> {});
+        if (complete < Files.size(file)) {
+          try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(complete);
+          }
+        }
+      }
+      return Futures.successful(highestSequenceNr[0]);
+    } catch (IOException e) {
+      return Futures.failed(e);
+    }
+  }
+
+  private Optional<Exception> write(AtomicWrite atomicWrite) {
+    try {
+      final var bytes = new ByteArrayOutputStream();
+      final var out = new DataOutputStream(bytes);
+      for (var persistentRepr : CollectionConverters.asJava(atomicWrite.payload())) {
+        writeRecord(out, eventRecord, persistentRepr.sequenceNr(), serialization.serialize(persistentRepr).get());
+      }
+      append(file(atomicWrite.persistenceId()), bytes.toByteArray());
+      return Optional.empty();
+    } catch (IOException | RuntimeException e) {
+      return Optional.of(e);
+    }
+  }
+
+  private void append(Path file, byte[] bytes) throws IOException {
+    try (var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+      channel.write(ByteBuffer.wrap(bytes));
+      if (fsync) {
+        channel.force(false);
+      }
+    }
+  }
+
+  private Path file(String persistenceId) {
+    return dir.resolve(URLEncoder.encode(persistenceId, StandardCharsets.UTF_8) + ".journal");
+  }
+
+  private static void writeRecord(DataOutputStream out, byte type, long sequenceNr, byte[] payload) throws IOException {
+    out.writeByte(type);
+    out.writeLong(sequenceNr);
+    out.writeInt(payload.length);
+    out.write(payload);
+  }
+
+  /**
+   * Passes the records that the filter wants, with their payload, to the consumer and skips over the payloads of the
+   * others.
+   *
+   * @return the length of the complete records, less than the file size when an append was cut short
+   */
+  private static long read(Path file, RecordFilter recordFilter, RecordConsumer recordConsumer) throws IOException {
+    final var size = Files.size(file);
+    try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      var complete = 0L;
+      while (true) {
+        final byte type;
+        final long sequenceNr;
+        final int length;
+        byte[] payload = null;
+        try {
+          type = in.readByte();
+          sequenceNr = in.readLong();
+          length = in.readInt();
+          if (length < 0 || complete + recordHeaderLength + length > size) {
+            return complete;
+          }
+          if (recordFilter.wants(type, sequenceNr)) {
+            payload = new byte[length];
+            in.readFully(payload);
+          } else {
+            skipFully(in, length);
+          }
+        } catch (EOFException e) {
+          return complete;
+        }
+        complete += recordHeaderLength + length;
+        if (payload != null) {
+          recordConsumer.accept(type, sequenceNr, payload);
+        }
+      }
+    }
+  }
+
+  private static void skipFully(DataInputStream in, int length) throws IOException {
+    var remaining = length;
+    while (remaining > 0) {
+      final var skipped = in.skipBytes(remaining);
+      if (skipped <= 0) {
+        throw new EOFException();
+      }
+      remaining -= skipped;
+    }
+  }
+
+  private interface RecordFilter {
+    boolean wants(byte type, long sequenceNr);
+  }
+
+  private interface RecordConsumer {
+    void accept(byte type, long sequenceNr, byte[] payload) throws IOException;
+  }
+}
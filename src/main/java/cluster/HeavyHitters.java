@@ -0,0 +1,234 @@
+package cluster;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.typesafe.config.Config;
+
+/**
+ * The bank entities and shards with the highest message rates, kept in Space-Saving sketches of fixed size.
+ * <p>
+ * A sketch has capacity counters. A message for a key with a counter adds to it, a message for any other key takes over
+ * the counter with the smallest count, which becomes the error of the new key. Every key with more than 1/capacity of
+ * the messages has a counter, and a count overestimates the key's messages by at most its error. The memory is fixed by
+ * the capacity however many accounts there are.
+ * <p>
+ * Counts decay with a half life, as the shard rates of {@link ShardLoad} do. A message weighs 2^(age of the sketch /
+ * half life), so older messages weigh relatively less without touching the counters, and the counters are scaled down
+ * when the weights grow large.
+ * <p>
+ * Fed by the HTTP server actor from the entity actions that every node's HTTP server receives from all nodes, so the
+ * sketches of each node cover the whole cluster. Written by the HTTP server actor and read by the HTTP server, hence
+ * synchronized.
+ */
+class HeavyHitters {
+  private static final double maxExponent = 32;
+
+  private final double halfLifeNanos;
+  private final int top;
+  private final Sketch entities;
+  private final Sketch shards;
+  private long landmarkNanos;
+
+  HeavyHitters(Config config) {
+    this(config.getInt("capacity"), config.getInt("top"), Duration.parse(config.getString("rate-half-life-iso-8601")));
+  }
+
+  HeavyHitters(int capacity, int top, Duration halfLife) {
+    halfLifeNanos = halfLife.toNanos();
+    this.top = top;
+    entities = new Sketch(capacity);
+    shards = new Sketch(capacity);
+    landmarkNanos = System.nanoTime();
+  }
+
+  void record(String shardId, String entityId, int count) {
+    record(shardId, entityId, count, System.nanoTime());
+  }
+
+  synchronized void record(String shardId, String entityId, int count, long nanos) {
+    var exponent = (nanos - landmarkNanos) / halfLifeNanos;
+    if (exponent > maxExponent) {
+      final var scale = Math.pow(2, -exponent);
+      entities.scale(scale);
+      shards.scale(scale);
+      landmarkNanos = nanos;
+      exponent = 0;
+    }
+    final var weight = count * Math.pow(2, exponent);
+    entities.add(entityId, weight);
+    shards.add(shardId, weight);
+  }
+
+  /**
+   * Served on /heavy-hitters.
+   */
+  synchronized Summary summary(int selfPort, long nanos) {
+    // rate per second of a count of forward decayed messages, like ShardLoad's rates
+    final var perSecond = Math.pow(2, -(nanos - landmarkNanos) / halfLifeNanos) * Math.log(2) / (halfLifeNanos / 1e9);
+    return new Summary(selfPort, entities.capacity(), entities.total * perSecond,
+        entities.top(top, perSecond), shards.top(top, perSecond));
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("%s[%d entities, %d shards]", getClass().getSimpleName(), entities.size, shards.size);
+  }
+
+  /**
+   * The counters are a min heap on their counts, with an index from key to counter, so adding a message to a counter,
+   * or taking over the smallest one, costs O(log capacity).
+   */
+  private static class Sketch {
+    private final Counter[] heap;
+    private final Map<String, Counter> counters;
+    private int size;
+    private double total;
+
+    Sketch(int capacity) {
+      heap = new Counter[capacity];
+      counters = new HashMap<>(capacity * 2);
+    }
+
+    int capacity() {
+      return heap.length;
+    }
+
+    void add(String key, double weight) {
+      total += weight;
+      final var counter = counters.get(key);
+      if (counter != null) {
+        counter.count += weight;
+        siftDown(counter.index);
+      } else if (size < heap.length) {
+        final var added = new Counter(key, size, weight);
+        heap[size++] = added;
+        counters.put(key, added);
+        siftUp(added.index);
+      } else {
+        final var smallest = heap[0];
+        counters.remove(smallest.key);
+        smallest.key = key;
+        smallest.error = smallest.count;
+        smallest.count += weight;
+        counters.put(key, smallest);
+        siftDown(0);
+      }
+    }
+
+    // the same factor for all counters keeps the heap order
+    void scale(double factor) {
+      for (int i = 0; i < size; i++) {
+        heap[i].count *= factor;
+        heap[i].error *= factor;
+      }
+      total *= factor;
+    }
+
+    List<HeavyHitter> top(int n, double perSecond) {
+      final var sorted = Arrays.copyOf(heap, size);
+      Arrays.sort(sorted, Comparator.comparingDouble((Counter counter) -> counter.count).reversed());
+      final List<HeavyHitter> heavyHitters = new ArrayList<>();
+      for (int i = 0; i < Math.min(n, sorted.length); i++) {
+        final var counter = sorted[i];
+        heavyHitters.add(new HeavyHitter(counter.key, counter.count * perSecond, counter.error * perSecond,
+            total == 0 ? 0 : counter.count / total));
+      }
+      return heavyHitters;
+    }
+
+    private void siftUp(int index) {
+      final var counter = heap[index];
+      while (index > 0) {
+        final var parent = (index - 1) / 2;
+        if (heap[parent].count <= counter.count) {
+          break;
+        }
+        move(heap[parent], index);
+        index = parent;
+      }
+      move(counter, index);
+    }
+
+    private void siftDown(int index) {
+      final var counter = heap[index];
+      while (true) {
+        var child = 2 * index + 1;
+        if (child >= size) {
+          break;
+        }
+        if (child + 1 < size && heap[child + 1].count < heap[child].count) {
+          ++child;
+        }
+        if (counter.count <= heap[child].count) {
+          break;
+        }
+        move(heap[child], index);
+        index = child;
+      }
+      move(counter, index);
+    }
+
+    private void move(Counter counter, int index) {
+      heap[index] = counter;
+      counter.index = index;
+    }
+  }
+
+  private static class Counter {
+    String key;
+    int index;
+    double count;
+    double error;
+
+    Counter(String key, int index, double count) {
+      this.key = key;
+      this.index = index;
+      this.count = count;
+    }
+  }
+
+  /**
+   * The rate is at most maxError per second above the key's actual rate, the share is of all messages of the kind.
+   */
+  public static class HeavyHitter implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public final String id;
+    public final double rate;
+    public final double maxError;
+    public final double share;
+
+    HeavyHitter(String id, double rate, double maxError, double share) {
+      this.id = id;
+      this.rate = rate;
+      this.maxError = maxError;
+      this.share = share;
+    }
+  }
+
+  /**
+   * The heavy hitters of the whole cluster as seen by the node, by decreasing rate.
+   */
+  public static class Summary implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public final int selfPort;
+    public final int capacity;
+    public final double rate;
+    public final List<HeavyHitter> entities;
+    public final List<HeavyHitter> shards;
+
+    Summary(int selfPort, int capacity, double rate, List<HeavyHitter> entities, List<HeavyHitter> shards) {
+      this.selfPort = selfPort;
+      this.capacity = capacity;
+      this.rate = rate;
+      this.entities = entities;
+      this.shards = shards;
+    }
+  }
+}
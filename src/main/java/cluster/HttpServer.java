@@ -2,72 +2,119 @@ package cluster;
 
 import static akka.http.javadsl.server.Directives.complete;
 import static akka.http.javadsl.server.Directives.concat;
+import static akka.http.javadsl.server.Directives.conditional;
 import static akka.http.javadsl.server.Directives.get;
 import static akka.http.javadsl.server.Directives.getFromResource;
 import static akka.http.javadsl.server.Directives.handleWebSocketMessages;
+import static akka.http.javadsl.server.Directives.parameterOptional;
+import static akka.http.javadsl.server.Directives.optionalHeaderValueByName;
 import static akka.http.javadsl.server.Directives.path;
 import static akka.http.javadsl.server.Directives.respondWithHeader;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
+import java.util.zip.GZIPOutputStream;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 
 import org.slf4j.Logger;
 
 import akka.NotUsed;
+import akka.actor.typed.ActorRef;
 import akka.actor.typed.ActorSystem;
+import akka.actor.typed.javadsl.AskPattern;
 import akka.cluster.Member;
 import akka.cluster.MemberStatus;
 import akka.cluster.typed.Cluster;
 import akka.cluster.typed.Leave;
 import akka.http.javadsl.Http;
 import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpEntities;
+import akka.http.javadsl.model.HttpEntity;
 import akka.http.javadsl.model.MediaTypes;
+import akka.http.javadsl.model.headers.ContentEncoding;
+import akka.http.javadsl.model.headers.EntityTag;
+import akka.http.javadsl.model.headers.HttpEncodings;
 import akka.http.javadsl.model.headers.RawHeader;
 import akka.http.javadsl.model.ws.Message;
-import akka.http.javadsl.model.ws.TextMessage;
+import akka.http.javadsl.model.ws.BinaryMessage;
 import akka.http.javadsl.server.Route;
-import akka.japi.JavaPartialFunction;
 import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
 import cluster.HttpServer.ServerActivitySummary.ServerActivity;
 
 class HttpServer { /*Comment Flag: HttpServer handles incoming ./akka commands to clusters */
   private final ActorSystem<?> actorSystem; //a group of actors that share common properties
-  private ClusterAwareStatistics clusterAwareStatistics;
-  private SingletonAwareStatistics singletonAwareStatistics;
+  private final PingCounters clusterAwarePings = new PingCounters();
+  private final PingCounters singletonAwarePings = new PingCounters();
+  private volatile PingSummary clusterAwareStatistics;
+  private volatile PingSummary singletonAwareStatistics;
   private final Tree tree = new Tree("cluster", "cluster");
   private final ActivitySummary activitySummary = new ActivitySummary();
-
-  static HttpServer start(ActorSystem<?> actorSystem) {
+  private final Map<String, LatencyHistogram> latencyTotals = new HashMap<>();
+  private final Map<String, Latency> latencies = new ConcurrentHashMap<>();
+  private final ActorRef<Statistics> httpServerActorRef;
+  private final ActiveEntities activeEntities;
+  private final HeavyHitters heavyHitters;
+  private final AccountRoutes accountRoutes;
+  private final ViewerUpdates viewerUpdates;
+  private final List<Integer> seedNodePorts;
+  private final long statisticsRefreshNanos;
+  private final boolean clusterStateGzip;
+  private volatile ClusterView clusterView;
+  private volatile long statisticsVersion;
+  private long statisticsVersionNanos;
+  private volatile ClusterStateResponse clusterStateResponse;
+
+  static HttpServer start(ActorSystem<?> actorSystem, ActorRef<Statistics> httpServerActorRef, ActiveEntities activeEntities,
+      HeavyHitters heavyHitters, ActorRef<BankReadModelActor.Message> readModel) {
     final int port = memberPort(Cluster.get(actorSystem).selfMember());
-    if (port >= 2551 && port <= 2559) {
-      return new HttpServer(port + 7000, actorSystem);
+    if (isValidPort(port)) {
+      return new HttpServer(port + actorSystem.settings().config().getInt("cluster-node.http-port-offset"), actorSystem,
+          httpServerActorRef, activeEntities, heavyHitters, readModel);
     } else {
       final String message = String
-          .format("HTTP server not started. Node port %d is invalid. The port must be >= 2551 and <= 2559.", port);
+          .format("HTTP server not started. Node port %d is invalid. The node must have a remoting port.", port);
       System.err.printf("%s%n", message);
       throw new RuntimeException(message);
     }
   }
 
-  private HttpServer(int port, ActorSystem<?> actorSystem) {
+  private HttpServer(int port, ActorSystem<?> actorSystem, ActorRef<Statistics> httpServerActorRef, ActiveEntities activeEntities,
+      HeavyHitters heavyHitters, ActorRef<BankReadModelActor.Message> readModel) {
     this.actorSystem = actorSystem;
+    this.httpServerActorRef = httpServerActorRef;
+    this.activeEntities = activeEntities;
+    this.heavyHitters = heavyHitters;
+    accountRoutes = new AccountRoutes(actorSystem, readModel);
+    final var config = actorSystem.settings().config();
+    viewerUpdates = new ViewerUpdates(actorSystem, config.getInt("http-server.viewer.buffer-size"));
+    seedNodePorts = seedNodePorts(actorSystem);
+    statisticsRefreshNanos = Duration.parse(config.getString("http-server.cluster-state.statistics-refresh-iso-8601")).toNanos();
+    clusterStateGzip = config.getBoolean("http-server.cluster-state.gzip");
+    clusterView = new ClusterView(0, loadNodes());
     start(port);
   }
 
@@ -84,8 +131,15 @@ class HttpServer { /*Comment Flag: HttpServer handles incoming ./akka commands t
         path("dashboard-main-sharding.js", () -> getFromResource("dashboard-main-sharding.js", ContentTypes.APPLICATION_JSON)),
         path("dashboard-cluster-aware.js", () -> getFromResource("dashboard-cluster-aware.js", ContentTypes.APPLICATION_JSON)),
         path("dashboard-singleton-aware.js", () -> getFromResource("dashboard-singleton-aware.js", ContentTypes.APPLICATION_JSON)),
+        path("dashboard-latency.js", () -> getFromResource("dashboard-latency.js", ContentTypes.APPLICATION_JSON)),
+        path("dashboard-passivation.js", () -> getFromResource("dashboard-passivation.js", ContentTypes.APPLICATION_JSON)),
+        path("dashboard-heavy-hitters.js", () -> getFromResource("dashboard-heavy-hitters.js", ContentTypes.APPLICATION_JSON)),
         path("p5.js", () -> getFromResource("p5.js", ContentTypes.APPLICATION_JSON)),
         path("cluster-state", this::clusterState),
+        path("latency", this::latency),
+        path("passivation", this::passivation),
+        path("heavy-hitters", this::heavyHitters),
+        accountRoutes.route(),
         path("viewer", () -> getFromResource("viewer.html", ContentTypes.TEXT_HTML_UTF8)),
         path("viewer.html", () -> getFromResource("viewer.html", ContentTypes.TEXT_HTML_UTF8)),
         path("viewer.js", () -> getFromResource("viewer.js", ContentTypes.APPLICATION_JSON)),
@@ -94,36 +148,104 @@ class HttpServer { /*Comment Flag: HttpServer handles incoming ./akka commands t
         path("favicon.ico", () -> getFromResource("favicon.ico", MediaTypes.IMAGE_X_ICON.toContentType())));
   }
 
+  /**
+   * The response is rendered once per change and served from the cache until the next change, with an ETag so a
+   * dashboard polling an unchanged node gets a 304 and an empty body. Compressed when the client accepts gzip.
+   */
   private Route clusterState() {
     return get(() -> respondWithHeader(RawHeader.create("Access-Control-Allow-Origin", "*"),
-        () -> complete(loadNodes(actorSystem, clusterAwareStatistics, singletonAwareStatistics).toJson())));
+        () -> parameterOptional("pretty", pretty -> pretty.isPresent()
+            ? complete(json(clusterView.nodes.withStatistics(clusterAwareStatistics, singletonAwareStatistics), true))
+            : optionalHeaderValueByName("Accept-Encoding", acceptEncoding -> {
+                final var response = clusterStateResponse();
+                final var gzip = clusterStateGzip && acceptEncoding.map(encodings -> encodings.contains("gzip")).orElse(false);
+                return respondWithHeader(RawHeader.create("Cache-Control", "no-cache"),
+                    () -> respondWithHeader(RawHeader.create("Vary", "Accept-Encoding"),
+                        () -> conditional(gzip ? response.gzipETag : response.eTag,
+                            () -> gzip
+                                ? respondWithHeader(ContentEncoding.create(HttpEncodings.GZIP),
+                                    () -> complete(HttpEntities.create(ContentTypes.APPLICATION_JSON, response.gzipJson())))
+                                : complete(HttpEntities.create(ContentTypes.APPLICATION_JSON, response.json)))));
+              }))));
   }
 
-  private Flow<Message, Message, NotUsed> handleClientMessages() {
-    return Flow.<Message>create().collect(new JavaPartialFunction<Message, Message>() {
-      @Override
-      public Message apply(Message message, boolean isCheck) {
-        if (isCheck && message.isText()) {
-          return null;
-        } else if (isCheck && !message.isText()) {
-          throw noMatch();
-        } else if (message.asTextMessage().isStrict()) {
-          return handleClientMessage(message);
-        } else {
-          return TextMessage.create("");
-        }
-      }
-    });
+  private ClusterStateResponse clusterStateResponse() {
+    final var view = clusterView;
+    final var version = statisticsVersion;
+    final var cached = clusterStateResponse;
+    if (cached != null && cached.clusterView == view && cached.statisticsVersion == version) {
+      return cached;
+    }
+    final var response = new ClusterStateResponse(view, version,
+        JsonWriters.toJson(view.nodes.withStatistics(clusterAwareStatistics, singletonAwareStatistics)));
+    clusterStateResponse = response;
+    return response;
+  }
+
+  /**
+   * Called by the HTTP server actor on cluster membership, reachability and leader changes.
+   */
+  void clusterChanged() {
+    clusterView = new ClusterView(clusterView.version + 1, loadNodes());
   }
 
-  private Message handleClientMessage(Message message) {
-    final var messageText = message.asTextMessage().getStrictText();
-    if (messageText.startsWith("akka://")) {
-      handleStopNode(messageText);
+  // ping statistics arrive many times a second, they make a new response at most once per refresh interval
+  private void statisticsChanged() {
+    final var now = System.nanoTime();
+    if (now - statisticsVersionNanos >= statisticsRefreshNanos) {
+      statisticsVersionNanos = now;
+      ++statisticsVersion;
     }
-    removeOfflineMembers(actorSystem, tree);
+  }
 
-    return responseAsJson();
+  private Route latency() {
+    return get(() -> respondWithHeader(RawHeader.create("Access-Control-Allow-Origin", "*"),
+        () -> parameterOptional("pretty", pretty -> complete(json(
+            new Latencies(memberPort(Cluster.get(actorSystem).selfMember()), latencies.values()), pretty.isPresent())))));
+  }
+
+  private Route passivation() {
+    return get(() -> respondWithHeader(RawHeader.create("Access-Control-Allow-Origin", "*"),
+        () -> parameterOptional("pretty", pretty -> complete(json(
+            activeEntities.summary(memberPort(Cluster.get(actorSystem).selfMember())), pretty.isPresent())))));
+  }
+
+  private Route heavyHitters() {
+    return get(() -> respondWithHeader(RawHeader.create("Access-Control-Allow-Origin", "*"),
+        () -> parameterOptional("pretty", pretty -> complete(json(
+            heavyHitters.summary(memberPort(Cluster.get(actorSystem).selfMember()), System.nanoTime()), pretty.isPresent())))));
+  }
+
+  private static HttpEntity.Strict json(Object value, boolean pretty) {
+    return HttpEntities.create(ContentTypes.APPLICATION_JSON, JsonWriters.toJson(value, pretty));
+  }
+
+  /**
+   * Viewer messages are member addresses to stop. The viewer is sent a snapshot of the tree followed by the deltas
+   * published by the HTTP server actor, and the connection closes when either side completes.
+   */
+  private Flow<Message, Message, NotUsed> handleClientMessages() {
+    final var askTimeout = Duration.parse(actorSystem.settings().config().getString("http-server.viewer.snapshot-timeout-iso-8601"));
+    final Sink<Message, ?> clientMessages = Sink.foreach(this::handleClientMessage);
+    final Source<Message, NotUsed> updates = Source
+        .completionStage(AskPattern.<Statistics, ViewerUpdates.Update>ask(httpServerActorRef, ViewerSnapshot::new, askTimeout,
+            actorSystem.scheduler()))
+        .flatMapConcat(snapshot -> Source.single(snapshot).concat(viewerUpdates.updatesAfter(snapshot)))
+        .map(update -> BinaryMessage.create(update.toJson()));
+    return Flow.fromSinkAndSourceCoupled(clientMessages, updates);
+  }
+
+  private void handleClientMessage(Message message) {
+    if (message.isText() && message.asTextMessage().isStrict()) {
+      final var messageText = message.asTextMessage().getStrictText();
+      if (messageText.startsWith("akka://")) {
+        handleStopNode(messageText);
+      }
+    } else if (message.isText()) {
+      message.asTextMessage().getStreamedText().runWith(Sink.ignore(), actorSystem);
+    } else {
+      message.asBinaryMessage().getStreamedData().runWith(Sink.ignore(), actorSystem);
+    }
   }
 
   private void handleStopNode(String memberAddress) {
@@ -136,13 +258,27 @@ class HttpServer { /*Comment Flag: HttpServer handles incoming ./akka commands t
     });
   }
 
-  private Message responseAsJson() {
-    tree.setMemberType(Cluster.get(actorSystem).selfMember().address().toString(), "httpServer");
-    final var clientResponse = new ClientResponse(tree, activitySummary);
-    return TextMessage.create(clientResponse.toJson());
+  /**
+   * Called by the HTTP server actor for a viewer that has connected.
+   */
+  ViewerUpdates.Update viewerSnapshot() {
+    final var selfMember = Cluster.get(actorSystem).selfMember().address().toString();
+    removeOfflineMembers();
+    tree.setMemberType(selfMember, "httpServer");
+    return viewerUpdates.snapshot(tree, activitySummary.serverActivitySummary.serverActivities.values(), selfMember);
   }
 
-  private static Nodes loadNodes(ActorSystem<?> actorSystem, ClusterAwareStatistics clusterAwareStatistics, SingletonAwareStatistics singletonAwareStatistics) {
+  /**
+   * Called by the HTTP server actor once per viewer push interval.
+   */
+  void viewerTick() {
+    removeOfflineMembers();
+    if (!viewerUpdates.publish()) {
+      log().warn("Viewer update dropped, viewers will reload the tree");
+    }
+  }
+
+  private Nodes loadNodes() {
     final var cluster = Cluster.get(actorSystem);
     final var clusterState = cluster.state();
     final var unreachable = clusterState.getUnreachable();
@@ -154,13 +290,11 @@ class HttpServer { /*Comment Flag: HttpServer handles incoming ./akka commands t
 
     final var oldest = old.orElse(cluster.selfMember());
 
-    final var seedNodePorts = seedNodePorts(actorSystem);
-
     final Nodes nodes = new Nodes(
         memberPort(cluster.selfMember()),
         cluster.selfMember().address().equals(clusterState.getLeader()),
         oldest.equals(cluster.selfMember()),
-        clusterAwareStatistics, singletonAwareStatistics);
+        null, null);
 
     StreamSupport.stream(clusterState.getMembers().spliterator(), false).forEach(new Consumer<Member>() {
       @Override
@@ -191,7 +325,7 @@ class HttpServer { /*Comment Flag: HttpServer handles incoming ./akka commands t
   }
 
   private static boolean isValidPort(int port) {
-    return port >= 2551 && port <= 2559;
+    return port > 0;
   }
 
   private static int memberPort(Member member) {
@@ -206,15 +340,16 @@ class HttpServer { /*Comment Flag: HttpServer handles incoming ./akka commands t
     }).collect(Collectors.toList());
   }
 
-  private static void removeOfflineMembers(ActorSystem<?> actorSystem, Tree tree) {
+  private void removeOfflineMembers() {
     var liveMembers = liveMembers(actorSystem);
 
-    tree.children.stream()
-        .filter((c -> !liveMembers.contains(c.name)))
+    tree.memberIds().stream()
+        .filter(memberId -> !liveMembers.contains(memberId))
         .collect(Collectors.toList())
-        .forEach(c -> {
-          actorSystem.log().info("Removing offline member: {}", c.name);
-          tree.removeMember(c.name);
+        .forEach(memberId -> {
+          actorSystem.log().info("Removing offline member: {}", memberId);
+          tree.removeMember(memberId);
+          viewerUpdates.memberRemoved(memberId);
         });
   }
 
@@ -233,33 +368,46 @@ class HttpServer { /*Comment Flag: HttpServer handles incoming ./akka commands t
   }
 
   void load(ClusterAwareStatistics clusterAwareStatistics) {
-    this.clusterAwareStatistics = clusterAwareStatistics;
+    clusterAwarePings.apply(clusterAwareStatistics.nodePings);
+    this.clusterAwareStatistics = new PingSummary(null, clusterAwareStatistics.totalPings, clusterAwareStatistics.pingRatePs,
+        clusterAwarePings.toMap());
+    statisticsChanged();
   }
 
   public static class ClusterAwareStatistics implements Statistics {
-    public final int totalPings;
+    public final long totalPings;
     public final int pingRatePs;
-    public final Map<Integer, Integer> nodePings;
+    public final PingCounters.Delta nodePings;
 
-    public ClusterAwareStatistics(int totalPings, int pingRatePs, Map<Integer, Integer> nodePings) {
+    @JsonCreator
+    public ClusterAwareStatistics(long totalPings, int pingRatePs, PingCounters.Delta nodePings) {
       this.totalPings = totalPings;
       this.pingRatePs = pingRatePs;
       this.nodePings = nodePings;
     }
+
+    @Override
+    public String toString() {
+      return String.format("%s[%,d, %d, %s]", getClass().getSimpleName(), totalPings, pingRatePs, nodePings);
+    }
   }
 
   void load(SingletonAwareStatistics singletonAwareStatistics) {
-    this.singletonAwareStatistics = singletonAwareStatistics;
+    singletonAwarePings.apply(singletonAwareStatistics.nodePings);
+    this.singletonAwareStatistics = new PingSummary(singletonAwareStatistics.memberId, singletonAwareStatistics.totalPings,
+        singletonAwareStatistics.pingRatePs, singletonAwarePings.toMap());
     tree.setMemberType(singletonAwareStatistics.memberId, "singleton");
+    statisticsChanged();
   }
 
   public static class SingletonAwareStatistics implements Statistics {
     public final String memberId;
-    public final int totalPings;
+    public final long totalPings;
     public final int pingRatePs;
-    public final Map<Integer, Integer> nodePings;
+    public final PingCounters.Delta nodePings;
 
-    public SingletonAwareStatistics(String memberId, int totalPings, int pingRatePs, Map<Integer, Integer> nodePings) {
+    @JsonCreator
+    public SingletonAwareStatistics(String memberId, long totalPings, int pingRatePs, PingCounters.Delta nodePings) {
       this.memberId = memberId;
       this.totalPings = totalPings;
       this.pingRatePs = pingRatePs;
@@ -268,7 +416,26 @@ class HttpServer { /*Comment Flag: HttpServer handles incoming ./akka commands t
 
     @Override
     public String toString() {
-      return String.format("%s[%s, %d, %d, %s]", getClass().getSimpleName(), memberId, totalPings, pingRatePs, nodePings);
+      return String.format("%s[%s, %,d, %d, %s]", getClass().getSimpleName(), memberId, totalPings, pingRatePs, nodePings);
+    }
+  }
+
+  /**
+   * Ping statistics as served to the dashboard, with the counters applied from the deltas received so far.
+   */
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public static class PingSummary implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public final String memberId;
+    public final long totalPings;
+    public final int pingRatePs;
+    public final Map<Integer, Long> nodePings;
+
+    public PingSummary(String memberId, long totalPings, int pingRatePs, Map<Integer, Long> nodePings) {
+      this.memberId = memberId;
+      this.totalPings = totalPings;
+      this.pingRatePs = pingRatePs;
+      this.nodePings = nodePings;
     }
   }
 
@@ -276,15 +443,21 @@ class HttpServer { /*Comment Flag: HttpServer handles incoming ./akka commands t
     try {
       switch (entityAction.action) {
       case "start":
-        tree.add(entityAction.member, entityAction.shardId, entityAction.entityId);
-        activitySummary.load(entityAction);
+        if (tree.add(entityAction.member, entityAction.shardId, entityAction.entityId)) {
+          viewerUpdates.entityMoved(entityAction.member, entityAction.shardId, entityAction.entityId);
+        }
+        viewerUpdates.serverActivity(activitySummary.load(entityAction));
         break;
       case "ping":
-        tree.ping(entityAction.member, entityAction.shardId, entityAction.entityId);
-        activitySummary.load(entityAction);
+        if (tree.ping(entityAction.member, entityAction.shardId, entityAction.entityId)) {
+          viewerUpdates.entityMoved(entityAction.member, entityAction.shardId, entityAction.entityId);
+        }
+        viewerUpdates.serverActivity(activitySummary.load(entityAction));
         break;
       case "stop":
-        tree.remove(entityAction.member, entityAction.shardId, entityAction.entityId);
+        if (tree.remove(entityAction.member, entityAction.shardId, entityAction.entityId)) {
+          viewerUpdates.entityRemoved(entityAction.member, entityAction.shardId, entityAction.entityId);
+        }
         break;
       default:
         break;
@@ -292,7 +465,7 @@ class HttpServer { /*Comment Flag: HttpServer handles incoming ./akka commands t
     } catch (RuntimeException e) {
       log().error("Failed to load entity action: {}", e);
       log().error("Failed to load entity action: {}", entityAction);
-      log().warn("Failed to load entity action: tree children ({}) {}", tree.children.size(), tree.toJson());
+      log().warn("Failed to load entity action: tree members ({}) entities ({})", tree.memberIds().size(), tree.entityCount());
     }
   }
 
@@ -302,19 +475,143 @@ class HttpServer { /*Comment Flag: HttpServer handles incoming ./akka commands t
     final String entityId;
     final String action;
     final String httpServer;
+    final int count;
 
-    @JsonCreator
     EntityAction(String member, String shardId, String entityId, String action, String httpServer) {
+      this(member, shardId, entityId, action, httpServer, 1);
+    }
+
+    @JsonCreator
+    EntityAction(String member, String shardId, String entityId, String action, String httpServer, int count) {
       this.member = member;
       this.shardId = shardId;
       this.entityId = entityId;
       this.action = action;
       this.httpServer = httpServer;
+      this.count = count;
+    }
+
+    /**
+     * Coalesce a later action for the same entity into this one. Pings after a start or ping keep the earlier action,
+     * take the latest location and add up the counts; anything else supersedes this action.
+     */
+    EntityAction merge(EntityAction next) {
+      if ("ping".equals(next.action) && ("start".equals(action) || "ping".equals(action))) {
+        return new EntityAction(next.member, next.shardId, next.entityId, action, next.httpServer, count + next.count);
+      } else {
+        return next;
+      }
     }
 
     @Override
     public String toString() {
-      return String.format("%s[%s, %s, %s, %s, %s]", getClass().getSimpleName(), member, shardId, entityId, action, httpServer);
+      return String.format("%s[%s, %s, %s, %s, %s, %d]", getClass().getSimpleName(), member, shardId, entityId, action, httpServer, count);
+    }
+  }
+
+  void load(EntityActionBatch entityActionBatch) {
+    entityActionBatch.entityActions.forEach(this::load);
+  }
+
+  public static class EntityActionBatch implements Statistics {
+    final List<EntityAction> entityActions;
+
+    @JsonCreator
+    EntityActionBatch(List<EntityAction> entityActions) {
+      this.entityActions = entityActions;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s[%,d]", getClass().getSimpleName(), entityActions.size());
+    }
+  }
+
+  public static class ViewerSnapshot implements Statistics {
+    final ActorRef<ViewerUpdates.Update> replyTo;
+
+    ViewerSnapshot(ActorRef<ViewerUpdates.Update> replyTo) {
+      this.replyTo = replyTo;
+    }
+  }
+
+  /**
+   * Latency histograms are sent by the local request senders once per report interval. The route serves the last
+   * interval and the running total since this node started, rendered here so HTTP requests only read immutable values.
+   */
+  void load(LatencyStatistics latencyStatistics) {
+    final var interval = LatencyHistogram.decode(latencyStatistics.histogram);
+    final var total = latencyTotals.computeIfAbsent(latencyStatistics.name, name -> new LatencyHistogram());
+    total.add(interval);
+    final var previous = latencies.get(latencyStatistics.name);
+    final var totalFailures = (previous == null ? 0 : previous.total.failures) + latencyStatistics.failures;
+    latencies.put(latencyStatistics.name, new Latency(latencyStatistics.name,
+        new LatencyPercentiles(interval, latencyStatistics.failures), new LatencyPercentiles(total, totalFailures)));
+  }
+
+  public static class LatencyStatistics implements Statistics {
+    public final String name;
+    public final byte[] histogram;
+    public final long failures;
+
+    @JsonCreator
+    public LatencyStatistics(String name, byte[] histogram, long failures) {
+      this.name = name;
+      this.histogram = histogram;
+      this.failures = failures;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s[%s, %,d failures]", getClass().getSimpleName(), name, failures);
+    }
+  }
+
+  public static class Latencies implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public final int selfPort;
+    public final List<Latency> latencies;
+
+    public Latencies(int selfPort, Collection<Latency> latencies) {
+      this.selfPort = selfPort;
+      this.latencies = latencies.stream()
+          .sorted((l1, l2) -> l1.name.compareTo(l2.name))
+          .collect(Collectors.toList());
+    }
+  }
+
+  public static class Latency implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public final String name;
+    public final LatencyPercentiles interval;
+    public final LatencyPercentiles total;
+
+    public Latency(String name, LatencyPercentiles interval, LatencyPercentiles total) {
+      this.name = name;
+      this.interval = interval;
+      this.total = total;
+    }
+  }
+
+  /**
+   * Percentiles in microseconds.
+   */
+  public static class LatencyPercentiles implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public final long count;
+    public final long failures;
+    public final long p50;
+    public final long p99;
+    public final long p999;
+    public final long max;
+
+    LatencyPercentiles(LatencyHistogram latencyHistogram, long failures) {
+      count = latencyHistogram.count();
+      this.failures = failures;
+      p50 = latencyHistogram.percentileMicros(50);
+      p99 = latencyHistogram.percentileMicros(99);
+      p999 = latencyHistogram.percentileMicros(99.9);
+      max = latencyHistogram.histogram.getMaxValue();
     }
   }
 
@@ -322,11 +619,11 @@ class HttpServer { /*Comment Flag: HttpServer handles incoming ./akka commands t
     public final int selfPort;
     public final boolean leader;
     public final boolean oldest;
-    public final ClusterAwareStatistics clusterAwareStatistics;
-    public final SingletonAwareStatistics singletonAwareStatistics;
+    public final PingSummary clusterAwareStatistics;
+    public final PingSummary singletonAwareStatistics;
     public List<Node> nodes = new ArrayList<>();
 
-    public Nodes(int selfPort, boolean leader, boolean oldest, ClusterAwareStatistics clusterAwareStatistics, SingletonAwareStatistics singletonAwareStatistics) {
+    public Nodes(int selfPort, boolean leader, boolean oldest, PingSummary clusterAwareStatistics, PingSummary singletonAwareStatistics) {
       this.selfPort = selfPort;
       this.leader = leader;
       this.oldest = oldest;
@@ -334,6 +631,15 @@ class HttpServer { /*Comment Flag: HttpServer handles incoming ./akka commands t
       this.singletonAwareStatistics = singletonAwareStatistics;
     }
 
+    /**
+     * The same nodes with the current ping statistics, the node list is not changed after loading.
+     */
+    Nodes withStatistics(PingSummary clusterAwareStatistics, PingSummary singletonAwareStatistics) {
+      final var nodes = new Nodes(selfPort, leader, oldest, clusterAwareStatistics, singletonAwareStatistics);
+      nodes.nodes = this.nodes;
+      return nodes;
+    }
+
     void add(Member member, boolean leader, boolean oldest, boolean seedNode) {
       final var port = memberPort(member);
       if (isValidPort(port)) {
@@ -389,14 +695,54 @@ class HttpServer { /*Comment Flag: HttpServer handles incoming ./akka commands t
         return "unknown";
       }
     }
+  }
+
+  /**
+   * The membership part of /cluster-state, loaded on cluster events. The version numbers the loads.
+   */
+  static class ClusterView {
+    final long version;
+    final Nodes nodes;
+
+    ClusterView(long version, Nodes nodes) {
+      this.version = version;
+      this.nodes = nodes;
+    }
+  }
+
+  /**
+   * A rendered /cluster-state response. The ETag changes with the cluster view and statistics versions, and with
+   * the node's incarnation so a restarted node does not match a tag from before the restart.
+   */
+  static class ClusterStateResponse {
+    private static final long incarnation = System.currentTimeMillis();
+    final ClusterView clusterView;
+    final long statisticsVersion;
+    final ByteString json;
+    final EntityTag eTag;
+    final EntityTag gzipETag;
+    private volatile ByteString gzipJson;
+
+    ClusterStateResponse(ClusterView clusterView, long statisticsVersion, ByteString json) {
+      this.clusterView = clusterView;
+      this.statisticsVersion = statisticsVersion;
+      this.json = json;
+      final var tag = String.format("%x-%d-%d", incarnation, clusterView.version, statisticsVersion);
+      eTag = EntityTag.create(tag, false);
+      gzipETag = EntityTag.create(tag + "-gzip", false);
+    }
 
-    String toJson() {
-      final var ow = new ObjectMapper().writer().withDefaultPrettyPrinter();
-      try {
-        return ow.writeValueAsString(this);
-      } catch (JsonProcessingException e) {
-        return String.format("{ \"error\" : \"%s\" }", e.getMessage());
+    ByteString gzipJson() {
+      if (gzipJson == null) {
+        final var builder = new ByteStringBuilder();
+        try (var gzip = new GZIPOutputStream(builder.asOutputStream())) {
+          gzip.write(json.toArray());
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        gzipJson = builder.result();
       }
+      return gzipJson;
     }
   }
 
@@ -433,12 +779,21 @@ class HttpServer { /*Comment Flag: HttpServer handles incoming ./akka commands t
     }
   }
 
+  /**
+   * Viewer tree of cluster -> member -> shard -> entity nodes.
+   * <p>
+   * Children are held in insertion ordered maps keyed by name and the root keeps an index of entity nodes by entity id,
+   * so add, ping, remove and removeMember do not need to search the tree.
+   */
+  @JsonPropertyOrder({ "name", "type", "events", "children" })
   public static class Tree implements Serializable {
     private static final long serialVersionUID = 1L;
     public final String name;
     public String type;
     public int events;
-    public final List<Tree> children = new ArrayList<>();
+    private final Map<String, Tree> children = new LinkedHashMap<>();
+    private Map<String, Tree> entities;
+    private Tree parent;
 
     public Tree(String name, String type) {
       this.name = name;
@@ -450,11 +805,19 @@ class HttpServer { /*Comment Flag: HttpServer handles incoming ./akka commands t
     }
 
     Tree children(Tree... children) {
-      this.children.addAll(Arrays.asList(children));
+      Arrays.asList(children).forEach(this::addChild);
+      entities = null;
       return this;
     }
 
-    void add(String memberId, String shardId, String entityId) {
+    public Collection<Tree> getChildren() {
+      return children.values();
+    }
+
+    /**
+     * @return true when the entity was added or moved
+     */
+    boolean add(String memberId, String shardId, String entityId) {
       if (memberId == null) {
         throw new IllegalArgumentException("memberId must not be null");
       }
@@ -464,120 +827,86 @@ class HttpServer { /*Comment Flag: HttpServer handles incoming ./akka commands t
       if (entityId == null) {
         throw new IllegalArgumentException("entityId must not be null");
       }
+      final var existing = entities().get(entityId);
+      if (existing != null && isAt(existing, memberId, shardId)) {
+        return false;
+      }
       removeEntity(entityId);
-      var member = find(memberId, "member");
+      var member = children.get(memberId);
       if (member == null) {
-        member = Tree.create(memberId, "member");
-        children.add(member);
+        member = addChild(Tree.create(memberId, "member"));
       }
-      var shard = member.find(shardId, "shard");
+      var shard = member.children.get(shardId);
       if (shard == null) {
-        shard = Tree.create(shardId, "shard");
-        member.children.add(shard);
-      }
-      var entity = shard.find(entityId, "entity");
-      if (entity == null) {
-        entity = Tree.create(entityId, "entity");
-        shard.children.add(entity);
+        shard = member.addChild(Tree.create(shardId, "shard"));
       }
+      entities().put(entityId, shard.addChild(Tree.create(entityId, "entity")));
+      return true;
     }
 
-    void ping(String memberId, String shardId, String entityId) {
-      final var entity = find(entityId, "entity");
-      if (entity == null) {
-        add(memberId, shardId, entityId);
-      }
+    /**
+     * @return true when the entity was not yet known at this location and was added or moved
+     */
+    boolean ping(String memberId, String shardId, String entityId) {
+      final var entity = entities().get(entityId);
+      return (entity == null || !isAt(entity, memberId, shardId)) && add(memberId, shardId, entityId);
     }
 
-    void remove(String memberId, String shardId, String entityId) {
-      var member = find(memberId, "member");
-      if (member != null) {
-        var shard = member.find(shardId, "shard");
-        if (shard != null) {
-          var entity = shard.find(entityId, "entity");
-          shard.children.remove(entity);
-
-          if (shard.children.isEmpty()) {
-            member.children.remove(shard);
-          }
-        }
-        if (member.children.isEmpty()) {
-          children.remove(member);
-        }
+    /**
+     * @return true when the entity was at this location and was removed
+     */
+    boolean remove(String memberId, String shardId, String entityId) {
+      final var entity = entities().get(entityId);
+      if (entity != null && isAt(entity, memberId, shardId)) {
+        removeEntity(entityId);
+        return true;
       }
+      return false;
     }
 
     void removeEntity(String entityId) {
-      var memberId = "";
-      var shardId = "";
-      for (var member : children) {
-        for (var shard : member.children) {
-          for (var entity : shard.children) {
-            if (entity.name.equals(entityId)) {
-              memberId = member.name;
-              shardId = shard.name;
-              break;
-            }
+      final var entity = entities().remove(entityId);
+      if (entity != null) {
+        final var shard = entity.parent;
+        shard.removeChild(entity);
+        if (shard.children.isEmpty()) {
+          final var member = shard.parent;
+          member.removeChild(shard);
+          if (member.children.isEmpty()) {
+            removeChild(member);
           }
         }
       }
-      if (!memberId.isEmpty()) {
-        remove(memberId, shardId, entityId);
-      }
     }
 
-    private static class RemoveEntity {
-      final String memberId;
-      final String shardId;
-      final String entityId;
-
-      RemoveEntity(String memberId, String shardId, String entityId) {
-        this.memberId = memberId;
-        this.shardId = shardId;
-        this.entityId = entityId;
+    void removeMember(String memberId) {
+      final var member = children.remove(memberId);
+      if (member != null) {
+        member.children.values().forEach(shard -> shard.children.keySet().forEach(entities()::remove));
+        member.parent = null;
       }
     }
 
-    void removeMember(String memberId) {
-      final var entities = new ArrayList<RemoveEntity>();
-      for (var member : children) {
-        if (member.name.equals(memberId)) {
-          for (var shard : member.children) {
-            for (var entity : shard.children) {
-              entities.add(new RemoveEntity(member.name, shard.name, entity.name));
-            }
-          }
-        }
-      }
-      entities.forEach(e -> remove(e.memberId, e.shardId, e.entityId));
+    Set<String> memberIds() {
+      return children.keySet();
     }
 
-    void incrementEvents(String memberId, String shardId, String entityId) {
-      final var entity = find(memberId, shardId, entityId);
-      if (entity != null) {
-        entity.events += 1;
-      }
+    int entityCount() {
+      return entities().size();
     }
 
-    private Tree find(String memberId, String shardId, String entityId) {
-      final var member = find(memberId, "member");
-      if (member != null) {
-        final var shard = member.find(shardId, "shard");
-        if (shard != null) {
-          final var entity = shard.find(entityId, "entity");
-          if (entity != null) {
-            return entity;
-          }
-        }
+    void incrementEvents(String memberId, String shardId, String entityId) {
+      final var entity = entities().get(entityId);
+      if (entity != null && isAt(entity, memberId, shardId)) {
+        entity.events += 1;
       }
-      return null;
     }
 
     Tree find(String name, String type) {
       if (this.name.equals(name) && this.type.contains(type)) {
         return this;
       } else {
-        for (var child : children) {
+        for (var child : children.values()) {
           final var found = child.find(name, type);
           if (found != null) {
             return found;
@@ -588,7 +917,7 @@ class HttpServer { /*Comment Flag: HttpServer handles incoming ./akka commands t
     }
 
     void setMemberType(String memberId, String type) {
-      children.forEach(
+      children.values().forEach(
           child -> {
             if (child.name.equals(memberId)) {
               if (!child.type.contains(type)) {
@@ -601,8 +930,8 @@ class HttpServer { /*Comment Flag: HttpServer handles incoming ./akka commands t
     }
 
     void unsetMemberType(String memberId, String type) {
-      final var member = find(memberId, type);
-      if (member != null) {
+      final var member = children.get(memberId);
+      if (member != null && member.type.contains(type)) {
         member.type = member.type.replaceAll(type, "");
         member.type = member.type.replaceAll(" +", " ");
       }
@@ -610,7 +939,7 @@ class HttpServer { /*Comment Flag: HttpServer handles incoming ./akka commands t
 
     int leafCount() {
       if (children.size() > 0) {
-        return children.stream().mapToInt(Tree::leafCount).sum();
+        return children.values().stream().mapToInt(Tree::leafCount).sum();
       } else {
         return 1;
       }
@@ -618,19 +947,35 @@ class HttpServer { /*Comment Flag: HttpServer handles incoming ./akka commands t
 
     int eventsCount() {
       if (children.size() > 0) {
-        return children.stream().mapToInt(Tree::eventsCount).sum();
+        return children.values().stream().mapToInt(Tree::eventsCount).sum();
       } else {
         return events;
       }
     }
 
-    String toJson() {
-      final var ow = new ObjectMapper().writer().withDefaultPrettyPrinter();
-      try {
-        return ow.writeValueAsString(this);
-      } catch (JsonProcessingException e) {
-        return String.format("{ \"error\" : \"%s\" }", e.getMessage());
+    private Tree addChild(Tree child) {
+      child.parent = this;
+      children.put(child.name, child);
+      return child;
+    }
+
+    private Map<String, Tree> entities() {
+      if (entities == null) {
+        entities = new HashMap<>();
+        children.values().forEach(member -> member.children.values()
+            .forEach(shard -> shard.children.values().forEach(entity -> entities.put(entity.name, entity))));
       }
+      return entities;
+    }
+
+    private void removeChild(Tree child) {
+      children.remove(child.name);
+      child.parent = null;
+    }
+
+    private static boolean isAt(Tree entity, String memberId, String shardId) {
+      final var shard = entity.parent;
+      return shard.name.equals(shardId) && shard.parent.name.equals(memberId);
     }
 
     @Override
@@ -643,8 +988,8 @@ class HttpServer { /*Comment Flag: HttpServer handles incoming ./akka commands t
     private static final long serialVersionUID = 1L;
     public final ServerActivitySummary serverActivitySummary = new ServerActivitySummary();
 
-    void load(EntityAction entityAction) {
-      serverActivitySummary.load(entityAction);
+    ServerActivity load(EntityAction entityAction) {
+      return serverActivitySummary.load(entityAction);
     }
 
     @Override
@@ -657,9 +1002,9 @@ class HttpServer { /*Comment Flag: HttpServer handles incoming ./akka commands t
     private static final long serialVersionUID = 1L;
     public final Map<String, ServerActivity> serverActivities = new HashMap<>();
 
-    void load(EntityAction entityAction) {
+    ServerActivity load(EntityAction entityAction) {
       final String server = entityAction.httpServer;
-      serverActivities.put(server, serverActivities.getOrDefault(server, new ServerActivity(server)).load(entityAction));
+      return serverActivities.computeIfAbsent(server, ServerActivity::new).load(entityAction);
     }
 
     @Override
@@ -679,7 +1024,7 @@ class HttpServer { /*Comment Flag: HttpServer handles incoming ./akka commands t
       }
 
       ServerActivity load(EntityAction entityAction) {
-        messageCount++;
+        messageCount += entityAction.count;
 
         links.offer(new Link(entityAction.entityId, entityAction.httpServer));
         while (links.size() > 50) {
@@ -735,24 +1080,4 @@ class HttpServer { /*Comment Flag: HttpServer handles incoming ./akka commands t
       return String.format("%s[%s, %s]", getClass().getSimpleName(), entityId, server);
     }
   }
-
-  public static class ClientResponse implements Serializable {
-    private static final long serialVersionUID = 1L;
-    public final Tree tree;
-    public final Collection<ServerActivity> serverActivities;
-
-    public ClientResponse(Tree tree, ActivitySummary activitySummary) {
-      this.tree = tree;
-      serverActivities = activitySummary.serverActivitySummary.serverActivities.values();
-    }
-
-    String toJson() {
-      ObjectWriter ow = new ObjectMapper().writer().withDefaultPrettyPrinter();
-      try {
-        return ow.writeValueAsString(this);
-      } catch (JsonProcessingException e) {
-        return String.format("{ \"error\" : \"%s\" }", e.getMessage());
-      }
-    }
-  }
 }
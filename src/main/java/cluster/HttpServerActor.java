@@ -4,10 +4,19 @@ import akka.actor.typed.ActorRef;
 import akka.actor.typed.Behavior;
 import akka.actor.typed.javadsl.ActorContext;
 import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.javadsl.TimerScheduler;
 import akka.actor.typed.receptionist.Receptionist;
 import akka.actor.typed.receptionist.ServiceKey;
+import akka.cluster.ClusterEvent;
+import akka.cluster.typed.Cluster;
+import akka.cluster.typed.Subscribe;
 import cluster.HttpServer.EntityAction;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
@@ -16,20 +25,42 @@ import org.slf4j.Logger;
 
 class HttpServerActor {
   private final ActorContext<HttpServer.Statistics> actorContext;
+  private final TimerScheduler<HttpServer.Statistics> timerScheduler;
   private final HttpServer httpServer;
-  private Set<ActorRef<HttpServer.Statistics>> serviceInstances;
+  private final ShardLoad shardLoad;
+  private final HeavyHitters heavyHitters;
+  private final Duration batchWindow;
+  private final int batchMaxSize;
+  private final Map<String, EntityAction> pendingEntityActions = new LinkedHashMap<>();
+  private final int logSampleEvery;
+  private long messageCount;
+  private Set<ActorRef<HttpServer.Statistics>> serviceInstances = Collections.emptySet();
   private static final ServiceKey<HttpServer.Statistics> serviceKey = 
     ServiceKey.create(HttpServer.Statistics.class, HttpServer.class.getSimpleName());
 
-  static Behavior<HttpServer.Statistics> create() {
-    return Behaviors.setup(context -> new HttpServerActor(context).behavior());
+  static Behavior<HttpServer.Statistics> create(ShardLoad shardLoad, ActiveEntities activeEntities,
+      ActorRef<BankReadModelActor.Message> readModel) {
+    return Behaviors.setup(context ->
+        Behaviors.withTimers(timer -> new HttpServerActor(context, timer, shardLoad, activeEntities, readModel).behavior()));
   }
 
-  private HttpServerActor(ActorContext<HttpServer.Statistics> actorContext) {
+  private HttpServerActor(ActorContext<HttpServer.Statistics> actorContext, TimerScheduler<HttpServer.Statistics> timerScheduler,
+      ShardLoad shardLoad, ActiveEntities activeEntities, ActorRef<BankReadModelActor.Message> readModel) {
     this.actorContext = actorContext;
+    this.timerScheduler = timerScheduler;
+    this.shardLoad = shardLoad;
+
+    final var config = actorContext.getSystem().settings().config();
+    batchWindow = Duration.parse(config.getString("http-server.entity-action-batch.window-iso-8601"));
+    batchMaxSize = config.getInt("http-server.entity-action-batch.max-size");
+    logSampleEvery = config.getInt("entity-actor.log-sample-every");
+    heavyHitters = new HeavyHitters(config.getConfig("http-server.heavy-hitters"));
 
     receptionistRegisterSubscribe(actorContext);
-    httpServer = HttpServer.start(actorContext.getSystem());
+    httpServer = HttpServer.start(actorContext.getSystem(), actorContext.getSelf(), activeEntities, heavyHitters, readModel);
+    Cluster.get(actorContext.getSystem()).subscriptions().tell(Subscribe.create(
+        actorContext.messageAdapter(ClusterEvent.ClusterDomainEvent.class, ClusterChanged::new), ClusterEvent.ClusterDomainEvent.class));
+    timerScheduler.startTimerAtFixedRate(ViewerTick.INSTANCE, Duration.parse(config.getString("http-server.viewer.push-interval-iso-8601")));
   }
 
   private Behavior<HttpServer.Statistics> behavior() {
@@ -37,8 +68,14 @@ class HttpServerActor {
         .onMessage(Listeners.class, this::onListeners)
         .onMessage(HttpServer.ClusterAwareStatistics.class, this::onClusterAwareStatistics)
         .onMessage(HttpServer.SingletonAwareStatistics.class, this::onSingletonAwareStatistics)
+        .onMessage(HttpServer.LatencyStatistics.class, this::onLatencyStatistics)
         .onMessage(BroadcastEntityAction.class, this::onBroadcastEntityAction)
+        .onMessage(FlushEntityActions.class, notUsed -> onFlushEntityActions())
         .onMessage(HttpServer.EntityAction.class, this::onNotifyEntityAction)
+        .onMessage(HttpServer.EntityActionBatch.class, this::onNotifyEntityActionBatch)
+        .onMessage(ViewerTick.class, notUsed -> onViewerTick())
+        .onMessage(HttpServer.ViewerSnapshot.class, this::onViewerSnapshot)
+        .onMessage(ClusterChanged.class, notUsed -> onClusterChanged())
         .build();
   }
 
@@ -48,33 +85,93 @@ class HttpServerActor {
   }
 
   private Behavior<HttpServer.Statistics> onClusterAwareStatistics(HttpServer.ClusterAwareStatistics clusterAwareStatistics) {
-    log().info("Cluster aware statistics {} {}", clusterAwareStatistics.totalPings, clusterAwareStatistics.nodePings);
+    log().debug("Cluster aware statistics {} {}", clusterAwareStatistics.totalPings, clusterAwareStatistics.nodePings);
     httpServer.load(clusterAwareStatistics);
     return Behaviors.same();
   }
 
   private Behavior<HttpServer.Statistics> onSingletonAwareStatistics(HttpServer.SingletonAwareStatistics singletonAwareStatistics) {
-    log().info("Singleton aware statistics {}", singletonAwareStatistics.nodePings);
+    log().debug("Singleton aware statistics {}", singletonAwareStatistics.nodePings);
     httpServer.load(singletonAwareStatistics);
     return Behaviors.same();
   }
 
+  private Behavior<HttpServer.Statistics> onLatencyStatistics(HttpServer.LatencyStatistics latencyStatistics) {
+    log().debug("Latency statistics {}", latencyStatistics);
+    httpServer.load(latencyStatistics);
+    return Behaviors.same();
+  }
+
   private Behavior<HttpServer.Statistics> onBroadcastEntityAction(BroadcastEntityAction broadcastEntityAction) {
-    serviceInstances.stream()
-        .forEach(httpServerActorRef -> {
-          httpServerActorRef.tell(broadcastEntityAction.entityAction);
-        });
+    final var entityAction = broadcastEntityAction.entityAction;
+    pendingEntityActions.merge(entityAction.entityId, entityAction, EntityAction::merge);
+
+    if (pendingEntityActions.size() >= batchMaxSize) {
+      return onFlushEntityActions();
+    }
+    if (!timerScheduler.isTimerActive(FlushEntityActions.INSTANCE)) {
+      timerScheduler.startSingleTimer(FlushEntityActions.INSTANCE, batchWindow);
+    }
+    return Behaviors.same();
+  }
+
+  private Behavior<HttpServer.Statistics> onFlushEntityActions() {
+    timerScheduler.cancel(FlushEntityActions.INSTANCE);
+    if (!pendingEntityActions.isEmpty()) {
+      final var entityActionBatch = new HttpServer.EntityActionBatch(new ArrayList<>(pendingEntityActions.values()));
+      pendingEntityActions.clear();
+      serviceInstances.forEach(httpServerActorRef -> httpServerActorRef.tell(entityActionBatch));
+    }
     return Behaviors.same();
   }
 
   private Behavior<HttpServer.Statistics> onNotifyEntityAction(HttpServer.EntityAction entityAction) {
-    log().info("{}", entityAction);
+    if (logSample()) {
+      log().info("{}", entityAction);
+    }
+    recordLoad(entityAction);
     httpServer.load(entityAction);
     return Behaviors.same();
   }
 
+  private Behavior<HttpServer.Statistics> onNotifyEntityActionBatch(HttpServer.EntityActionBatch entityActionBatch) {
+    if (logSample()) {
+      log().info("{}", entityActionBatch);
+    }
+    entityActionBatch.entityActions.forEach(this::recordLoad);
+    httpServer.load(entityActionBatch);
+    return Behaviors.same();
+  }
+
+  // every node's entity actions reach every HTTP server, so the shard coordinator's node sees the load of all shards
+  // and every node's heavy hitters are those of the whole cluster
+  private void recordLoad(HttpServer.EntityAction entityAction) {
+    if (!"stop".equals(entityAction.action)) {
+      shardLoad.record(entityAction.shardId, entityAction.count);
+      heavyHitters.record(entityAction.shardId, entityAction.entityId, entityAction.count);
+    }
+  }
+
+  private Behavior<HttpServer.Statistics> onViewerTick() {
+    httpServer.viewerTick();
+    return Behaviors.same();
+  }
+
+  private Behavior<HttpServer.Statistics> onViewerSnapshot(HttpServer.ViewerSnapshot viewerSnapshot) {
+    viewerSnapshot.replyTo.tell(httpServer.viewerSnapshot());
+    return Behaviors.same();
+  }
+
+  private Behavior<HttpServer.Statistics> onClusterChanged() {
+    httpServer.clusterChanged();
+    return Behaviors.same();
+  }
+
+  private boolean logSample() {
+    return ++messageCount % logSampleEvery == 0 && log().isInfoEnabled();
+  }
+
   private Logger log() {
-    System.out.println(actorContext);
     return actorContext.getLog();
   }
 
@@ -93,6 +190,14 @@ class HttpServerActor {
     }
   }
 
+  private static class ClusterChanged implements HttpServer.Statistics {
+    final ClusterEvent.ClusterDomainEvent clusterDomainEvent;
+
+    private ClusterChanged(ClusterEvent.ClusterDomainEvent clusterDomainEvent) {
+      this.clusterDomainEvent = clusterDomainEvent;
+    }
+  }
+
   public static class BroadcastEntityAction implements HttpServer.Statistics {
     public final HttpServer.EntityAction entityAction;
 
@@ -106,4 +211,12 @@ class HttpServerActor {
       return String.format("%s[%s]", getClass().getSimpleName(), entityAction);
     }
   }
+
+  enum FlushEntityActions implements HttpServer.Statistics {
+    INSTANCE
+  }
+
+  enum ViewerTick implements HttpServer.Statistics {
+    INSTANCE
+  }
 }
@@ -0,0 +1,111 @@
+package cluster;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
+
+/**
+ * JSON rendering for the HTTP routes and the viewer WebSocket, and the readers of request bodies and import records.
+ * <p>
+ * One ObjectMapper is shared. Creating one per response throws away Jackson's serializer caches, so every response
+ * paid for introspecting the response classes again. The writers are resolved once per type and write compact JSON;
+ * pretty printing is only done when a route is asked for it. Readers come from the same mapper and share its
+ * deserializer caches.
+ * <p>
+ * Output goes straight into a ByteStringBuilder kept per thread. The builder keeps its buffer between responses, so a
+ * response costs the final ByteString and not the growing copies of a String, its UTF-8 bytes and the entity. A
+ * builder that grew past 1 MB is not kept, so a large snapshot does not pin its buffer to a thread.
+ * <p>
+ * The viewer tree can hold a million entities, so it is written node by node with a JsonGenerator rather than by bean
+ * introspection of every node.
+ */
+final class JsonWriters {
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+  private static final Map<Class<?>, ObjectWriter> compactWriters = new ConcurrentHashMap<>();
+  private static final Map<Class<?>, ObjectWriter> prettyWriters = new ConcurrentHashMap<>();
+  private static final Map<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+  private static final int keepBuilderBytes = 1 << 20;
+  private static final ThreadLocal<ByteStringBuilder> builders = ThreadLocal.withInitial(ByteStringBuilder::new);
+
+  private JsonWriters() {
+  }
+
+  static ByteString toJson(Object value) {
+    return toJson(value, false);
+  }
+
+  static ByteString toJson(Object value, boolean pretty) {
+    final var writer = (pretty ? prettyWriters : compactWriters).computeIfAbsent(value.getClass(),
+        type -> pretty ? objectMapper.writerFor(type).withDefaultPrettyPrinter() : objectMapper.writerFor(type));
+    final var builder = builder();
+    try {
+      writer.writeValue(builder.asOutputStream(), value);
+    } catch (IOException e) {
+      return error(e);
+    }
+    return result(builder);
+  }
+
+  static ObjectReader readerFor(Class<?> type) {
+    return readers.computeIfAbsent(type, objectMapper::readerFor);
+  }
+
+  interface Content {
+    void write(JsonGenerator generator) throws IOException;
+  }
+
+  /**
+   * Render with a streaming generator, which can mix hand written fields with databind of small values.
+   */
+  static ByteString toJson(Content content) {
+    final var builder = builder();
+    try (var generator = objectMapper.createGenerator(builder.asOutputStream())) {
+      content.write(generator);
+    } catch (IOException e) {
+      return error(e);
+    }
+    return result(builder);
+  }
+
+  private static ByteStringBuilder builder() {
+    final var builder = builders.get();
+    builder.clear();
+    return builder;
+  }
+
+  private static ByteString result(ByteStringBuilder builder) {
+    final var result = builder.result();
+    if (result.length() > keepBuilderBytes) {
+      builders.remove();
+    }
+    return result;
+  }
+
+  private static ByteString error(IOException e) {
+    return ByteString.fromString(String.format("{ \"error\" : \"%s\" }", e.getMessage()));
+  }
+
+  /**
+   * The tree as Jackson would render it, { name, type, events, children } with the children nested.
+   */
+  static void writeTree(JsonGenerator generator, HttpServer.Tree tree) throws IOException {
+    generator.writeStartObject();
+    generator.writeStringField("name", tree.name);
+    generator.writeStringField("type", tree.type);
+    generator.writeNumberField("events", tree.events);
+    generator.writeArrayFieldStart("children");
+    for (var child : tree.getChildren()) {
+      writeTree(generator, child);
+    }
+    generator.writeEndArray();
+    generator.writeEndObject();
+  }
+}
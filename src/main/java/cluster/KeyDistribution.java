@@ -0,0 +1,128 @@
+package cluster;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.typesafe.config.Config;
+
+/**
+ * Picks the next key in [0, keyCount) for the load generator.
+ */
+abstract class KeyDistribution {
+  final int keyCount;
+
+  private KeyDistribution(int keyCount) {
+    if (keyCount < 1) {
+      throw new IllegalArgumentException(String.format("Key count must be >= 1, was %d", keyCount));
+    }
+    this.keyCount = keyCount;
+  }
+
+  abstract int nextKey();
+
+  static KeyDistribution create(Config config) {
+    final var keyCount = config.getInt("key-count");
+    final var distribution = config.getString("key-distribution");
+    switch (distribution) {
+    case "uniform":
+      return new Uniform(keyCount);
+    case "zipfian":
+      return new Zipfian(keyCount, config.getDouble("zipfian-exponent"));
+    case "hotspot":
+      return new Hotspot(keyCount, config.getDouble("hotspot-key-fraction"), config.getDouble("hotspot-traffic-fraction"));
+    default:
+      throw new IllegalArgumentException(String.format("Unknown key distribution '%s', use uniform, zipfian or hotspot.", distribution));
+    }
+  }
+
+  static class Uniform extends KeyDistribution {
+    Uniform(int keyCount) {
+      super(keyCount);
+    }
+
+    @Override
+    int nextKey() {
+      return ThreadLocalRandom.current().nextInt(keyCount);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s[%,d]", getClass().getSimpleName(), keyCount);
+    }
+  }
+
+  /**
+   * Zipfian distribution where key 0 is the most popular, using the rejection free method from Gray et al.
+   * "Quickly Generating Billion-Record Synthetic Databases" as popularised by YCSB.
+   */
+  static class Zipfian extends KeyDistribution {
+    private final double theta;
+    private final double alpha;
+    private final double zetaN;
+    private final double eta;
+
+    Zipfian(int keyCount, double theta) {
+      super(keyCount);
+      if (theta <= 0 || theta >= 1) {
+        throw new IllegalArgumentException(String.format("Zipfian exponent must be > 0 and < 1, was %f", theta));
+      }
+      this.theta = theta;
+      alpha = 1.0 / (1.0 - theta);
+      zetaN = zeta(keyCount, theta);
+      eta = (1 - Math.pow(2.0 / keyCount, 1 - theta)) / (1 - zeta(2, theta) / zetaN);
+    }
+
+    @Override
+    int nextKey() {
+      final var u = ThreadLocalRandom.current().nextDouble();
+      final var uz = u * zetaN;
+      if (uz < 1.0) {
+        return 0;
+      }
+      if (uz < 1.0 + Math.pow(0.5, theta)) {
+        return Math.min(1, keyCount - 1);
+      }
+      return (int) Math.min(keyCount - 1, (long) (keyCount * Math.pow(eta * u - eta + 1, alpha)));
+    }
+
+    private static double zeta(int n, double theta) {
+      double sum = 0;
+      for (int i = 1; i <= n; i++) {
+        sum += 1 / Math.pow(i, theta);
+      }
+      return sum;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s[%,d, %.2f]", getClass().getSimpleName(), keyCount, theta);
+    }
+  }
+
+  /**
+   * A fraction of the keys receives a fraction of the traffic, uniformly within the hot and the cold set.
+   */
+  static class Hotspot extends KeyDistribution {
+    private final int hotKeys;
+    private final double hotTraffic;
+
+    Hotspot(int keyCount, double hotKeyFraction, double hotTraffic) {
+      super(keyCount);
+      this.hotKeys = Math.max(1, Math.min(keyCount, (int) (keyCount * hotKeyFraction)));
+      this.hotTraffic = hotTraffic;
+    }
+
+    @Override
+    int nextKey() {
+      final var random = ThreadLocalRandom.current();
+      if (hotKeys == keyCount || random.nextDouble() < hotTraffic) {
+        return random.nextInt(hotKeys);
+      }
+      return hotKeys + random.nextInt(keyCount - hotKeys);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s[%,d, hot %,d, %.2f]", getClass().getSimpleName(), keyCount, hotKeys, hotTraffic);
+    }
+  }
+}
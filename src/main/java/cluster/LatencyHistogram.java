@@ -0,0 +1,71 @@
+package cluster;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Request/response latency in microseconds, recorded into an HdrHistogram and shipped between nodes in its compressed
+ * encoding.
+ */
+class LatencyHistogram {
+  private static final long highestTrackableMicros = TimeUnit.MINUTES.toMicros(1);
+  private static final int significantDigits = 3;
+
+  final Histogram histogram;
+
+  LatencyHistogram() {
+    this(new Histogram(highestTrackableMicros, significantDigits));
+  }
+
+  private LatencyHistogram(Histogram histogram) {
+    this.histogram = histogram;
+  }
+
+  void recordNanos(long nanos) {
+    histogram.recordValue(Math.min(highestTrackableMicros, Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos))));
+  }
+
+  void add(LatencyHistogram other) {
+    histogram.add(other.histogram);
+  }
+
+  void reset() {
+    histogram.reset();
+  }
+
+  long count() {
+    return histogram.getTotalCount();
+  }
+
+  long percentileMicros(double percentile) {
+    return histogram.getValueAtPercentile(percentile);
+  }
+
+  LatencyHistogram copy() {
+    return new LatencyHistogram(histogram.copy());
+  }
+
+  byte[] encode() {
+    final var buffer = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+    final var length = histogram.encodeIntoCompressedByteBuffer(buffer);
+    return Arrays.copyOf(buffer.array(), length);
+  }
+
+  static LatencyHistogram decode(byte[] encoded) {
+    try {
+      return new LatencyHistogram(Histogram.decodeFromCompressedByteBuffer(ByteBuffer.wrap(encoded), 0));
+    } catch (DataFormatException e) {
+      throw new IllegalArgumentException("Invalid encoded latency histogram", e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s[count %,d, p50 %,dus, p99 %,dus, p999 %,dus, max %,dus]", getClass().getSimpleName(),
+        count(), percentileMicros(50), percentileMicros(99), percentileMicros(99.9), histogram.getMaxValue());
+  }
+}
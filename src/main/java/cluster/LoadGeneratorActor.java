@@ -0,0 +1,294 @@
+package cluster;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+import org.slf4j.Logger;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.RecipientRef;
+import akka.actor.typed.javadsl.AbstractBehavior;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.javadsl.Receive;
+import akka.actor.typed.javadsl.TimerScheduler;
+import akka.actor.typed.receptionist.Receptionist;
+import akka.actor.typed.receptionist.ServiceKey;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+
+/**
+ * Drives bank entities with a configurable workload and measures request/response latency with ask.
+ * <p>
+ * In the open model requests are started at a fixed rate regardless of responses, bounded by max-in-flight. In the
+ * closed model a fixed number of requests are kept in flight and each response starts the next request. Keys are drawn
+ * from a uniform, zipfian or hotspot distribution and each request is a ChangeValue or a GetValue according to the
+ * write fraction.
+ * <p>
+ * Latencies are recorded into HdrHistograms. Every report interval each node logs its own percentiles and sends the
+ * interval histograms to the load generators on all nodes, which log the merged cluster wide percentiles. The node's
+ * own histograms are also sent to its HTTP server for the /latency route.
+ */
+class LoadGeneratorActor extends AbstractBehavior<LoadGeneratorActor.Message> {
+  private final ClusterSharding clusterSharding;
+  private final ActorRef<HttpServer.Statistics> httpServerActorRef;
+  private final ActorRef<BankReadModelActor.Message> readModel;
+  private final ActorRef<BankEntityActor.Command> batcher;
+  private final String memberId;
+  private final boolean openModel;
+  private final double ratePerSecond;
+  private final int concurrency;
+  private final int maxInFlight;
+  private final double writeFraction;
+  private final Duration tickInterval;
+  private final Duration askTimeout;
+  private final KeyDistribution keyDistribution;
+  private final LatencyHistogram writeLatency = new LatencyHistogram();
+  private final LatencyHistogram readLatency = new LatencyHistogram();
+  private final Map<String, NodeReport> nodeReports = new HashMap<>();
+  private Set<ActorRef<Message>> serviceInstances = Set.of();
+  private int inFlight;
+  private double requestCredits;
+  private long lastTickNanos = System.nanoTime();
+  private long errors;
+  private long writeErrors;
+  private long skipped;
+  private static final ServiceKey<Message> serviceKey = ServiceKey.create(Message.class, LoadGeneratorActor.class.getSimpleName());
+
+  /**
+   * @param readModel answers the GetValue requests instead of the entities, null to send them to the entities
+   * @param batcher sends the requests to the entities in batches, null to send them one by one
+   */
+  static Behavior<Message> create(ActorRef<HttpServer.Statistics> httpServerActorRef, ActorRef<BankReadModelActor.Message> readModel,
+      ActorRef<BankEntityActor.Command> batcher) {
+    return Behaviors.setup(actorContext ->
+        Behaviors.withTimers(timer -> new LoadGeneratorActor(actorContext, timer, httpServerActorRef, readModel, batcher)));
+  }
+
+  private LoadGeneratorActor(ActorContext<Message> actorContext, TimerScheduler<Message> timerScheduler,
+      ActorRef<HttpServer.Statistics> httpServerActorRef, ActorRef<BankReadModelActor.Message> readModel,
+      ActorRef<BankEntityActor.Command> batcher) {
+    super(actorContext);
+    this.httpServerActorRef = httpServerActorRef;
+    this.readModel = readModel;
+    this.batcher = batcher;
+    clusterSharding = ClusterSharding.get(actorContext.getSystem());
+    memberId = actorContext.getSystem().address().toString();
+
+    final var config = actorContext.getSystem().settings().config().getConfig("load-generator");
+    final var model = config.getString("model");
+    if (!model.equals("open") && !model.equals("closed")) {
+      throw new IllegalArgumentException(String.format("Unknown load generator model '%s', use open or closed.", model));
+    }
+    openModel = model.equals("open");
+    ratePerSecond = config.getDouble("rate-per-second");
+    concurrency = config.getInt("concurrency");
+    maxInFlight = config.getInt("max-in-flight");
+    writeFraction = config.getDouble("write-fraction");
+    tickInterval = Duration.parse(config.getString("tick-interval-iso-8601"));
+    askTimeout = Duration.parse(config.getString("ask-timeout-iso-8601"));
+    keyDistribution = KeyDistribution.create(config);
+
+    receptionistRegisterSubscribe(actorContext);
+    timerScheduler.startTimerAtFixedRate(Tick.INSTANCE, tickInterval);
+    timerScheduler.startTimerAtFixedRate(ReportTick.INSTANCE, Duration.parse(config.getString("report-interval-iso-8601")));
+    log().info("Load generator {} model, {}/s, concurrency {}, writes {}, {}", model, ratePerSecond, concurrency, writeFraction, keyDistribution);
+  }
+
+  @Override
+  public Receive<Message> createReceive() {
+    return newReceiveBuilder()
+        .onMessage(Listeners.class, this::onListeners)
+        .onMessage(Tick.class, notUsed -> onTick())
+        .onMessage(Response.class, this::onResponse)
+        .onMessage(ReportTick.class, notUsed -> onReportTick())
+        .onMessage(NodeReport.class, this::onNodeReport)
+        .build();
+  }
+
+  private void receptionistRegisterSubscribe(ActorContext<Message> actorContext) {
+    final var listingActorRef = actorContext.messageAdapter(Receptionist.Listing.class, Listeners::new);
+
+    actorContext.getSystem().receptionist().tell(Receptionist.register(serviceKey, actorContext.getSelf()));
+    actorContext.getSystem().receptionist().tell(Receptionist.subscribe(serviceKey, listingActorRef));
+  }
+
+  private Behavior<Message> onListeners(Listeners listeners) {
+    serviceInstances = listeners.listing.getServiceInstances(serviceKey);
+    nodeReports.keySet().retainAll(serviceInstances.stream().map(this::memberOf).collect(Collectors.toSet()));
+    return Behaviors.same();
+  }
+
+  private Behavior<Message> onTick() {
+    final var now = System.nanoTime();
+    if (openModel) {
+      requestCredits += ratePerSecond * (now - lastTickNanos) / 1e9;
+      while (requestCredits >= 1) {
+        requestCredits -= 1;
+        if (inFlight < maxInFlight) {
+          sendRequest();
+        } else {
+          ++skipped;
+        }
+      }
+    } else {
+      while (inFlight < concurrency) {
+        sendRequest();
+      }
+    }
+    lastTickNanos = now;
+    return Behaviors.same();
+  }
+
+  private void sendRequest() {
+    final var entityId = entityId(keyDistribution.nextKey());
+    final var id = new BankEntityActor.Id(entityId);
+    final var random = ThreadLocalRandom.current();
+    final var write = random.nextDouble() < writeFraction;
+    // deposits and withdrawals of 1 to 100 minor units, a rejected withdrawal still counts as a served request
+    final var amount = random.nextBoolean() ? random.nextInt(1, 101) : -random.nextInt(1, 101);
+    final var start = System.nanoTime();
+
+    ++inFlight;
+    if (!write && readModel != null) {
+      getContext().ask(BankEntityActor.Command.class, readModel, askTimeout,
+          replyTo -> new BankReadModelActor.GetBalance(id, null, replyTo),
+          (reply, failure) ->
+              new Response(false, start, failure == null && !(reply instanceof BankReadModelActor.GetBalanceFailed)));
+      return;
+    }
+    final RecipientRef<BankEntityActor.Command> entityRef = batcher != null
+        ? batcher
+        : clusterSharding.entityRefFor(BankEntityActor.entityTypeKey, entityId);
+    getContext().ask(BankEntityActor.Command.class, entityRef, askTimeout,
+        replyTo -> write
+            ? new BankEntityActor.ChangeValue(id, new BankEntityActor.Value(System.currentTimeMillis()), amount, null, replyTo)
+            : new BankEntityActor.GetValue(id, replyTo),
+        (reply, failure) ->
+            new Response(write, start, failure == null && !(reply instanceof BankEntityBatcher.BatchFailed)));
+  }
+
+  private Behavior<Message> onResponse(Response response) {
+    --inFlight;
+    if (response.success) {
+      (response.write ? writeLatency : readLatency).recordNanos(System.nanoTime() - response.start);
+    } else {
+      ++errors;
+      writeErrors += response.write ? 1 : 0;
+    }
+    if (!openModel && inFlight < concurrency) {
+      sendRequest();
+    }
+    return Behaviors.same();
+  }
+
+  private Behavior<Message> onReportTick() {
+    log().info("Load generator node {} writes {} reads {} in flight {} errors {} skipped {}",
+        memberId, writeLatency, readLatency, inFlight, errors, skipped);
+    final var nodeReport = new NodeReport(memberId, writeLatency.encode(), readLatency.encode(), errors, skipped);
+    serviceInstances.forEach(loadGenerator -> loadGenerator.tell(nodeReport));
+    httpServerActorRef.tell(new HttpServer.LatencyStatistics("load-generator ChangeValue", nodeReport.writeLatency, writeErrors));
+    httpServerActorRef.tell(new HttpServer.LatencyStatistics("load-generator GetValue", nodeReport.readLatency, errors - writeErrors));
+
+    writeLatency.reset();
+    readLatency.reset();
+    errors = 0;
+    writeErrors = 0;
+    skipped = 0;
+    return Behaviors.same();
+  }
+
+  private Behavior<Message> onNodeReport(NodeReport nodeReport) {
+    nodeReports.put(nodeReport.memberId, nodeReport);
+    if (nodeReport.memberId.equals(memberId)) {
+      logClusterReport();
+    }
+    return Behaviors.same();
+  }
+
+  private void logClusterReport() {
+    final var writes = new LatencyHistogram();
+    final var reads = new LatencyHistogram();
+    long clusterErrors = 0;
+    long clusterSkipped = 0;
+    for (var nodeReport : nodeReports.values()) {
+      writes.add(LatencyHistogram.decode(nodeReport.writeLatency));
+      reads.add(LatencyHistogram.decode(nodeReport.readLatency));
+      clusterErrors += nodeReport.errors;
+      clusterSkipped += nodeReport.skipped;
+    }
+    log().info("Load generator cluster ({} nodes) writes {} reads {} errors {} skipped {}",
+        nodeReports.size(), writes, reads, clusterErrors, clusterSkipped);
+  }
+
+  private String memberOf(ActorRef<Message> loadGenerator) {
+    return loadGenerator.path().address().hasGlobalScope() ? loadGenerator.path().address().toString() : memberId;
+  }
+
+  static String entityId(int key) {
+    return String.format("key-%d", key);
+  }
+
+  private Logger log() {
+    return getContext().getLog();
+  }
+
+  interface Message {
+  }
+
+  private static class Listeners implements Message {
+    final Receptionist.Listing listing;
+
+    private Listeners(Receptionist.Listing listing) {
+      this.listing = listing;
+    }
+  }
+
+  enum Tick implements Message {
+    INSTANCE
+  }
+
+  enum ReportTick implements Message {
+    INSTANCE
+  }
+
+  private static class Response implements Message {
+    final boolean write;
+    final long start;
+    final boolean success;
+
+    Response(boolean write, long start, boolean success) {
+      this.write = write;
+      this.start = start;
+      this.success = success;
+    }
+  }
+
+  public static class NodeReport implements Message, CborSerializable {
+    public final String memberId;
+    public final byte[] writeLatency;
+    public final byte[] readLatency;
+    public final long errors;
+    public final long skipped;
+
+    @JsonCreator
+    public NodeReport(String memberId, byte[] writeLatency, byte[] readLatency, long errors, long skipped) {
+      this.memberId = memberId;
+      this.writeLatency = writeLatency;
+      this.readLatency = readLatency;
+      this.errors = errors;
+      this.skipped = skipped;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s[%s, %,d errors]", getClass().getSimpleName(), memberId, errors);
+    }
+  }
+}
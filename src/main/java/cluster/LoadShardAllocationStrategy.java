@@ -0,0 +1,181 @@
+package cluster;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import com.typesafe.config.Config;
+
+import akka.actor.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.cluster.MemberStatus;
+import akka.cluster.sharding.ShardCoordinator;
+import akka.dispatch.Futures;
+import akka.cluster.typed.Cluster;
+import scala.collection.immutable.IndexedSeq;
+import scala.concurrent.Future;
+import scala.jdk.javaapi.CollectionConverters;
+
+/**
+ * Allocates and rebalances the bank entity shards by their observed message rates instead of by their count.
+ * <p>
+ * A new shard goes to the shard region with the least load, then the fewest shards. Each rebalance moves the busiest
+ * shard that narrows the gap between the most and the least loaded region, as long as the gap is more than the
+ * rebalance threshold times the mean region load. A shard that moved is not moved again within the cooldown and no
+ * more than max-simultaneous-rebalance shards are in flight, so a shifting workload does not make shards bounce
+ * between nodes. While the whole cluster sees less than min-total-rate messages per second the load says little and
+ * every shard weighs 1, which balances the shard counts like the least shard strategy.
+ * <p>
+ * Runs in the shard coordinator, and the rates come from the {@link ShardLoad} of the coordinator's node. Regions on
+ * members that are not up are left out, so shards are not moved to a node that is leaving.
+ */
+class LoadShardAllocationStrategy extends ShardCoordinator.AbstractShardAllocationStrategy {
+  private final ShardLoad shardLoad;
+  private final Predicate<ActorRef> regionAvailable;
+  private final double rebalanceThreshold;
+  private final int maxSimultaneousRebalance;
+  private final double minTotalRate;
+  private final long cooldownNanos;
+  private final Map<String, Long> movedNanos = new HashMap<>();
+
+  static LoadShardAllocationStrategy create(ActorSystem<?> actorSystem, ShardLoad shardLoad) {
+    final var cluster = Cluster.get(actorSystem);
+    return new LoadShardAllocationStrategy(shardLoad, actorSystem.settings().config().getConfig("bank-entity.shard-allocation"),
+        region -> regionUp(cluster, region));
+  }
+
+  LoadShardAllocationStrategy(ShardLoad shardLoad, Config config, Predicate<ActorRef> regionAvailable) {
+    this.shardLoad = shardLoad;
+    this.regionAvailable = regionAvailable;
+    rebalanceThreshold = config.getDouble("rebalance-threshold");
+    maxSimultaneousRebalance = config.getInt("max-simultaneous-rebalance");
+    minTotalRate = config.getDouble("min-total-rate");
+    cooldownNanos = Duration.parse(config.getString("cooldown-iso-8601")).toNanos();
+  }
+
+  @Override
+  public Future<ActorRef> allocateShard(ActorRef requester, String shardId,
+      Map<ActorRef, IndexedSeq<String>> currentShardAllocations) {
+    final var region = allocate(available(currentShardAllocations), System.nanoTime());
+    return Futures.successful(region == null ? requester : region);
+  }
+
+  @Override
+  public Future<Set<String>> rebalance(Map<ActorRef, IndexedSeq<String>> currentShardAllocations,
+      Set<String> rebalanceInProgress) {
+    return Futures.successful(rebalance(available(currentShardAllocations), rebalanceInProgress, System.nanoTime()));
+  }
+
+  /**
+   * @return the least loaded region, or null when there is none
+   */
+  <R> R allocate(Map<R, ? extends Collection<String>> allocations, long nanos) {
+    final var weights = weights(allocations, nanos);
+    R least = null;
+    double leastLoad = 0;
+    for (var allocation : allocations.entrySet()) {
+      final var load = load(allocation.getValue(), weights);
+      if (least == null || load < leastLoad
+          || load == leastLoad && allocation.getValue().size() < allocations.get(least).size()) {
+        least = allocation.getKey();
+        leastLoad = load;
+      }
+    }
+    return least;
+  }
+
+  /**
+   * @return the shards to move, each from the most to the least loaded region at the time it was picked
+   */
+  <R> Set<String> rebalance(Map<R, ? extends Collection<String>> allocations, Set<String> rebalanceInProgress, long nanos) {
+    movedNanos.values().removeIf(moved -> nanos - moved >= cooldownNanos);
+    var moves = maxSimultaneousRebalance - rebalanceInProgress.size();
+    if (moves <= 0 || allocations.size() < 2) {
+      return Collections.emptySet();
+    }
+    final var weights = weights(allocations, nanos);
+    final Map<R, List<String>> shards = new LinkedHashMap<>();
+    final Map<R, Double> loads = new HashMap<>();
+    allocations.forEach((region, regionShards) -> {
+      shards.put(region, new ArrayList<>(regionShards));
+      loads.put(region, load(regionShards, weights));
+    });
+    final var mean = loads.values().stream().mapToDouble(Double::doubleValue).sum() / loads.size();
+
+    final Set<String> rebalance = new LinkedHashSet<>();
+    while (moves-- > 0) {
+      final var most = shards.keySet().stream().max((r1, r2) -> Double.compare(loads.get(r1), loads.get(r2))).get();
+      final var least = shards.keySet().stream().min((r1, r2) -> Double.compare(loads.get(r1), loads.get(r2))).get();
+      final var gap = loads.get(most) - loads.get(least);
+      if (gap <= rebalanceThreshold * mean) {
+        break;
+      }
+      // moving a shard lighter than the gap leaves both regions between the old extremes
+      String move = null;
+      for (var shard : shards.get(most)) {
+        final var weight = weights.get(shard);
+        if (weight > 0 && weight < gap && !rebalanceInProgress.contains(shard) && !movedNanos.containsKey(shard)
+            && (move == null || weight > weights.get(move))) {
+          move = shard;
+        }
+      }
+      if (move == null) {
+        break;
+      }
+      final var weight = weights.get(move);
+      shards.get(most).remove(move);
+      shards.get(least).add(move);
+      loads.put(most, loads.get(most) - weight);
+      loads.put(least, loads.get(least) + weight);
+      movedNanos.put(move, nanos);
+      rebalance.add(move);
+    }
+    return rebalance;
+  }
+
+  private Map<String, Double> weights(Map<?, ? extends Collection<String>> allocations, long nanos) {
+    final var byRate = shardLoad.totalRate(nanos) >= minTotalRate;
+    final Map<String, Double> weights = new HashMap<>();
+    allocations.values().forEach(regionShards -> regionShards.forEach(shard ->
+        weights.put(shard, byRate ? shardLoad.rate(shard, nanos) : 1.0)));
+    return weights;
+  }
+
+  private static double load(Collection<String> regionShards, Map<String, Double> weights) {
+    return regionShards.stream().mapToDouble(weights::get).sum();
+  }
+
+  private Map<ActorRef, List<String>> available(Map<ActorRef, IndexedSeq<String>> currentShardAllocations) {
+    final Map<ActorRef, List<String>> available = new LinkedHashMap<>();
+    currentShardAllocations.forEach((region, regionShards) -> {
+      if (regionAvailable.test(region)) {
+        available.put(region, CollectionConverters.asJava(regionShards));
+      }
+    });
+    return available;
+  }
+
+  private static boolean regionUp(Cluster cluster, ActorRef region) {
+    final var address = region.path().address().hasGlobalScope() ? region.path().address() : cluster.selfMember().address();
+    for (var member : cluster.state().getMembers()) {
+      if (member.address().equals(address)) {
+        return member.status().equals(MemberStatus.up());
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s[%s, threshold %.2f, max %d]", getClass().getSimpleName(), shardLoad, rebalanceThreshold,
+        maxSimultaneousRebalance);
+  }
+}
@@ -1,5 +1,6 @@
 package cluster;
 
+import java.time.Duration;
 import java.util.Arrays;
 
 import com.typesafe.config.Config;
@@ -11,6 +12,7 @@ import akka.actor.typed.Behavior;
 import akka.actor.typed.Terminated;
 import akka.actor.typed.javadsl.ActorContext;
 import akka.actor.typed.javadsl.Behaviors;
+import akka.cluster.sharding.typed.ClusterShardingSettings;
 import akka.cluster.sharding.typed.javadsl.ClusterSharding;
 import akka.cluster.sharding.typed.javadsl.Entity;
 import akka.management.javadsl.AkkaManagement;
@@ -29,52 +31,93 @@ class Main {
   private static void bootstrap(final ActorContext<Void> context) {
     context.spawn(ClusterListenerActor.create(), "clusterListener");
     // Comment Flag: An Actor Reference is like url that allows the cluster to communicate with the actor
-    final var httpServerActorRef = context.spawn(HttpServerActor.create(), HttpServerActor.class.getSimpleName());
+    final var shardLoad = new ShardLoad(Duration.parse(
+        context.getSystem().settings().config().getString("bank-entity.shard-allocation.rate-half-life-iso-8601")));
+    final var activeEntities = ActiveEntities.create(context.getSystem().settings().config());
+    final var readModel = context.getSystem().settings().config().getBoolean("bank-entity.read-model.enabled")
+        ? context.spawn(BankReadModelActor.create(), BankReadModelActor.class.getSimpleName())
+        : null;
+    final var httpServerActorRef = context.spawn(HttpServerActor.create(shardLoad, activeEntities, readModel),
+        HttpServerActor.class.getSimpleName());
 
+    context.spawn(AccountExportActor.create(activeEntities), AccountExportActor.class.getSimpleName());
     context.spawn(ClusterAwareActor.create(httpServerActorRef), ClusterAwareActor.class.getSimpleName());
     context.spawn(ClusterSingletonAwareActor.create(httpServerActorRef), ClusterSingletonAwareActor.class.getSimpleName());
-    context.spawn(BankEntityCommandActor.create(), BankEntityCommandActor.class.getSimpleName());
-    context.spawn(BankEntityQueryActor.create(), BankEntityQueryActor.class.getSimpleName());
 
-    startClusterSharding(context.getSystem(), httpServerActorRef);
+    startClusterSharding(context.getSystem(), httpServerActorRef, shardLoad, activeEntities, readModel);
+
+    if (context.getSystem().settings().config().getBoolean("load-generator.enabled")) {
+      final var batcher = context.getSystem().settings().config().getBoolean("bank-entity.batcher.enabled")
+          ? context.spawn(BankEntityBatcher.create(), BankEntityBatcher.class.getSimpleName())
+          : null;
+      context.spawn(LoadGeneratorActor.create(httpServerActorRef, readModel, batcher), LoadGeneratorActor.class.getSimpleName());
+    } else {
+      context.spawn(BankEntityCommandActor.create(httpServerActorRef), BankEntityCommandActor.class.getSimpleName());
+      context.spawn(BankEntityQueryActor.create(httpServerActorRef, readModel), BankEntityQueryActor.class.getSimpleName());
+    }
   }
 
   public static void main(String[] args) {
     if (args.length == 0) {
       throw new RuntimeException("Akka node port is required.");
     }
-    final var port = Arrays.asList(args).get(0);
+    final var port = Integer.parseInt(Arrays.asList(args).get(0));
     final var actorSystem = ActorSystem.create(Main.create(), "cluster", setupClusterNodeConfig(port));
     AkkaManagement.get(actorSystem).start();
   }
 
-  private static Config setupClusterNodeConfig(String port) {
+  static Config setupClusterNodeConfig(int port) {
     final var config = ConfigFactory.load();
     final var useLocalhost2 = config.getBoolean("useLocalhost2");
+    final var managementPort = port + config.getInt("cluster-node.management-port-offset");
 
     final var localhost1 = "127.0.0.1";
     final var localhost2 = "127.0.0.2";
-    final var hostname = useLocalhost2 && port.compareTo("2555") > 0 ? localhost2 : localhost1;
+    final var hostname = useLocalhost2 && port > config.getInt("cluster-node.localhost2-after-port") ? localhost2 : localhost1;
     /* Comment Flag: Opens TCP port */
     return ConfigFactory
         .parseString(String.format("akka.remote.artery.canonical.hostname = \"%s\"%n", hostname)
-            + String.format("akka.remote.artery.canonical.port=%s%n", port)
+            + String.format("akka.remote.artery.canonical.port=%d%n", port)
             + String.format("akka.management.http.hostname = \"%s\"%n", "127.0.0.1")
-            + String.format("akka.management.http.port=%s%n", port.replace("255", "855"))
+            + String.format("akka.management.http.port=%d%n", managementPort)
             + String.format("akka.management.http.route-providers-read-only = %s%n", "false")
             + String.format("akka.remote.artery.advanced.tcp.outbound-client-hostname = %s%n", hostname))
         .withFallback(config);
   }
 
-  private static void startClusterSharding(final ActorSystem<?> actorSystem, ActorRef<HttpServer.Statistics> httpServerActorRef) {
+  private static void startClusterSharding(final ActorSystem<?> actorSystem, ActorRef<HttpServer.Statistics> httpServerActorRef,
+      ShardLoad shardLoad, ActiveEntities activeEntities, ActorRef<BankReadModelActor.Message> readModel) {
     final var clusterSharding = ClusterSharding.get(actorSystem);
+    final var config = actorSystem.settings().config();
+    final EntityShardExtractor<BankEntityActor.Command> bankEntityShards = EntityShardExtractor.create(config);
+    final var bankEntity = Entity.of(
+        BankEntityActor.entityTypeKey,
+        entityContext ->
+          BankEntityActor.create(entityContext.getEntityId(), bankEntityShards.shardId(entityContext.getEntityId()),
+            httpServerActorRef, activeEntities, readModel)
+      )
+      .withMessageExtractor(bankEntityShards)
+      .withSettings(bankEntityShardingSettings(config))
+      .withStopMessage(BankEntityActor.Passivate.INSTANCE);
+    clusterSharding.init(
+      config.getString("bank-entity.shard-allocation.strategy").equals("load")
+        ? bankEntity.withAllocationStrategy(LoadShardAllocationStrategy.create(actorSystem, shardLoad))
+        : bankEntity
+    );
     clusterSharding.init(
       Entity.of(
-        BankEntityActor.entityTypeKey,
+        TransferActor.entityTypeKey,
         entityContext ->
-          BankEntityActor.create(entityContext.getEntityId(), httpServerActorRef)
+          TransferActor.create(entityContext.getEntityId(), entityContext.getShard())
       )
-      .withStopMessage(BankEntityActor.Passivate.INSTANCE)
+      .withMessageExtractor(EntityShardExtractor.<TransferActor.Command>create(config))
+      .withStopMessage(TransferActor.Passivate.INSTANCE)
     );
   }
+
+  // bank-entity.sharding overrides akka.cluster.sharding for the bank entities only, such as remember-entities
+  static ClusterShardingSettings bankEntityShardingSettings(Config config) {
+    return ClusterShardingSettings.fromConfig(
+        config.getConfig("bank-entity.sharding").withFallback(config.getConfig("akka.cluster.sharding")));
+  }
 }
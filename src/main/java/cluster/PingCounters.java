@@ -0,0 +1,195 @@
+package cluster;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+/**
+ * Ping counters per node port with a sliding window ping rate.
+ * <p>
+ * Ports are assigned a slot on first use and counted in parallel primitive arrays, so a ping does not allocate or box.
+ * Slots are never reassigned, which keeps them stable for the delta encoding, and a node that leaves and rejoins on the
+ * same port reuses its slot. There is no fixed port range; the arrays grow as nodes join.
+ * <p>
+ * The rate is the number of pings in the last completed one second buckets of a ring, so it follows the current load
+ * instead of averaging over the life of the actor.
+ */
+class PingCounters {
+  private static final long nanosPerSecond = 1_000_000_000L;
+  private static final int rateBuckets = 10;
+  private static final int fullEvery = 100;
+
+  private int[] ports = new int[16];
+  private long[] counts = new long[16];
+  private int size;
+  private long total;
+  private final long[] buckets = new long[rateBuckets];
+  private final long startSecond = System.nanoTime() / nanosPerSecond;
+  private long currentSecond = startSecond;
+
+  void ping(int port) {
+    final var slot = slot(port);
+    ++total;
+    ++counts[slot];
+    roll(System.nanoTime());
+    ++buckets[(int) (currentSecond % rateBuckets)];
+  }
+
+  long total() {
+    return total;
+  }
+
+  long count(int port) {
+    final var slot = indexOf(port);
+    return slot < 0 ? 0 : counts[slot];
+  }
+
+  /**
+   * Pings per second over the completed buckets of the window, or since start while the window is filling.
+   */
+  int ratePerSecond() {
+    roll(System.nanoTime());
+    final var seconds = Math.min(rateBuckets - 1, currentSecond - startSecond);
+    if (seconds < 1) {
+      return 0;
+    }
+    long pings = 0;
+    for (int s = 1; s <= seconds; s++) {
+      pings += buckets[(int) ((currentSecond - s) % rateBuckets)];
+    }
+    return (int) (pings / seconds);
+  }
+
+  /**
+   * Zero the counters of ports that do not match, for example nodes that have left the cluster.
+   */
+  void resetUnless(IntPredicate keep) {
+    for (int slot = 0; slot < size; slot++) {
+      if (!keep.test(ports[slot])) {
+        counts[slot] = 0;
+      }
+    }
+  }
+
+  /**
+   * Encode the counters that changed since the previous delta sent to the same recipient, or all of the counters every
+   * 100th message so a recipient that missed a message, or a new recipient, converges.
+   */
+  Delta delta(Sent sent) {
+    final var full = sent.messages++ % fullEvery == 0;
+    if (sent.counts.length < size) {
+      sent.counts = Arrays.copyOf(sent.counts, counts.length);
+    }
+    var changed = 0;
+    for (int slot = 0; slot < size; slot++) {
+      if (full || counts[slot] != sent.counts[slot]) {
+        ++changed;
+      }
+    }
+    final var deltaPorts = new int[changed];
+    final var deltaValues = new long[changed];
+    var d = 0;
+    for (int slot = 0; slot < size; slot++) {
+      if (full || counts[slot] != sent.counts[slot]) {
+        deltaPorts[d] = ports[slot];
+        deltaValues[d++] = full ? counts[slot] : counts[slot] - sent.counts[slot];
+        sent.counts[slot] = counts[slot];
+      }
+    }
+    return new Delta(full, deltaPorts, deltaValues);
+  }
+
+  /**
+   * Apply a delta received from another node's counters.
+   */
+  void apply(Delta delta) {
+    if (delta.full) {
+      Arrays.fill(counts, 0, size, 0);
+    }
+    for (int d = 0; d < delta.ports.length; d++) {
+      final var slot = slot(delta.ports[d]);
+      counts[slot] += delta.values[d];
+    }
+  }
+
+  /**
+   * Counters by port for the dashboard JSON.
+   */
+  Map<Integer, Long> toMap() {
+    final var map = new HashMap<Integer, Long>();
+    for (int slot = 0; slot < size; slot++) {
+      map.put(ports[slot], counts[slot]);
+    }
+    return map;
+  }
+
+  private int slot(int port) {
+    final var slot = indexOf(port);
+    if (slot >= 0) {
+      return slot;
+    }
+    if (size == ports.length) {
+      ports = Arrays.copyOf(ports, size * 2);
+      counts = Arrays.copyOf(counts, size * 2);
+    }
+    ports[size] = port;
+    return size++;
+  }
+
+  // a linear scan of a few dozen ints is cheaper than hashing a boxed key
+  private int indexOf(int port) {
+    for (int slot = 0; slot < size; slot++) {
+      if (ports[slot] == port) {
+        return slot;
+      }
+    }
+    return -1;
+  }
+
+  private void roll(long nowNanos) {
+    final var second = nowNanos / nanosPerSecond;
+    if (second != currentSecond) {
+      for (long s = Math.max(currentSecond + 1, second - rateBuckets + 1); s <= second; s++) {
+        buckets[(int) (s % rateBuckets)] = 0;
+      }
+      currentSecond = second;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s[%,d, %s]", getClass().getSimpleName(), total, toMap());
+  }
+
+  /**
+   * What was last sent to one recipient.
+   */
+  static class Sent {
+    private long[] counts = new long[0];
+    private long messages;
+  }
+
+  /**
+   * Counter changes by port, or all counters when full.
+   */
+  public static class Delta implements CborSerializable {
+    public final boolean full;
+    public final int[] ports;
+    public final long[] values;
+
+    @JsonCreator
+    public Delta(boolean full, int[] ports, long[] values) {
+      this.full = full;
+      this.ports = ports;
+      this.values = values;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s[%s, %d ports]", getClass().getSimpleName(), full ? "full" : "delta", ports.length);
+    }
+  }
+}
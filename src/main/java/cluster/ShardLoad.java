@@ -0,0 +1,77 @@
+package cluster;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Message rates of the bank entity shards, decayed exponentially with a half life.
+ * <p>
+ * Fed by the HTTP server actor from the entity actions that every node's HTTP server receives from all nodes, so the
+ * node running the shard coordinator sees the load of every shard in the cluster. Written by the HTTP server actor and
+ * read by the shard allocation strategy in the coordinator, hence synchronized.
+ */
+class ShardLoad {
+  private final double halfLifeNanos;
+  private final Map<String, Rate> rates = new HashMap<>();
+
+  ShardLoad(Duration halfLife) {
+    halfLifeNanos = halfLife.toNanos();
+  }
+
+  void record(String shardId, int count) {
+    record(shardId, count, System.nanoTime());
+  }
+
+  synchronized void record(String shardId, int count, long nanos) {
+    rates.computeIfAbsent(shardId, id -> new Rate(nanos)).add(count, nanos, halfLifeNanos);
+  }
+
+  double rate(String shardId) {
+    return rate(shardId, System.nanoTime());
+  }
+
+  /**
+   * @return the decayed message rate of the shard in messages per second, 0 for a shard that has not been seen
+   */
+  synchronized double rate(String shardId, long nanos) {
+    final var rate = rates.get(shardId);
+    return rate == null ? 0 : rate.perSecond(nanos, halfLifeNanos);
+  }
+
+  synchronized double totalRate(long nanos) {
+    return rates.values().stream().mapToDouble(rate -> rate.perSecond(nanos, halfLifeNanos)).sum();
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("%s[%d shards, %.1f/s]", getClass().getSimpleName(), rates.size(), totalRate(System.nanoTime()));
+  }
+
+  /**
+   * The sum of the counts recorded so far, each weighted by 2^(-age / half life). Multiplied by ln 2 / half life it is
+   * the rate of a steady stream of messages.
+   */
+  private static class Rate {
+    private double decayedCount;
+    private long lastNanos;
+
+    Rate(long nanos) {
+      lastNanos = nanos;
+    }
+
+    void add(int count, long nanos, double halfLifeNanos) {
+      decayedCount = decayed(nanos, halfLifeNanos) + count;
+      lastNanos = Math.max(lastNanos, nanos);
+    }
+
+    double perSecond(long nanos, double halfLifeNanos) {
+      return decayed(nanos, halfLifeNanos) * Math.log(2) / (halfLifeNanos / 1e9);
+    }
+
+    private double decayed(long nanos, double halfLifeNanos) {
+      final var age = nanos - lastNanos;
+      return age <= 0 ? decayedCount : decayedCount * Math.pow(2, -age / halfLifeNanos);
+    }
+  }
+}
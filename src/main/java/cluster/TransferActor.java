@@ -0,0 +1,391 @@
+package cluster;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+import org.slf4j.Logger;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.javadsl.TimerScheduler;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.cluster.sharding.typed.javadsl.EntityTypeKey;
+import akka.persistence.typed.PersistenceId;
+import akka.persistence.typed.RecoveryCompleted;
+import akka.persistence.typed.SnapshotSelectionCriteria;
+import akka.persistence.typed.javadsl.CommandHandler;
+import akka.persistence.typed.javadsl.Effect;
+import akka.persistence.typed.javadsl.EventHandler;
+import akka.persistence.typed.javadsl.EventSourcedBehavior;
+import akka.persistence.typed.javadsl.Recovery;
+import akka.persistence.typed.javadsl.SignalHandler;
+
+/**
+ * Moves an amount from one bank entity to another as a saga, one sharded and event sourced entity per transfer id.
+ * <p>
+ * The transfer first withdraws the amount from the source account, then deposits it to the target account. When the
+ * withdrawal is rejected the transfer fails without any change. When the deposit is rejected the amount is deposited
+ * back to the source account. Each step is persisted before the next one starts, so a transfer recovered after a crash
+ * or a rebalance resumes where it stopped.
+ * <p>
+ * Every step is a ChangeValue with an idempotency key derived from the transfer id and the step, so a step that timed
+ * out is retried with backoff, without the risk of applying it twice, while the account remembers the key for
+ * bank-entity.idempotency-window-iso-8601 however many other changes it gets. A step that is not answered after
+ * transfer.max-attempts attempts fails the transfer with a reason naming the step, and the attempts are configured to
+ * end within the window.
+ * <p>
+ * Transfers are spread over the shards by their id, so there is no coordinator that every transfer passes through and
+ * throughput grows with the number of shards and nodes. A finished transfer passivates itself; starting it again
+ * recovers it and answers with its outcome.
+ */
+class TransferActor extends EventSourcedBehavior<TransferActor.Command, TransferActor.Event, TransferActor.State> {
+  static final String debiting = "debiting";
+  static final String crediting = "crediting";
+  static final String refunding = "refunding";
+  static final String completed = "completed";
+  static final String failed = "failed";
+
+  private final ActorContext<Command> actorContext;
+  private final TimerScheduler<Command> timerScheduler;
+  private final ActorRef<ClusterSharding.ShardCommand> shard;
+  private final ClusterSharding clusterSharding;
+  private final String transferId;
+  private final Duration stepTimeout;
+  private final Duration minBackoff;
+  private final Duration maxBackoff;
+  private final int maxAttempts;
+  private final List<ActorRef<TransferAck>> waiting = new ArrayList<>();
+  private int attempts;
+
+  static final EntityTypeKey<Command> entityTypeKey = EntityTypeKey.create(Command.class, TransferActor.class.getSimpleName());
+
+  static Behavior<Command> create(String transferId, ActorRef<ClusterSharding.ShardCommand> shard) {
+    return Behaviors.setup(actorContext ->
+        Behaviors.withTimers(timerScheduler -> new TransferActor(actorContext, timerScheduler, transferId, shard)));
+  }
+
+  private TransferActor(ActorContext<Command> actorContext, TimerScheduler<Command> timerScheduler, String transferId,
+      ActorRef<ClusterSharding.ShardCommand> shard) {
+    super(PersistenceId.of(entityTypeKey.name(), transferId));
+    this.actorContext = actorContext;
+    this.timerScheduler = timerScheduler;
+    this.transferId = transferId;
+    this.shard = shard;
+    clusterSharding = ClusterSharding.get(actorContext.getSystem());
+    final var config = actorContext.getSystem().settings().config().getConfig("transfer");
+    stepTimeout = Duration.parse(config.getString("step-timeout-iso-8601"));
+    minBackoff = Duration.parse(config.getString("min-backoff-iso-8601"));
+    maxBackoff = Duration.parse(config.getString("max-backoff-iso-8601"));
+    maxAttempts = config.getInt("max-attempts");
+    final var idempotencyWindow = Duration.parse(
+        actorContext.getSystem().settings().config().getString("bank-entity.idempotency-window-iso-8601"));
+    if (stepTimeout.plus(maxBackoff).multipliedBy(maxAttempts).compareTo(idempotencyWindow) > 0) {
+      log().warn("Transfer retries may last longer than the idempotency window {}, a late retry may be applied twice",
+          idempotencyWindow);
+    }
+  }
+
+  @Override
+  public State emptyState() {
+    return State.empty();
+  }
+
+  @Override
+  public CommandHandler<Command, Event, State> commandHandler() {
+    return newCommandHandlerBuilder()
+        .forAnyState()
+        .onCommand(StartTransfer.class, this::onStartTransfer)
+        .onCommand(GetTransfer.class, (state, getTransfer) -> onGetTransfer(state, getTransfer))
+        .onCommand(StepResult.class, this::onStepResult)
+        .onCommand(RetryStep.class, this::onRetryStep)
+        .onCommand(Passivate.class, (state, passivate) -> Effect().stop())
+        .build();
+  }
+
+  @Override
+  public EventHandler<State, Event> eventHandler() {
+    return newEventHandlerBuilder()
+        .forAnyState()
+        .onEvent(TransferStarted.class, (state, event) -> new State(event.from, event.to, event.amount, debiting, null))
+        .onEvent(TransferStepped.class, (state, event) -> state.step(event.status, event.reason))
+        .build();
+  }
+
+  /**
+   * A transfer has a handful of events and never takes snapshots, so recovery does not ask the snapshot store.
+   */
+  @Override
+  public Recovery recovery() {
+    return Recovery.withSnapshotSelectionCriteria(SnapshotSelectionCriteria.none());
+  }
+
+  @Override
+  public SignalHandler<State> signalHandler() {
+    return newSignalHandlerBuilder()
+        .onSignal(RecoveryCompleted.instance(), state -> {
+          if (state.started() && !state.finished()) {
+            log().info("Resume transfer {} {}", transferId, state);
+            runStep(state);
+          }
+        })
+        .build();
+  }
+
+  private Effect<Event, State> onStartTransfer(State state, StartTransfer startTransfer) {
+    if (!state.started()) {
+      if (startTransfer.amount <= 0 || startTransfer.from == null || startTransfer.to == null
+          || startTransfer.from.id.equals(startTransfer.to.id)) {
+        startTransfer.replyTo.tell(new TransferAck(transferId, failed, "invalid transfer"));
+        return Effect().none();
+      }
+      return Effect().persist(new TransferStarted(startTransfer.from, startTransfer.to, startTransfer.amount))
+          .thenRun(newState -> {
+            waiting.add(startTransfer.replyTo);
+            runStep(newState);
+          });
+    }
+    if (!state.sameTransfer(startTransfer)) {
+      startTransfer.replyTo.tell(new TransferAck(transferId, failed, "transfer id already used"));
+    } else if (state.finished()) {
+      startTransfer.replyTo.tell(new TransferAck(transferId, state.status, state.reason));
+    } else {
+      waiting.add(startTransfer.replyTo);
+    }
+    return Effect().none();
+  }
+
+  private Effect<Event, State> onGetTransfer(State state, GetTransfer getTransfer) {
+    getTransfer.replyTo.tell(new TransferAck(transferId, state.started() ? state.status : "unknown", state.reason));
+    return Effect().none();
+  }
+
+  private Effect<Event, State> onStepResult(State state, StepResult stepResult) {
+    if (!stepResult.step.equals(state.status)) {
+      return Effect().none();
+    }
+    if (stepResult.reply instanceof BankEntityActor.ChangeValueAck) {
+      return step(state.status.equals(crediting) ? completed : state.status.equals(debiting) ? crediting : failed, state.reason);
+    } else if (stepResult.reply instanceof BankEntityActor.ChangeValueRejected) {
+      final var reason = ((BankEntityActor.ChangeValueRejected) stepResult.reply).reason;
+      if (state.status.equals(debiting)) {
+        return step(failed, reason);
+      } else if (state.status.equals(crediting)) {
+        return step(refunding, reason);
+      }
+      log().error("Transfer {} refund to {} of {} rejected, {}", transferId, state.from, state.amount, reason);
+      return step(failed, String.format("refund rejected, %s", reason));
+    }
+    if (attempts + 1 >= maxAttempts) {
+      log().error("Transfer {} {} not answered after {} attempts, give up: {}", transferId, state.status, maxAttempts,
+          stepResult.failure);
+      return step(failed, String.format("%s not answered after %d attempts", state.status, maxAttempts));
+    }
+    final var backoff = backoff();
+    log().warn("Transfer {} {} failed, retry in {}: {}", transferId, state.status, backoff, stepResult.failure);
+    timerScheduler.startSingleTimer(new RetryStep(state.status), backoff);
+    return Effect().none();
+  }
+
+  private Effect<Event, State> onRetryStep(State state, RetryStep retryStep) {
+    if (retryStep.step.equals(state.status)) {
+      runStep(state);
+    }
+    return Effect().none();
+  }
+
+  private Effect<Event, State> step(String status, String reason) {
+    return Effect().persist(new TransferStepped(status, reason))
+        .thenRun(newState -> {
+          attempts = 0;
+          if (newState.finished()) {
+            final var transferAck = new TransferAck(transferId, newState.status, newState.reason);
+            waiting.forEach(replyTo -> replyTo.tell(transferAck));
+            waiting.clear();
+            shard.tell(new ClusterSharding.Passivate<>(actorContext.getSelf()));
+          } else {
+            runStep(newState);
+          }
+        });
+  }
+
+  private void runStep(State state) {
+    final var step = state.status;
+    final var account = step.equals(crediting) ? state.to : state.from;
+    final var amount = step.equals(debiting) ? -state.amount : state.amount;
+    final var idempotencyKey = String.format("%s-%s", transferId, step);
+    final var entityRef = clusterSharding.entityRefFor(BankEntityActor.entityTypeKey, account.id);
+    actorContext.ask(BankEntityActor.Command.class, entityRef, stepTimeout,
+        replyTo -> new BankEntityActor.ChangeValue(account, new BankEntityActor.Value(System.currentTimeMillis()), amount,
+            idempotencyKey, replyTo),
+        (reply, failure) -> new StepResult(step, reply, failure));
+  }
+
+  private Duration backoff() {
+    final var backoff = minBackoff.multipliedBy(1L << Math.min(attempts++, 16));
+    return backoff.compareTo(maxBackoff) > 0 ? maxBackoff : backoff;
+  }
+
+  private Logger log() {
+    return actorContext.getLog();
+  }
+
+  public interface Command extends CborSerializable {}
+
+  public static class StartTransfer implements Command {
+    public final BankEntityActor.Id from;
+    public final BankEntityActor.Id to;
+    public final long amount;
+    public final ActorRef<TransferAck> replyTo;
+
+    @JsonCreator
+    public StartTransfer(BankEntityActor.Id from, BankEntityActor.Id to, long amount, ActorRef<TransferAck> replyTo) {
+      this.from = from;
+      this.to = to;
+      this.amount = amount;
+      this.replyTo = replyTo;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s[%s, %s, %d]", getClass().getSimpleName(), from, to, amount);
+    }
+  }
+
+  public static class GetTransfer implements Command {
+    public final ActorRef<TransferAck> replyTo;
+
+    @JsonCreator
+    public GetTransfer(ActorRef<TransferAck> replyTo) {
+      this.replyTo = replyTo;
+    }
+  }
+
+  /**
+   * The outcome of a transfer, completed or failed, or its current step when asked with GetTransfer.
+   */
+  public static class TransferAck implements CborSerializable {
+    public final String transferId;
+    public final String status;
+    public final String reason;
+
+    @JsonCreator
+    public TransferAck(String transferId, String status, String reason) {
+      this.transferId = transferId;
+      this.status = status;
+      this.reason = reason;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s[%s, %s, %s]", getClass().getSimpleName(), transferId, status, reason);
+    }
+  }
+
+  private static class StepResult implements Command {
+    final String step;
+    final BankEntityActor.Command reply;
+    final Throwable failure;
+
+    StepResult(String step, BankEntityActor.Command reply, Throwable failure) {
+      this.step = step;
+      this.reply = reply;
+      this.failure = failure;
+    }
+  }
+
+  private static class RetryStep implements Command {
+    final String step;
+
+    RetryStep(String step) {
+      this.step = step;
+    }
+  }
+
+  public enum Passivate implements Command {
+    INSTANCE
+  }
+
+  public interface Event extends CborSerializable {}
+
+  public static class TransferStarted implements Event {
+    public final BankEntityActor.Id from;
+    public final BankEntityActor.Id to;
+    public final long amount;
+
+    @JsonCreator
+    public TransferStarted(BankEntityActor.Id from, BankEntityActor.Id to, long amount) {
+      this.from = from;
+      this.to = to;
+      this.amount = amount;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s[%s, %s, %d]", getClass().getSimpleName(), from, to, amount);
+    }
+  }
+
+  public static class TransferStepped implements Event {
+    public final String status;
+    public final String reason;
+
+    @JsonCreator
+    public TransferStepped(String status, String reason) {
+      this.status = status;
+      this.reason = reason;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s[%s, %s]", getClass().getSimpleName(), status, reason);
+    }
+  }
+
+  static class State implements CborSerializable {
+    final BankEntityActor.Id from;
+    final BankEntityActor.Id to;
+    final long amount;
+    final String status;
+    final String reason;
+
+    @JsonCreator
+    State(BankEntityActor.Id from, BankEntityActor.Id to, long amount, String status, String reason) {
+      this.from = from;
+      this.to = to;
+      this.amount = amount;
+      this.status = status;
+      this.reason = reason;
+    }
+
+    static State empty() {
+      return new State(null, null, 0, null, null);
+    }
+
+    boolean started() {
+      return status != null;
+    }
+
+    boolean finished() {
+      return completed.equals(status) || failed.equals(status);
+    }
+
+    boolean sameTransfer(StartTransfer startTransfer) {
+      return amount == startTransfer.amount && startTransfer.from != null && startTransfer.to != null
+          && from.id.equals(startTransfer.from.id) && to.id.equals(startTransfer.to.id);
+    }
+
+    State step(String status, String reason) {
+      return new State(from, to, amount, status, reason);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s[%s, %s, %d, %s, %s]", getClass().getSimpleName(), from, to, amount, status, reason);
+    }
+  }
+}
@@ -0,0 +1,212 @@
+package cluster;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import akka.NotUsed;
+import akka.actor.typed.ActorSystem;
+import akka.japi.Pair;
+import akka.stream.BoundedSourceQueue;
+import akka.stream.QueueOfferResult;
+import akka.stream.javadsl.BroadcastHub;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import cluster.HttpServer.ServerActivitySummary.ServerActivity;
+
+/**
+ * Pushes viewer tree changes to the connected viewers.
+ * <p>
+ * Changes to the tree are collected as they are loaded and published once per push interval as one delta, numbered
+ * with a sequence number, into a queue feeding a broadcast hub that every viewer WebSocket subscribes to. A viewer
+ * first receives a snapshot of the tree tagged with the sequence number it includes, then the deltas that follow it.
+ * <p>
+ * Each change sets the state of one entity or member, so applying a change twice is harmless and later changes to the
+ * same entity or member replace earlier ones. That lets a viewer that cannot keep up have its pending deltas conflated
+ * into one, bounded by the number of entities rather than by how far behind it is. A viewer that sees a gap in the
+ * sequence numbers, because the queue overflowed, reconnects for a new snapshot.
+ * <p>
+ * All methods except updates are called from the HTTP server actor.
+ */
+class ViewerUpdates {
+  private final BoundedSourceQueue<Update> queue;
+  private final Source<Update, NotUsed> updates;
+  private final Map<String, Change> pendingChanges = new LinkedHashMap<>();
+  private final Map<String, Activity> pendingActivities = new LinkedHashMap<>();
+  private long seq;
+
+  ViewerUpdates(ActorSystem<?> actorSystem, int bufferSize) {
+    final Pair<BoundedSourceQueue<Update>, Source<Update, NotUsed>> queueAndHub = Source.<Update>queue(bufferSize)
+        .toMat(BroadcastHub.of(Update.class, bufferSize), Keep.both())
+        .run(actorSystem);
+    queue = queueAndHub.first();
+    updates = queueAndHub.second();
+    // a broadcast hub without subscribers backpressures, keep it draining while no viewer is connected
+    updates.runWith(Sink.ignore(), actorSystem);
+  }
+
+  void entityMoved(String memberId, String shardId, String entityId) {
+    put(pendingChanges, new Change("upsert", memberId, shardId, entityId));
+  }
+
+  void entityRemoved(String memberId, String shardId, String entityId) {
+    put(pendingChanges, new Change("remove", memberId, shardId, entityId));
+  }
+
+  void memberRemoved(String memberId) {
+    put(pendingChanges, new Change("removeMember", memberId, null, null));
+  }
+
+  void serverActivity(ServerActivity serverActivity) {
+    pendingActivities.put(serverActivity.server, new Activity(serverActivity));
+  }
+
+  /**
+   * Publish the pending changes as the next delta, if there are any.
+   *
+   * @return false when the queue was full and the delta was dropped
+   */
+  boolean publish() {
+    if (pendingChanges.isEmpty() && pendingActivities.isEmpty()) {
+      return true;
+    }
+    ++seq;
+    final var update = new Update("delta", seq, seq, null, new ArrayList<>(pendingChanges.values()),
+        new ArrayList<>(pendingActivities.values()), null);
+    pendingChanges.clear();
+    pendingActivities.clear();
+    return queue.offer(update) == QueueOfferResult.enqueued();
+  }
+
+  /**
+   * A snapshot rendered now, as the tree is only read on the HTTP server actor, including everything published so far.
+   */
+  Update snapshot(HttpServer.Tree tree, Collection<ServerActivity> serverActivities, String selfMember) {
+    publish();
+    final var activities = new ArrayList<Activity>();
+    serverActivities.forEach(serverActivity -> activities.add(new Activity(serverActivity)));
+    final var snapshot = new Update("snapshot", seq, seq, selfMember, null, activities, null);
+    return new Update(snapshot, JsonWriters.toJson(generator -> {
+      generator.writeStartObject();
+      generator.writeStringField("type", snapshot.type);
+      generator.writeNumberField("fromSeq", snapshot.fromSeq);
+      generator.writeNumberField("seq", snapshot.seq);
+      generator.writeStringField("selfMember", snapshot.selfMember);
+      generator.writeFieldName("tree");
+      JsonWriters.writeTree(generator, tree);
+      generator.writeObjectField("serverActivities", snapshot.serverActivities);
+      generator.writeEndObject();
+    }));
+  }
+
+  /**
+   * The deltas following a snapshot, conflated while the subscriber is backpressuring.
+   */
+  Source<Update, NotUsed> updatesAfter(Update snapshot) {
+    return updates
+        .dropWhile(update -> update.seq <= snapshot.seq)
+        .conflate(Update::merge);
+  }
+
+  private static void put(Map<String, Change> changes, Change change) {
+    final var key = change.entity == null ? change.member : change.entity;
+    changes.remove(key);
+    changes.put(key, change);
+  }
+
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public static class Update {
+    public final String type;
+    public final long fromSeq;
+    public final long seq;
+    public final String selfMember;
+    public final List<Change> changes;
+    public final List<Activity> serverActivities;
+    private final ByteString json;
+
+    Update(String type, long fromSeq, long seq, String selfMember, List<Change> changes, List<Activity> serverActivities,
+        ByteString json) {
+      this.type = type;
+      this.fromSeq = fromSeq;
+      this.seq = seq;
+      this.selfMember = selfMember;
+      this.changes = changes;
+      this.serverActivities = serverActivities;
+      this.json = json;
+    }
+
+    private Update(Update update, ByteString json) {
+      this(update.type, update.fromSeq, update.seq, update.selfMember, update.changes, update.serverActivities, json);
+    }
+
+    /**
+     * Combine two consecutive deltas, keeping the order of the last change to each entity or member.
+     */
+    Update merge(Update next) {
+      final var mergedChanges = new LinkedHashMap<String, Change>();
+      changes.forEach(change -> put(mergedChanges, change));
+      next.changes.forEach(change -> put(mergedChanges, change));
+      final var mergedActivities = new LinkedHashMap<String, Activity>();
+      serverActivities.forEach(activity -> mergedActivities.put(activity.server, activity));
+      next.serverActivities.forEach(activity -> mergedActivities.put(activity.server, activity));
+      return new Update(type, fromSeq, next.seq, null, new ArrayList<>(mergedChanges.values()),
+          new ArrayList<>(mergedActivities.values()), null);
+    }
+
+    ByteString toJson() {
+      return json != null ? json : JsonWriters.toJson(this);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s[%s, %d-%d, %d changes]", getClass().getSimpleName(), type, fromSeq, seq,
+          changes == null ? 0 : changes.size());
+    }
+  }
+
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public static class Change {
+    public final String action;
+    public final String member;
+    public final String shard;
+    public final String entity;
+
+    Change(String action, String member, String shard, String entity) {
+      this.action = action;
+      this.member = member;
+      this.shard = shard;
+      this.entity = entity;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s[%s, %s, %s, %s]", getClass().getSimpleName(), action, member, shard, entity);
+    }
+  }
+
+  /**
+   * An immutable copy of a server activity, which the HTTP server actor keeps updating.
+   */
+  public static class Activity {
+    public final String server;
+    public final int messageCount;
+    public final List<HttpServer.Link> links;
+
+    Activity(ServerActivity serverActivity) {
+      server = serverActivity.server;
+      messageCount = serverActivity.messageCount;
+      links = List.copyOf(serverActivity.links);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s[%s, %,d]", getClass().getSimpleName(), server, messageCount);
+    }
+  }
+}
@@ -2,11 +2,11 @@ const clusterAware = {
   clusterStateUpdateNode: function (clusterStateFromNode) {
     const selfPort = clusterStateFromNode.selfPort;
 
-    clusterState.members[selfPort - 2551].clusterAwareStatistics = clusterStateFromNode.clusterAwareStatistics;
+    clusterState.members[selfPort - firstPort].clusterAwareStatistics = clusterStateFromNode.clusterAwareStatistics;
   },
 
   nodeDetails: function (x, y, w, h, nodeNo) {
-    const selfPort = 2551 + nodeNo;
+    const selfPort = firstPort + nodeNo;
     const clusterAwareStatistics = clusterState.members[nodeNo].clusterAwareStatistics;
 
     if (clusterAwareStatistics) {
@@ -36,8 +36,8 @@ const clusterAware = {
         .draw();
 
       let lineY = y + 4;
-      for (let p = 0; p < 9; p++) {
-        const port = 2551 + p;
+      for (let p = 0; p < nodeCount && lineY < y + h; p++) {
+        const port = firstPort + p;
         const nodePings = clusterAwareStatistics.nodePings[port];
         if (nodePings && port != selfPort) {
           Label()
@@ -0,0 +1,51 @@
+const heavyHitters = {
+  requestMsInterval: 1000,
+  requested: {},
+
+  clusterStateUpdateNode: function (clusterStateFromNode) {
+    const selfPort = clusterStateFromNode.selfPort;
+    const time = new Date().getTime();
+
+    if (!(time - this.requested[selfPort] < this.requestMsInterval)) {
+      this.requested[selfPort] = time;
+      loadJSON('http://localhost:' + (selfPort + httpPortOffset) + '/heavy-hitters', (heavyHittersFromNode) => this.heavyHittersUpdateNode(heavyHittersFromNode));
+    }
+  },
+
+  heavyHittersUpdateNode: function (heavyHittersFromNode) {
+    clusterState.members[heavyHittersFromNode.selfPort - firstPort].heavyHitters = heavyHittersFromNode;
+  },
+
+  nodeDetails: function (x, y, w, h, nodeNo) {
+    const heavyHitters = clusterState.members[nodeNo].heavyHitters;
+
+    if (heavyHitters) {
+      let lineY = y + 9;
+      for (let s = 0; s < heavyHitters.shards.length && s < 1 && lineY < y + h; s++) {
+        this.line(x + w / 2, lineY++, w / 2, 'Hot shard ' + heavyHitters.shards[s].id, this.rate(heavyHitters.shards[s]));
+      }
+      for (let e = 0; e < heavyHitters.entities.length && e < 3 && lineY < y + h; e++) {
+        this.line(x + w / 2, lineY++, w / 2, heavyHitters.entities[e].id, this.rate(heavyHitters.entities[e]));
+      }
+    }
+  },
+
+  rate: function (heavyHitter) {
+    return Math.round(heavyHitter.rate).toLocaleString() + '/s ' + (heavyHitter.share * 100).toFixed(1) + '%';
+  },
+
+  line: function (x, y, w, key, value) {
+    Label()
+      .setX(x)
+      .setY(y)
+      .setW(w)
+      .setH(1)
+      .setBorder(0.25)
+      .setKey(key)
+      .setValue(value)
+      .setBgColor(color(100, 75))
+      .setKeyColor(color(29, 249, 246))
+      .setValueColor(color(255))
+      .draw();
+  },
+};
@@ -0,0 +1,45 @@
+const latency = {
+  requestMsInterval: 1000,
+  requested: {},
+
+  clusterStateUpdateNode: function (clusterStateFromNode) {
+    const selfPort = clusterStateFromNode.selfPort;
+    const time = new Date().getTime();
+
+    if (!(time - this.requested[selfPort] < this.requestMsInterval)) {
+      this.requested[selfPort] = time;
+      loadJSON('http://localhost:' + (selfPort + httpPortOffset) + '/latency', (latencyFromNode) => this.latencyUpdateNode(latencyFromNode));
+    }
+  },
+
+  latencyUpdateNode: function (latencyFromNode) {
+    clusterState.members[latencyFromNode.selfPort - firstPort].latencies = latencyFromNode.latencies;
+  },
+
+  nodeDetails: function (x, y, w, h, nodeNo) {
+    const latencies = clusterState.members[nodeNo].latencies;
+
+    if (latencies) {
+      let lineY = y + 2;
+      for (let l = 0; l < latencies.length && lineY < y + 4; l++) {
+        const interval = latencies[l].interval;
+        Label()
+          .setX(x + w / 2)
+          .setY(lineY++)
+          .setW(w / 2)
+          .setH(1)
+          .setBorder(0.25)
+          .setKey(latencies[l].name.replace('load-generator ', ''))
+          .setValue(this.ms(interval.p50) + '/' + this.ms(interval.p99) + '/' + this.ms(interval.p999) + 'ms')
+          .setBgColor(interval.failures > 0 ? color(255, 55, 55, 100) : color(100, 75))
+          .setKeyColor(color(29, 249, 246))
+          .setValueColor(color(255))
+          .draw();
+      }
+    }
+  },
+
+  ms: function (micros) {
+    return micros < 10000 ? (micros / 1000).toFixed(1) : Math.round(micros / 1000);
+  },
+};
@@ -0,0 +1,44 @@
+const passivation = {
+  requestMsInterval: 1000,
+  requested: {},
+
+  clusterStateUpdateNode: function (clusterStateFromNode) {
+    const selfPort = clusterStateFromNode.selfPort;
+    const time = new Date().getTime();
+
+    if (!(time - this.requested[selfPort] < this.requestMsInterval)) {
+      this.requested[selfPort] = time;
+      loadJSON('http://localhost:' + (selfPort + httpPortOffset) + '/passivation', (passivationFromNode) => this.passivationUpdateNode(passivationFromNode));
+    }
+  },
+
+  passivationUpdateNode: function (passivationFromNode) {
+    clusterState.members[passivationFromNode.selfPort - firstPort].passivation = passivationFromNode;
+  },
+
+  nodeDetails: function (x, y, w, h, nodeNo) {
+    const passivation = clusterState.members[nodeNo].passivation;
+
+    if (passivation) {
+      this.line(x + w / 2, y + 5, w / 2, 'Active', passivation.active.toLocaleString() + (passivation.limit > 0 ? '/' + passivation.limit.toLocaleString() : ''));
+      this.line(x + w / 2, y + 6, w / 2, 'Hit rate', (passivation.hitRate * 100).toFixed(1) + '%');
+      this.line(x + w / 2, y + 7, w / 2, 'Passivated', passivation.passivations.toLocaleString());
+      this.line(x + w / 2, y + 8, w / 2, 'Reactivated', passivation.reactivations.toLocaleString());
+    }
+  },
+
+  line: function (x, y, w, key, value) {
+    Label()
+      .setX(x)
+      .setY(y)
+      .setW(w)
+      .setH(1)
+      .setBorder(0.25)
+      .setKey(key)
+      .setValue(value)
+      .setBgColor(color(100, 75))
+      .setKeyColor(color(29, 249, 246))
+      .setValueColor(color(255))
+      .draw();
+  },
+};
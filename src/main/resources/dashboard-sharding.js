@@ -1,5 +1,10 @@
 const clusterNodeRequestMsInterval = 200;
 const drawFPS = 1000 / clusterNodeRequestMsInterval;
+// node N has Akka port firstPort + N - 1 and HTTP port Akka port + httpPortOffset, see cluster-node in application.conf
+const firstPort = 2551;
+const httpPortOffset = 7000;
+// the number of node slots grows to fit the highest member port reported by any node
+let nodeCount = 9;
 
 function setup() {
   createCanvas(windowWidth, windowHeight);
@@ -14,11 +19,11 @@ function draw() {
   grid.draw(color(43, 52, 58));
 
   drawSummary();
-  drawNineNodes();
+  drawNodes();
 }
 
 function drawSummary() {
-  frame(0, 0, 18, 42);
+  frame(0, 0, 18, Math.max(42, gridRows() * 14));
 
   Label()
     .setX(0)
@@ -60,18 +65,20 @@ function drawSummary() {
     .draw();
 
   singletonAware.singletonDetails(1, 5, 16, 15);
-  nineNodes(0, 24, 18, 0.05, clusterState.summary.nodes);
+  nodeGrid(0, 24, 18, 0.05, clusterState.summary.nodes);
 }
 
-function drawNineNodes() {
+function drawNodes() {
+  const cols = gridCols();
+
   strokeWeight(2.5);
   stroke(255, 100);
-  grid.line(19, 0, 19 + 3 * 18 + 2, 0);
+  grid.line(19, 0, 19 + cols * 19 - 1, 0);
 
   Label()
     .setX(19)
     .setY(0)
-    .setW(19 * 2 + 18)
+    .setW(19 * cols - 1)
     .setH(1)
     .setBorder(0.1)
     .setKey('Cluster Nodes')
@@ -81,21 +88,31 @@ function drawNineNodes() {
     .setValueColor(color(255))
     .draw();
 
-  for (row = 0; row < 3; row++) {
-    for (col = 0; col < 3; col++) {
-      const x = (col + 1) * 19;
-      const y = row * 14 + 1;
-      const nodeNo = row * 3 + col;
-      frame(x, y, 18, 13);
-      nodeDetails(x, y, 18, 13, nodeNo);
-    }
+  for (let nodeNo = 0; nodeNo < nodeCount; nodeNo++) {
+    const x = ((nodeNo % cols) + 1) * 19;
+    const y = Math.floor(nodeNo / cols) * 14 + 1;
+    frame(x, y, 18, 13);
+    nodeDetails(x, y, 18, 13, nodeNo);
   }
 
-  for (row = 0; row < 3; row++) {
-    for (col = 0; col < 3; col++) {
-      nineNodes((col + 1) * 19 + 9, row * 14 + 5, 9, 0.025, clusterState.members[row * 3 + col].nodes);
-    }
+  for (let nodeNo = 0; nodeNo < nodeCount; nodeNo++) {
+    const x = ((nodeNo % cols) + 1) * 19;
+    const y = Math.floor(nodeNo / cols) * 14 + 1;
+    nodeGrid(x + 9, y + 4, 9, 0.025, clusterState.members[nodeNo].nodes);
+  }
+}
+
+// the fewest node panel columns, each 19 wide, that fit the rows of 14 high panels on a 16:9 screen
+function gridCols() {
+  let cols = 3;
+  while (Math.ceil(nodeCount / cols) * 14 > aspectRatio(16, 9) * 19 * (cols + 1)) {
+    cols++;
   }
+  return cols;
+}
+
+function gridRows() {
+  return Math.ceil(nodeCount / gridCols());
 }
 
 function windowResized() {
@@ -114,6 +131,9 @@ const grid = {
   ticksVertical: aspectRatio(16, 9) * 76, // ticksHorizontal
   tickWidth: 0,
   resize: function () {
+    // the summary column plus the node panel columns
+    this.ticksHorizontal = 19 * (gridCols() + 1);
+    this.ticksVertical = aspectRatio(16, 9) * this.ticksHorizontal;
     gridWidth = windowWidth - 2 * this.borderWidth;
     this.tickWidth = gridWidth / this.ticksHorizontal;
   },
@@ -180,7 +200,7 @@ function frame(x, y, width, height) {
 }
 
 function nodeDetails(x, y, w, h, nodeNo) {
-  const port = 2551 + nodeNo;
+  const port = firstPort + nodeNo;
   const node = clusterState.members[nodeNo].nodes[nodeNo];
   if (node.state != 'offline') {
     Label()
@@ -197,6 +217,9 @@ function nodeDetails(x, y, w, h, nodeNo) {
       .draw();
 
     clusterAware.nodeDetails(x, y, w, h, nodeNo);
+    latency.nodeDetails(x, y, w, h, nodeNo);
+    passivation.nodeDetails(x, y, w, h, nodeNo);
+    heavyHitters.nodeDetails(x, y, w, h, nodeNo);
   }
 
   if (node.seedNode) {
@@ -213,12 +236,11 @@ function nodeDetails(x, y, w, h, nodeNo) {
   }
 }
 
-function nineNodes(x, y, size, border, nodes) {
-  const nodeSize = size / 3;
-  for (let row = 0; row < 3; row++) {
-    for (let col = 0; col < 3; col++) {
-      drawNode(x + nodeSize * col, y + nodeSize * row, nodeSize, border, nodes[row * 3 + col]);
-    }
+function nodeGrid(x, y, size, border, nodes) {
+  const cols = Math.max(3, Math.ceil(Math.sqrt(nodeCount)));
+  const nodeSize = size / cols;
+  for (let n = 0; n < nodeCount; n++) {
+    drawNode(x + nodeSize * (n % cols), y + nodeSize * Math.floor(n / cols), nodeSize, border, nodes[n]);
   }
 }
 
@@ -386,8 +408,8 @@ function requestClusterStateInterval() {
 
   clusterStateScanAllForOfflineNodes();
 
-  for (let port = 9551; port <= 9559; port++) {
-    requestClusterStateFromNode(port);
+  for (let port = firstPort; port < firstPort + nodeCount; port++) {
+    requestClusterStateFromNode(port + httpPortOffset);
   }
 }
 
@@ -402,7 +424,7 @@ const clusterState = clusterStateInit();
 function clusterStateNodeReset(nodes) {
   const time = new Date().getTime();
 
-  for (let n = 0; n < 9; n++) {
+  for (let n = 0; n < nodeCount; n++) {
     clusterStateNodeInit(n);
   }
 }
@@ -410,17 +432,17 @@ function clusterStateNodeReset(nodes) {
 function clusterStateScanForOfflineNodes(nodes) {
   const time = new Date().getTime();
 
-  for (let n = 0; n < 9; n++) {
+  for (let n = 0; n < nodeCount; n++) {
     if (time - nodes[n].time > 3000) {
       // node is offline if no update for over 3 seconds
-      nodes[n] = clusterStateNodeInit(n + 2551);
+      nodes[n] = clusterStateNodeInit(n + firstPort);
     }
   }
 }
 
 function clusterStateScanAllForOfflineNodes() {
   clusterStateScanForOfflineNodes(clusterState.summary.nodes);
-  for (let m = 0; m < 9; m++) {
+  for (let m = 0; m < nodeCount; m++) {
     clusterStateScanForOfflineNodes(clusterState.members[m].nodes);
   }
 }
@@ -432,21 +454,26 @@ function clusterStateInit() {
   clusterState.summary.leader = 0;
   clusterState.summary.oldest = 0;
   clusterState.summary.nodes = [];
-
-  for (let node = 0; node < 9; node++) {
-    clusterState.summary.nodes[node] = clusterStateNodeInit(node + 2551);
-  }
-
   clusterState.members = [];
 
-  for (let member = 0; member < 9; member++) {
-    clusterState.members[member] = { nodes: [] };
+  clusterStateGrow(clusterState, nodeCount);
+  return clusterState;
+}
+
+// add node slots up to count to the summary and to each member, including new members
+function clusterStateGrow(clusterState, count) {
+  for (let node = clusterState.summary.nodes.length; node < count; node++) {
+    clusterState.summary.nodes[node] = clusterStateNodeInit(node + firstPort);
+  }
 
-    for (let node = 0; node < 9; node++) {
-      clusterState.members[member].nodes[node] = clusterStateNodeInit(node + 2551);
+  for (let member = 0; member < count; member++) {
+    if (!clusterState.members[member]) {
+      clusterState.members[member] = { nodes: [] };
+    }
+    for (let node = clusterState.members[member].nodes.length; node < count; node++) {
+      clusterState.members[member].nodes[node] = clusterStateNodeInit(node + firstPort);
     }
   }
-  return clusterState;
 }
 
 function clusterStateNodeInit(port) {
@@ -455,18 +482,28 @@ function clusterStateNodeInit(port) {
 
 function clusterStateUpdateNode(clusterStateFromNode) {
   const selfPort = clusterStateFromNode.selfPort;
+  const maxPort = Math.max(selfPort, ...clusterStateFromNode.nodes.map((n) => n.port));
+
+  if (maxPort - firstPort + 1 > nodeCount) {
+    nodeCount = maxPort - firstPort + 1;
+    clusterStateGrow(clusterState, nodeCount);
+    grid.resize();
+  }
 
-  clusterStateNodeReset(clusterState.members[selfPort - 2551].nodes);
+  clusterStateNodeReset(clusterState.members[selfPort - firstPort].nodes);
 
   for (let n = 0; n < clusterStateFromNode.nodes.length; n++) {
     const port = clusterStateFromNode.nodes[n].port;
     const node = clusterStateFromNode.nodes[n];
     node.time = new Date().getTime();
-    clusterState.members[selfPort - 2551].nodes[port - 2551] = node;
+    clusterState.members[selfPort - firstPort].nodes[port - firstPort] = node;
   }
 
   clusterAware.clusterStateUpdateNode(clusterStateFromNode);
   singletonAware.clusterStateUpdateNode(clusterStateFromNode);
+  latency.clusterStateUpdateNode(clusterStateFromNode);
+  passivation.clusterStateUpdateNode(clusterStateFromNode);
+  heavyHitters.clusterStateUpdateNode(clusterStateFromNode);
 
   clusterStateUpdateSummary(clusterStateFromNode);
 }
@@ -485,7 +522,7 @@ function clusterStateUpdateSummary(clusterStateFromNode) {
       const node = clusterStateFromNode.nodes[n];
       const port = node.port;
       node.time = new Date().getTime();
-      clusterState.summary.nodes[port - 2551] = node;
+      clusterState.summary.nodes[port - firstPort] = node;
     }
 
     clusterState.summary.oldest = oldestNode(clusterStateFromNode.nodes).port;
@@ -501,7 +538,7 @@ function oldestNode(nodes) {
 }
 
 function requestClusterStateFromNodeError(response) {
-  if (inState('offline') == 9) {
+  if (inState('offline') == nodeCount) {
     clusterState.summary.leader = 0;
     clusterState.summary.oldest = 0;
   }
@@ -2,7 +2,7 @@ const singletonAware = {
   clusterStateUpdateNode: function (clusterStateFromNode) {
     const selfPort = clusterStateFromNode.selfPort;
 
-    clusterState.members[selfPort - 2551].singletonAwareStatistics = clusterStateFromNode.singletonAwareStatistics;
+    clusterState.members[selfPort - firstPort].singletonAwareStatistics = clusterStateFromNode.singletonAwareStatistics;
     if (selfPort == clusterState.summary.oldest) {
       clusterState.singletonAwareStatistics = clusterStateFromNode.singletonAwareStatistics;
     }
@@ -10,7 +10,7 @@ const singletonAware = {
 
   singletonDetails: function (x, y, w, h) {
     const singletonAwareStatistics = clusterState.singletonAwareStatistics;
-    const oldestIsUp = clusterState.summary.oldest >= 2551 ? clusterState.summary.nodes[clusterState.summary.oldest - 2551].state == 'up' : false;
+    const oldestIsUp = clusterState.summary.oldest >= firstPort ? clusterState.summary.nodes[clusterState.summary.oldest - firstPort].state == 'up' : false;
 
     if (oldestIsUp && singletonAwareStatistics) {
       Label()
@@ -39,8 +39,8 @@ const singletonAware = {
         .draw();
 
       let lineY = y + 7;
-      for (let p = 0; p < 9; p++) {
-        const port = 2551 + p;
+      for (let p = 0; p < nodeCount && lineY < y + h; p++) {
+        const port = firstPort + p;
         const node = clusterState.summary.nodes.find((n) => n.port == port);
         const nodePings = singletonAwareStatistics.nodePings[port];
         if (node && nodePings) {
@@ -1,23 +1,40 @@
 var webSocket;
 var svgHasFocus = true;
 
+const firstPort = 2551;
+
+// the viewer keeps its own copy of the tree, loaded from a snapshot when connecting and then changed by the deltas
+const textDecoder = new TextDecoder();
+const model = { seq: -1, selfMember: '', tree: { name: 'cluster', type: 'cluster', children: [] }, serverActivities: new Map(), entities: new Map() };
+
 function sendWebSocketRequest(request) { /* Comment Flag: WebSocket retrieve data that is added to the tree*/
   if (webSocket && webSocket.readyState == WebSocket.OPEN) {
-    webSocket.send(request);
-  } else {
+    if (request) {
+      webSocket.send(request);
+    }
+  } else if (!webSocket || webSocket.readyState != WebSocket.CONNECTING) {
     webSocket = new WebSocket('ws://' + location.host + '/viewer-entities');
-    update({ serverActivities: [], tree: { name: 'cluster', type: 'cluster' } });
+    webSocket.binaryType = 'arraybuffer';
 
     webSocket.onopen = function (event) {
       console.log('WebSocket connected', event);
-      webSocket.send(request);
     };
 
     webSocket.onmessage = function (event) {
-      console.log('Websocket message: ', event);
-      const root = JSON.parse(event.data);
+      const message = JSON.parse(typeof event.data == 'string' ? event.data : textDecoder.decode(event.data));
+      if (message.type == 'snapshot') {
+        loadSnapshot(message);
+      } else if (message.fromSeq > model.seq + 1) {
+        console.log('WebSocket missed updates', model.seq, message.fromSeq);
+        webSocket.close();
+        webSocket = null;
+        sendWebSocketRequest();
+        return;
+      } else {
+        loadDelta(message);
+      }
       if (svgHasFocus) {
-        update(root);
+        update(modelData());
       }
     };
 
@@ -31,6 +48,81 @@ function sendWebSocketRequest(request) { /* Comment Flag: WebSocket retrieve dat
   }
 }
 
+function loadSnapshot(snapshot) {
+  model.seq = snapshot.seq;
+  model.selfMember = snapshot.selfMember;
+  model.tree = snapshot.tree;
+  model.serverActivities = new Map(snapshot.serverActivities.map((s) => [s.server, s]));
+  model.entities = new Map();
+  model.tree.children.forEach((member) =>
+    member.children.forEach((shard) => shard.children.forEach((entity) => model.entities.set(entity.name, { member, shard, entity })))
+  );
+}
+
+function loadDelta(delta) {
+  model.seq = delta.seq;
+  delta.changes.forEach((change) => {
+    if (change.action == 'upsert') {
+      upsertEntity(change.member, change.shard, change.entity);
+    } else if (change.action == 'remove') {
+      const e = model.entities.get(change.entity);
+      if (e && e.member.name == change.member && e.shard.name == change.shard) {
+        removeEntity(change.entity);
+      }
+    } else if (change.action == 'removeMember') {
+      removeChild(model.tree, change.member);
+      model.entities.forEach((e, entityId) => e.member.name == change.member && model.entities.delete(entityId));
+    }
+  });
+  delta.serverActivities.forEach((s) => model.serverActivities.set(s.server, s));
+}
+
+function upsertEntity(memberId, shardId, entityId) {
+  const e = model.entities.get(entityId);
+  if (e && e.member.name == memberId && e.shard.name == shardId) {
+    return;
+  }
+  removeEntity(entityId);
+  const member = childOf(model.tree, memberId, memberId == model.selfMember ? 'member httpServer' : 'member');
+  const shard = childOf(member, shardId, 'shard');
+  const entity = childOf(shard, entityId, 'entity');
+  model.entities.set(entityId, { member, shard, entity });
+}
+
+function removeEntity(entityId) {
+  const e = model.entities.get(entityId);
+  if (e) {
+    model.entities.delete(entityId);
+    removeChild(e.shard, entityId);
+    if (e.shard.children.length == 0) {
+      removeChild(e.member, e.shard.name);
+      if (e.member.children.length == 0) {
+        removeChild(model.tree, e.member.name);
+      }
+    }
+  }
+}
+
+function childOf(parent, name, type) {
+  let child = parent.children.find((c) => c.name == name);
+  if (!child) {
+    child = { name: name, type: type, events: 0, children: [] };
+    parent.children.push(child);
+  }
+  return child;
+}
+
+function removeChild(parent, name) {
+  const i = parent.children.findIndex((c) => c.name == name);
+  if (i >= 0) {
+    parent.children.splice(i, 1);
+  }
+}
+
+function modelData() {
+  return { tree: model.tree, serverActivities: Array.from(model.serverActivities.values()) };
+}
+
 const chartDiv = document.getElementById('chart');
 const width = chartDiv.clientWidth;
 const height = chartDiv.clientHeight;
@@ -56,6 +148,7 @@ const gHttpServerLink = g.append('g').attr('class', 'http-server-link').attr('st
 const gNode = g.append('g').attr('class', 'nodes').attr('stroke-linejoin', 'round').attr('stroke-width', 3);
 const gStatistics = g.append('g').attr('class', 'statistics');
 
+update(modelData());
 sendWebSocketRequest();
 setInterval(sendWebSocketRequest, 5000);
 
@@ -193,33 +286,42 @@ function updateClusterView(hierarchy) {
     .attr('y', (d) => d.y + side / 2)
     .style('font-size', 24)
     .style('fill', '#FFF')
-    .text((d) => d.memberId - 2550);
+    .text((d) => d.memberId - firstPort + 1);
 
-  members.select('rect').style('fill', (d) => (d.active ? '#30d35a' : '#555'));
+  members
+    .select('rect')
+    .attr('x', (d) => d.x)
+    .attr('y', (d) => d.y)
+    .style('fill', (d) => (d.active ? '#30d35a' : '#555'));
 
-  members.select('text');
+  members
+    .select('text')
+    .attr('x', (d) => d.x + side / 5)
+    .attr('y', (d) => d.y + side / 2);
 
   function memberData() {
+    // at least a 3 x 3 grid, growing to fit the highest member port seen
+    const ports = hierarchy.children ? hierarchy.children.map((d) => memberPort(d.name)) : [];
+    const count = Math.max(9, Math.max(...ports, 0) - firstPort + 1);
+    const cols = Math.ceil(Math.sqrt(count));
     const members = [];
-    let memberId = 2551;
-    for (var row = 0; row < 3; row++) {
-      for (var col = 0; col < 3; col++) {
-        const x = col * (side + 2) + side / 2 - width / 2;
-        const y = row * (side + 2) + side / 2 - height / 2;
-        members.push({ memberId: memberId, x: x, y: y, active: isActive(memberId), address: address(memberId) });
-        memberId++;
-      }
+    for (let memberId = firstPort; memberId < firstPort + count; memberId++) {
+      const row = Math.floor((memberId - firstPort) / cols);
+      const col = (memberId - firstPort) % cols;
+      const x = col * (side + 2) + side / 2 - width / 2;
+      const y = row * (side + 2) + side / 2 - height / 2;
+      members.push({ memberId: memberId, x: x, y: y, active: isActive(memberId), address: address(memberId) });
     }
     return members;
   }
 
   function address(m) {
-    const idx = hierarchy.children ? hierarchy.children.findIndex((d) => d.name.endsWith(m)) : -1;
+    const idx = hierarchy.children ? hierarchy.children.findIndex((d) => memberPort(d.name) == m) : -1;
     return idx >= 0 ? hierarchy.children[idx].name : '';
   }
 
   function isActive(m) {
-    return hierarchy.children ? hierarchy.children.findIndex((d) => d.name.endsWith(m)) >= 0 : false;
+    return hierarchy.children ? hierarchy.children.findIndex((d) => memberPort(d.name) == m) >= 0 : false;
   }
 }
 
@@ -299,7 +401,7 @@ function updateStatistics(data, shardingDataLinks) {
   const entityCount = shardingDataLinks.reduce((a, c) => a + (c.target.data.type == 'entity' ? 1 : 0), 0);
   const messageCount = data.serverActivities.reduce((a, c) => a + c.messageCount, 0);
   const messageCountDelta = messageCount - messageCountLast.count;
-  const timeDeltaSeconds = Math.round((new Date() - messageCountLast.time) / 1000);
+  const timeDeltaSeconds = Math.max(1, (new Date() - messageCountLast.time) / 1000);
   const messageRatePerSecond = Math.round(messageCountDelta / timeDeltaSeconds);
 
   messageCountLast.count = messageCount;
@@ -436,7 +538,11 @@ function labelOffsetX(d) {
 }
 
 function memberNumber(d) {
-  return d.data.name.slice(-1);
+  return memberPort(d.data.name) - firstPort + 1;
+}
+
+function memberPort(memberId) {
+  return Number(memberId.substring(memberId.lastIndexOf(':') + 1));
 }
 
 function clickCircle(d) {
@@ -501,6 +607,9 @@ svgElement.onmouseleave = function () {
 };
 
 function svgFocus(hasFocus) {
+  if (hasFocus && !svgHasFocus) {
+    update(modelData());
+  }
   svgHasFocus = hasFocus;
   console.log('SVG focus', svgHasFocus ? 'on' : 'off');
 }
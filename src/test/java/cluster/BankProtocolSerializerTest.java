@@ -0,0 +1,204 @@
+package cluster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.NotSerializableException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.typesafe.config.ConfigFactory;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import akka.actor.ExtendedActorSystem;
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.javadsl.Adapter;
+import cluster.BankEntityActor.BatchAck;
+import cluster.BankEntityActor.BatchCommand;
+import cluster.BankEntityActor.ChangeValue;
+import cluster.BankEntityActor.ChangeValueAck;
+import cluster.BankEntityActor.ChangeValueRejected;
+import cluster.BankEntityActor.Command;
+import cluster.BankEntityActor.GetValue;
+import cluster.BankEntityActor.GetValueAck;
+import cluster.BankEntityActor.GetValueAckNotFound;
+import cluster.BankEntityActor.Id;
+import cluster.BankEntityActor.Operation;
+import cluster.BankEntityActor.Passivate;
+import cluster.BankEntityActor.Result;
+import cluster.BankEntityActor.Value;
+import cluster.BankReadModelActor.Update;
+import cluster.BankReadModelActor.Updates;
+import cluster.HttpServer.EntityAction;
+import cluster.HttpServer.EntityActionBatch;
+
+class BankProtocolSerializerTest {
+  private static ActorTestKit testKit;
+  private static BankProtocolSerializer serializer;
+  private static ActorRef<Command> replyTo;
+
+  @BeforeAll
+  static void start() {
+    testKit = ActorTestKit.create("BankProtocolSerializerTest", ConfigFactory.defaultReference());
+    serializer = new BankProtocolSerializer((ExtendedActorSystem) Adapter.toClassic(testKit.system()));
+    replyTo = testKit.<Command>createTestProbe().getRef();
+  }
+
+  @AfterAll
+  static void stop() {
+    testKit.shutdownTestKit();
+  }
+
+  @Test
+  void changeValue() {
+    roundTrip("CV", new ChangeValue(new Id("1234"), new Value(1_700_000_000_000L), -250, "import-7:42", replyTo));
+    roundTrip("CV", new ChangeValue(new Id("1234"), new Value(Long.MAX_VALUE), Long.MIN_VALUE, null, replyTo));
+  }
+
+  @Test
+  void changeValueAck() {
+    roundTrip("CA", new ChangeValueAck("deposit", new Id("1234"), new Value(1), 100));
+    roundTrip("CA", new ChangeValueAck("withdraw", new Id("1234"), new Value(-1), Long.MIN_VALUE));
+    roundTrip("CA", new ChangeValueAck(null, new Id(null), new Value(0), 0));
+  }
+
+  @Test
+  void changeValueRejected() {
+    roundTrip("CR", new ChangeValueRejected(new Id("1234"), "insufficient funds", -1));
+    roundTrip("CR", new ChangeValueRejected(new Id("1234"), null, Long.MIN_VALUE));
+  }
+
+  @Test
+  void getValue() {
+    roundTrip("GV", new GetValue(new Id("1234"), replyTo));
+    roundTrip("GV", new GetValue(new Id(""), replyTo));
+  }
+
+  @Test
+  void getValueAck() {
+    roundTrip("GA", new GetValueAck(new Id("1234"), new Value(Long.MIN_VALUE), -1));
+    roundTrip("GA", new GetValueAck(new Id("1234"), new Value(Long.MAX_VALUE), Long.MAX_VALUE));
+  }
+
+  @Test
+  void getValueAckNotFound() {
+    roundTrip("GN", new GetValueAckNotFound(new Id("1234")));
+    roundTrip("GN", new GetValueAckNotFound(new Id(null)));
+  }
+
+  @Test
+  void batchCommand() {
+    roundTrip("BC", new BatchCommand(new Id("1234"), List.of(
+        new Operation(false, new Value(1), 100, "1234"),
+        new Operation(true, null, 0, null),
+        new Operation(false, new Value(2), Long.MIN_VALUE, null),
+        new Operation(false, new Value(-3), -1, "1234")), replyTo));
+    roundTrip("BC", new BatchCommand(new Id("1234"), List.of(), replyTo));
+  }
+
+  @Test
+  void batchAck() {
+    roundTrip("BA", new BatchAck(new Id("1234"), List.of(
+        new Result("deposit", null, 1, 100),
+        new Result("rejected", "insufficient funds", 0, -5),
+        new Result("rejected", "insufficient funds", Long.MIN_VALUE, Long.MIN_VALUE),
+        new Result("not-found", null, 0, 0))));
+    roundTrip("BA", new BatchAck(new Id("1234"), List.of()));
+  }
+
+  @Test
+  void passivate() {
+    assertEquals("P", serializer.manifest(Passivate.INSTANCE));
+    assertSame(Passivate.INSTANCE, fromBinary(serializer.toBinary(Passivate.INSTANCE), "P"));
+  }
+
+  @Test
+  void entityAction() {
+    roundTrip("EA", new EntityAction("akka://cluster@127.0.0.1:2551", "12", "1234", "start", "127.0.0.1:8551", 3));
+    roundTrip("EA", new EntityAction("same", "same", "same", "same", "same", -1));
+    roundTrip("EA", new EntityAction(null, null, null, null, null, 0));
+  }
+
+  @Test
+  void entityActionBatch() {
+    final var entityActions = new ArrayList<EntityAction>();
+    for (int i = 0; i < 100; i++) {
+      entityActions.add(new EntityAction("akka://cluster@127.0.0.1:2551", "" + i % 10, "" + i, "ping", "127.0.0.1:8551", i));
+    }
+    entityActions.add(new EntityAction("akka://cluster@127.0.0.1:2551", null, "100", "stop", null, 1));
+    final var bytes = roundTrip("EB", new EntityActionBatch(entityActions));
+    // the member and HTTP server addresses are written once and referenced by index in the other actions
+    assertTrue(bytes.length < 100 * ("akka://cluster@127.0.0.1:2551".length() + "127.0.0.1:8551".length()),
+        () -> bytes.length + " bytes");
+
+    roundTrip("EB", new EntityActionBatch(List.of()));
+  }
+
+  @Test
+  void readModelUpdates() {
+    roundTrip("RU", new Updates("akka://cluster@127.0.0.1:2551", 42, List.of(
+        new Update("1234", 1, 1_700_000_000_000L, 100),
+        new Update("1234", 2, -1, Long.MIN_VALUE),
+        new Update("5678", Long.MAX_VALUE, Long.MIN_VALUE, -1))));
+    roundTrip("RU", new Updates(null, Long.MIN_VALUE, List.of()));
+  }
+
+  @Test
+  void unknownManifest() {
+    assertThrows(NotSerializableException.class, () -> serializer.fromBinary(new byte[0], "XX"));
+    assertThrows(IllegalArgumentException.class, () -> serializer.manifest("not a bank message"));
+  }
+
+  private static byte[] roundTrip(String manifest, Object message) {
+    assertEquals(manifest, serializer.manifest(message));
+    final var bytes = serializer.toBinary(message);
+    assertSameFields(message, fromBinary(bytes, manifest), message.getClass().getSimpleName());
+    return bytes;
+  }
+
+  private static Object fromBinary(byte[] bytes, String manifest) {
+    try {
+      return serializer.fromBinary(bytes, manifest);
+    } catch (NotSerializableException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * The messages do not implement equals, so compare their instance fields, and those of the lists and the messages'
+   * own classes they hold, one by one.
+   */
+  private static void assertSameFields(Object expected, Object actual, String path) {
+    if (expected == null || actual == null) {
+      assertSame(expected, actual, path);
+    } else if (expected instanceof List) {
+      final var expectedList = (List<?>) expected;
+      final var actualList = (List<?>) actual;
+      assertEquals(expectedList.size(), actualList.size(), path + ".size");
+      for (int i = 0; i < expectedList.size(); i++) {
+        assertSameFields(expectedList.get(i), actualList.get(i), path + "[" + i + "]");
+      }
+    } else if (expected.getClass().getName().startsWith("cluster.") && !expected.getClass().isEnum()) {
+      assertEquals(expected.getClass(), actual.getClass(), path);
+      for (var field : expected.getClass().getDeclaredFields()) {
+        if (!Modifier.isStatic(field.getModifiers()) && !field.isSynthetic()) {
+          field.setAccessible(true);
+          try {
+            assertSameFields(field.get(expected), field.get(actual), path + "." + field.getName());
+          } catch (IllegalAccessException e) {
+            throw new AssertionError(e);
+          }
+        }
+      }
+    } else {
+      assertEquals(expected, actual, path);
+    }
+  }
+}
@@ -0,0 +1,215 @@
+package cluster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+
+import com.typesafe.config.ConfigFactory;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import akka.Done;
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.persistence.typed.DeleteEventsCompleted;
+import akka.persistence.typed.PersistenceId;
+import akka.persistence.typed.SnapshotSelectionCriteria;
+import akka.persistence.typed.javadsl.CommandHandler;
+import akka.persistence.typed.javadsl.EventHandler;
+import akka.persistence.typed.javadsl.EventSourcedBehavior;
+import akka.persistence.typed.javadsl.Recovery;
+import akka.persistence.typed.javadsl.RetentionCriteria;
+import akka.persistence.typed.javadsl.SignalHandler;
+
+class FileJournalTest {
+  private Path dir;
+  private ActorTestKit testKit;
+
+  @BeforeEach
+  void start() throws IOException {
+    dir = Files.createTempDirectory("file-journal-test");
+    testKit = ActorTestKit.create("FileJournalTest", ConfigFactory.parseString(String.join("\n",
+            "akka.persistence.journal.plugin = file-journal",
+            "akka.persistence.snapshot-store.plugin = akka.persistence.snapshot-store.local",
+            "akka.persistence.snapshot-store.local.dir = \"" + dir.resolve("snapshots") + "\"",
+            "file-journal.class = cluster.FileJournal",
+            "file-journal.dir = \"" + dir.resolve("journal") + "\"",
+            "file-journal.fsync = off"))
+        .withFallback(ConfigFactory.defaultReference()));
+  }
+
+  @AfterEach
+  void stop() throws IOException {
+    testKit.shutdownTestKit();
+    try (var paths = Files.walk(dir)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  @Test
+  void recoversUpToATornPayloadAndAppendsAfterIt() throws IOException {
+    // a record header announcing 100 bytes of payload, followed by only 10 of them
+    final var torn = ByteBuffer.allocate(1 + 8 + 4 + 10).put((byte) 0).putLong(4).putInt(100).array();
+    recoversUpToATornRecordAndAppendsAfterIt(torn);
+  }
+
+  @Test
+  void recoversUpToATornHeaderAndAppendsAfterIt() throws IOException {
+    recoversUpToATornRecordAndAppendsAfterIt(new byte[] { 0, 0, 0, 0, 0 });
+  }
+
+  private void recoversUpToATornRecordAndAppendsAfterIt(byte[] torn) throws IOException {
+    final var recorder = spawn("torn", 0, true);
+    add(recorder, "e1", "e2", "e3");
+    testKit.stop(recorder);
+    final var size = Files.size(journal("torn"));
+    Files.write(journal("torn"), torn, StandardOpenOption.APPEND);
+
+    final var recovered = spawn("torn", 0, true);
+    assertEquals("e1,e2,e3", events(recovered));
+    assertEquals(size, Files.size(journal("torn")), "the torn record is truncated on recovery");
+    add(recovered, "e4");
+    testKit.stop(recovered);
+
+    assertEquals("e1,e2,e3,e4", recover("torn", 0, true));
+  }
+
+  @Test
+  void replaySkipsDeletedEventsAndKeepsTheSequenceNumbers() throws IOException {
+    final var deletes = testKit.<Long>createTestProbe();
+    final var recorder = testKit.spawn(new Recorder("deleted", 2, true, deletes.getRef()));
+    add(recorder, "e1", "e2", "e3", "e4");
+    // the snapshot at 4 keeps one snapshot and deletes the events up to the one before, at 2; a signal cannot be sent
+    // to a probe as a message, so the recorder passes on its sequence number
+    assertEquals(2L, deletes.receiveMessage());
+    add(recorder, "e5");
+    testKit.stop(recorder);
+
+    assertEquals("e1,e2,e3,e4,e5", recover("deleted", 2, true));
+    final var withoutSnapshots = spawn("deleted", 0, false);
+    assertEquals("e3,e4,e5", events(withoutSnapshots));
+    add(withoutSnapshots, "e6");
+    testKit.stop(withoutSnapshots);
+
+    assertEquals("e3,e4,e5,e6", recover("deleted", 0, false));
+    assertEquals("e1,e2,e3,e4,e5,e6", recover("deleted", 2, true));
+  }
+
+  private ActorRef<Recorder.Command> spawn(String persistenceId, int snapshotEvery, boolean fromSnapshot) {
+    return testKit.spawn(new Recorder(persistenceId, snapshotEvery, fromSnapshot, testKit.system().ignoreRef()));
+  }
+
+  private String recover(String persistenceId, int snapshotEvery, boolean fromSnapshot) {
+    final var recorder = spawn(persistenceId, snapshotEvery, fromSnapshot);
+    final var events = events(recorder);
+    testKit.stop(recorder);
+    return events;
+  }
+
+  private void add(ActorRef<Recorder.Command> recorder, String... events) {
+    final TestProbe<Done> probe = testKit.createTestProbe();
+    for (var event : events) {
+      recorder.tell(new Recorder.Add(event, probe.getRef()));
+      probe.expectMessage(Done.getInstance());
+    }
+  }
+
+  private String events(ActorRef<Recorder.Command> recorder) {
+    final TestProbe<String> probe = testKit.createTestProbe();
+    recorder.tell(new Recorder.Get(probe.getRef()));
+    return probe.receiveMessage();
+  }
+
+  private Path journal(String persistenceId) {
+    return dir.resolve("journal").resolve(URLEncoder.encode(persistenceId, StandardCharsets.UTF_8) + ".journal");
+  }
+
+  /**
+   * Persists strings and keeps them comma separated, so events and snapshots use Akka's string serializer.
+   */
+  private static class Recorder extends EventSourcedBehavior<Recorder.Command, String, String> {
+    interface Command {}
+
+    static class Add implements Command {
+      final String event;
+      final ActorRef<Done> replyTo;
+
+      Add(String event, ActorRef<Done> replyTo) {
+        this.event = event;
+        this.replyTo = replyTo;
+      }
+    }
+
+    static class Get implements Command {
+      final ActorRef<String> replyTo;
+
+      Get(ActorRef<String> replyTo) {
+        this.replyTo = replyTo;
+      }
+    }
+
+    private final int snapshotEvery;
+    private final boolean fromSnapshot;
+    private final ActorRef<Long> deletes;
+
+    Recorder(String persistenceId, int snapshotEvery, boolean fromSnapshot, ActorRef<Long> deletes) {
+      super(PersistenceId.ofUniqueId(persistenceId));
+      this.snapshotEvery = snapshotEvery;
+      this.fromSnapshot = fromSnapshot;
+      this.deletes = deletes;
+    }
+
+    @Override
+    public String emptyState() {
+      return "";
+    }
+
+    @Override
+    public CommandHandler<Command, String, String> commandHandler() {
+      return newCommandHandlerBuilder()
+          .forAnyState()
+          .onCommand(Add.class, (state, add) -> Effect().persist(add.event).thenRun(newState -> add.replyTo.tell(Done.getInstance())))
+          .onCommand(Get.class, (state, get) -> {
+            get.replyTo.tell(state);
+            return Effect().none();
+          })
+          .build();
+    }
+
+    @Override
+    public EventHandler<String, String> eventHandler() {
+      return newEventHandlerBuilder()
+          .forAnyState()
+          .onAnyEvent((state, event) -> state.isEmpty() ? event : state + "," + event);
+    }
+
+    @Override
+    public SignalHandler<String> signalHandler() {
+      return newSignalHandlerBuilder()
+          .onSignal(DeleteEventsCompleted.class, (state, deleted) -> deletes.tell(deleted.toSequenceNr()))
+          .build();
+    }
+
+    @Override
+    public RetentionCriteria retentionCriteria() {
+      return snapshotEvery > 0
+          ? RetentionCriteria.snapshotEvery(snapshotEvery, 1).withDeleteEventsOnSnapshot()
+          : RetentionCriteria.disabled();
+    }
+
+    @Override
+    public Recovery recovery() {
+      return fromSnapshot ? super.recovery() : Recovery.withSnapshotSelectionCriteria(SnapshotSelectionCriteria.none());
+    }
+  }
+}